@@ -0,0 +1,58 @@
+package Jlox;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+
+// Runs each script repeatedly in one JVM and reports the bytes the running thread
+// allocated and the time taken per run, after a warm-up. Scripts run earlier in the
+// same JVM shape the JIT's profiles for later ones, so bench/run.sh gives each
+// script a JVM of its own.
+//
+//   java -cp <classes> Jlox.AllocationBenchmark [--no-header] bench/corpus/fib.lox ...
+public class AllocationBenchmark {
+    private static final int WARMUP = 10;
+    private static final int RUNS = 20;
+
+    public static void main(String[] args) throws IOException {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+
+        int first = args.length > 0 && args[0].equals("--no-header") ? 1 : 0;
+        if(first == 0) System.out.printf("%-24s %16s %12s%n", "script", "bytes/run", "ms/run");
+
+        for(String path : Arrays.copyOfRange(args, first, args.length)) {
+            String source = new String(Files.readAllBytes(Paths.get(path)), Charset.defaultCharset());
+            List<Stmt> stmts = new Parser(new Scanner(source).scanTokens()).parse();
+            int slotCount = new Resolver().resolve(stmts);
+            Diagnostics diagnostics = new Diagnostics();
+
+            PrintStream out = System.out;
+            System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+            for(int i = 0; i < WARMUP; i++) {
+                new Interpreter().interpret(stmts, slotCount, diagnostics);
+            }
+
+            long bytes = threads.getThreadAllocatedBytes(thread);
+            long start = System.nanoTime();
+            for(int i = 0; i < RUNS; i++) {
+                new Interpreter().interpret(stmts, slotCount, diagnostics);
+            }
+            long elapsed = System.nanoTime() - start;
+            bytes = threads.getThreadAllocatedBytes(thread) - bytes;
+
+            System.setOut(out);
+            diagnostics.report(System.err);
+            System.out.printf("%-24s %16d %12.2f%n", Paths.get(path).getFileName(),
+                    bytes / RUNS, elapsed / 1e6 / RUNS);
+        }
+    }
+}
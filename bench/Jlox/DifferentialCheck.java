@@ -0,0 +1,221 @@
+package Jlox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+// Runs each script under every engine below: the visitor and switch interpreters,
+// with and without the Optimizer, with every function compiled to bytecode on its
+// first call, through a .loxc module with and without the Optimizer, with coverage
+// counters in, parsed by parseParallel one statement per chunk, and typed into an
+// IncrementalParser a line at a time, and compares everything it printed, errors
+// included. A script with "// expect: <line>" comments must also print exactly
+// those lines, as bench/regress does. Exits with status 1 if any script differs.
+// Fuzz runs generated programs through the same engines.
+//
+//   java -cp <classes> Jlox.DifferentialCheck bench/corpus/*.lox
+public class DifferentialCheck {
+    private static final int OPTIMIZE = 1;
+    private static final int COMPILE  = 2;
+    private static final int SWITCH   = 4;
+    private static final int MODULE   = 8;
+    private static final int COVERAGE = 16;
+    private static final int PARALLEL = 32;
+    private static final int INCREMENTAL = 64;
+
+    // One way of running a script.
+    static class Engine {
+        final String name;
+        private final int flags;
+
+        Engine(String name, int flags) {
+            this.name = name;
+            this.flags = flags;
+        }
+
+        private boolean has(int flag) {
+            return (flags & flag) != 0;
+        }
+    }
+
+    static final List<Engine> ENGINES = List.of(
+            new Engine("plain", 0),
+            new Engine("optimized", OPTIMIZE),
+            new Engine("compiled", COMPILE),
+            new Engine("optimized+compiled", OPTIMIZE | COMPILE),
+            new Engine("switch", SWITCH),
+            new Engine("optimized+switch", OPTIMIZE | SWITCH),
+            new Engine("module", MODULE),
+            new Engine("optimized+module", OPTIMIZE | MODULE),
+            new Engine("coverage", OPTIMIZE | COMPILE | COVERAGE),
+            new Engine("parallel", PARALLEL),
+            new Engine("incremental", INCREMENTAL));
+
+    public static void main(String[] args) throws IOException {
+        int failures = 0;
+
+        for(String path : args) {
+            String source = new String(Files.readAllBytes(Paths.get(path)), Charset.defaultCharset());
+            List<String> outputs = runAll(source, Governor.UNLIMITED, Governor.UNLIMITED);
+            String expected = expected(source);
+
+            if(expected != null && !outputs.get(0).equals(expected)) {
+                failures++;
+                System.out.println("WRONG    " + path);
+                System.out.print("--- expected\n" + expected + "--- " + ENGINES.get(0).name + "\n" + outputs.get(0));
+            }
+            else if(differing(outputs).isEmpty()) {
+                System.out.println("same     " + path);
+            }
+            else {
+                failures++;
+                System.out.println("MISMATCH " + path);
+                System.out.print(describe(outputs));
+            }
+        }
+
+        if(failures > 0) System.exit(1);
+    }
+
+    // The lines the script's expect comments give, or null if it has none.
+    private static String expected(String source) {
+        StringBuilder lines = new StringBuilder();
+        boolean any = false;
+        for(String line : source.split("\n")) {
+            int at = line.indexOf("// expect: ");
+            if(at < 0) continue;
+
+            lines.append(line.substring(at + "// expect: ".length())).append('\n');
+            any = true;
+        }
+
+        return any ? lines.toString() : null;
+    }
+
+    // What source prints under each of ENGINES, in order.
+    static List<String> runAll(String source, long maxSteps, long maxAllocation) {
+        List<String> outputs = new ArrayList<>();
+        for(Engine engine : ENGINES) {
+            outputs.add(run(source, engine, maxSteps, maxAllocation));
+        }
+
+        return outputs;
+    }
+
+    // Names of the engines whose output is not the plain interpreter's.
+    static List<String> differing(List<String> outputs) {
+        List<String> names = new ArrayList<>();
+        for(int i = 1; i < outputs.size(); i++) {
+            if(!outputs.get(i).equals(outputs.get(0))) names.add(ENGINES.get(i).name);
+        }
+
+        return names;
+    }
+
+    static String describe(List<String> outputs) {
+        StringBuilder text = new StringBuilder();
+        for(int i = 0; i < outputs.size(); i++) {
+            text.append("--- ").append(ENGINES.get(i).name).append('\n').append(outputs.get(i));
+        }
+
+        return text.toString();
+    }
+
+    static String run(String source, Engine engine, long maxSteps, long maxAllocation) {
+        PrintStream out = System.out;
+        PrintStream err = System.err;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        PrintStream capture = new PrintStream(bytes, true);
+        System.setOut(capture);
+        System.setErr(capture);
+
+        try {
+            Diagnostics diagnostics = new Diagnostics();
+            LoxModule module = compile(source, engine, diagnostics);
+            if(module != null) {
+                if(engine.has(MODULE)) module = roundTrip(module);
+
+                List<Stmt> stmts = module.statements;
+                int slotCount = module.slotCount;
+                if(engine.has(OPTIMIZE)) slotCount = new Optimizer().optimize(stmts, slotCount);
+                if(engine.has(COVERAGE)) new Coverage().instrument(stmts);
+
+                Interpreter interpreter = engine.has(SWITCH) ? new SwitchInterpreter() : new Interpreter();
+                interpreter.jitThreshold = engine.has(COMPILE) ? 1 : 0;
+                interpreter.setGovernor(new Governor(maxSteps, Governor.UNLIMITED, maxAllocation));
+                interpreter.interpret(stmts, slotCount, diagnostics);
+            }
+
+            diagnostics.report(capture);
+            return bytes.toString();
+        }
+        // A crash in one engine is a difference like any other.
+        catch (RuntimeException | Error e) {
+            capture.println("crashed: " + e);
+            return bytes.toString();
+        }
+        finally {
+            System.setOut(out);
+            System.setErr(err);
+        }
+    }
+
+    // Lox.compile, or the same through the parallel parser or an IncrementalParser.
+    private static LoxModule compile(String source, Engine engine, Diagnostics diagnostics) {
+        if(engine.has(PARALLEL)) {
+            Parser parser = new Parser(new Scanner(source, diagnostics).scanTokens(), diagnostics);
+            parser.parallelGrain = 1;
+            return Lox.resolve(parser.parseParallel(), diagnostics);
+        }
+
+        if(!engine.has(INCREMENTAL)) return Lox.compile(source, diagnostics);
+
+        IncrementalParser parser = typeIn(source);
+        if(!parser.diagnostics().hadError()) return Lox.resolve(parser.statements(), diagnostics);
+
+        // Error recovery goes segment by segment, so it can report other errors
+        // than a full parse; only whether there are any is compared.
+        Diagnostics full = new Diagnostics();
+        new Parser(new Scanner(source, full).scanTokens(), full).parse();
+        if(!full.hadError()) System.out.println("incremental parse has errors a full parse does not");
+        else Lox.compile(source, diagnostics);
+        return null;
+    }
+
+    // Appends source a line at a time, as the REPL builds an entry.
+    private static IncrementalParser typeIn(String source) {
+        IncrementalParser parser = new IncrementalParser("");
+        for(int from = 0; from < source.length(); ) {
+            int to = source.indexOf('\n', from) + 1;
+            if(to == 0) to = source.length();
+
+            parser.edit(parser.length(), 0, source.substring(from, to));
+            from = to;
+        }
+
+        return parser;
+    }
+
+    private static LoxModule roundTrip(LoxModule module) {
+        try {
+            Path file = Files.createTempFile("differential", LoxModule.EXTENSION);
+            try {
+                module.write(file);
+                return LoxModule.load(file);
+            }
+            finally {
+                Files.delete(file);
+            }
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
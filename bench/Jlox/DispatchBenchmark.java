@@ -0,0 +1,64 @@
+package Jlox;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+
+// Times the scripts under one way of dispatching on nodes: the visitor-based
+// Interpreter or SwitchInterpreter. Bytecode compilation is off, so every node
+// goes through the dispatch being measured. The two share every visit method, so
+// running both in one JVM would mix their profiles; bench/run.sh runs each in a
+// JVM of its own.
+//
+//   java -cp <classes> Jlox.DispatchBenchmark [--no-header] visitor|switch bench/corpus/fib.lox ...
+public class DispatchBenchmark {
+    private static final int WARMUP = 10;
+    private static final int RUNS = 20;
+
+    public static void main(String[] args) throws IOException {
+        int first = args.length > 0 && args[0].equals("--no-header") ? 1 : 0;
+        if(args.length < first + 1 || !(args[first].equals("visitor") || args[first].equals("switch"))) {
+            System.err.println("Usage: DispatchBenchmark [--no-header] visitor|switch <script>...");
+            System.exit(64);
+        }
+
+        boolean useSwitch = args[first].equals("switch");
+        if(first == 0) System.out.printf("%-24s %-10s %12s%n", "script", "dispatch", "ms/run");
+
+        for(String path : Arrays.copyOfRange(args, first + 1, args.length)) {
+            String source = new String(Files.readAllBytes(Paths.get(path)), Charset.defaultCharset());
+            List<Stmt> stmts = new Parser(new Scanner(source).scanTokens()).parse();
+            int slotCount = new Resolver().resolve(stmts);
+            Diagnostics diagnostics = new Diagnostics();
+
+            PrintStream out = System.out;
+            System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+            for(int i = 0; i < WARMUP; i++) {
+                run(useSwitch, stmts, slotCount, diagnostics);
+            }
+
+            long start = System.nanoTime();
+            for(int i = 0; i < RUNS; i++) {
+                run(useSwitch, stmts, slotCount, diagnostics);
+            }
+            long elapsed = System.nanoTime() - start;
+
+            System.setOut(out);
+            diagnostics.report(System.err);
+            System.out.printf("%-24s %-10s %12.2f%n", Paths.get(path).getFileName(), args[first],
+                    elapsed / 1e6 / RUNS);
+        }
+    }
+
+    private static void run(boolean useSwitch, List<Stmt> stmts, int slotCount, Diagnostics diagnostics) {
+        Interpreter interpreter = useSwitch ? new SwitchInterpreter() : new Interpreter();
+        interpreter.jitThreshold = 0;
+        interpreter.interpret(stmts, slotCount, diagnostics);
+    }
+}
@@ -0,0 +1,191 @@
+package Jlox;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Differential fuzzing: runs programs from ProgramGenerator under every engine in
+// DifferentialCheck and compares what each printed, runtime errors included. A
+// program some engine disagrees on is shrunk to the fewest lines that still make
+// the same engines disagree, and both versions are written to the output directory
+// as seed-<n>.lox and seed-<n>.min.lox. Program n comes from seed n alone, so a
+// failure can be brought back with --seed n --count 1. Exits with status 1 if any
+// program differs.
+//
+//   java -cp <classes> Jlox.Fuzz [--seed <first>] [--count <programs>] [--out <dir>]
+public class Fuzz {
+    // Enough for every generated program that does not blow up in calls or in
+    // strings that double on every pass through a loop.
+    private static final long MAX_STEPS = 200_000;
+    private static final long MAX_ALLOCATION = 1_000_000;
+    // Where these stop a program depends on how an engine counts steps and
+    // allocation or how deep its stack goes, so programs that hit them are not
+    // compared.
+    private static final List<String> LIMITS = List.of("Step budget exceeded.", "Allocation limit exceeded.",
+            "Stack overflow.");
+
+    public static void main(String[] args) throws IOException {
+        long seed = 1;
+        int count = 200;
+        Path out = null;
+
+        for(int i = 0; i < args.length; i++) {
+            if(i + 1 == args.length) usage();
+
+            switch (args[i]) {
+                case "--seed":
+                    seed = Long.parseLong(args[++i]);
+                    break;
+                case "--count":
+                    count = Integer.parseInt(args[++i]);
+                    break;
+                case "--out":
+                    out = Paths.get(args[++i]);
+                    break;
+                default:
+                    usage();
+            }
+        }
+
+        if(out != null) Files.createDirectories(out);
+
+        long start = System.nanoTime();
+        int skipped = 0;
+        int failures = 0;
+
+        for(long n = seed; n < seed + count; n++) {
+            String source = new ProgramGenerator(n).program();
+            List<String> outputs = DifferentialCheck.runAll(source, MAX_STEPS, MAX_ALLOCATION);
+            if(!comparable(outputs)) {
+                skipped++;
+                continue;
+            }
+
+            List<String> differing = DifferentialCheck.differing(outputs);
+            if(differing.isEmpty()) continue;
+
+            failures++;
+            String minimized = minimize(source, differing);
+            System.out.println("MISMATCH seed " + n + " in " + String.join(", ", differing));
+            System.out.print(minimized);
+            List<String> shrunk = DifferentialCheck.runAll(minimized, MAX_STEPS, MAX_ALLOCATION);
+            System.out.print(DifferentialCheck.describe(shrunk));
+
+            if(out != null) {
+                Files.write(out.resolve("seed-" + n + ".lox"), source.getBytes(Charset.defaultCharset()));
+                Files.write(out.resolve("seed-" + n + ".min.lox"), minimized.getBytes(Charset.defaultCharset()));
+            }
+        }
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("fuzz: %d programs from seed %d, %d hit a limit, %d differ; %.1f s%n",
+                count, seed, skipped, failures, seconds);
+
+        if(failures > 0) System.exit(1);
+    }
+
+    private static void usage() {
+        System.err.println("Usage: Fuzz [--seed <first>] [--count <programs>] [--out <dir>]");
+        System.exit(64);
+    }
+
+    private static boolean comparable(List<String> outputs) {
+        for(String output : outputs) {
+            for(String limit : LIMITS) {
+                if(output.contains(limit)) return false;
+            }
+        }
+
+        return true;
+    }
+
+    // Whether the program still makes exactly these engines differ.
+    private static boolean fails(List<String> lines, List<String> differing) {
+        List<String> outputs = DifferentialCheck.runAll(String.join("\n", lines) + "\n", MAX_STEPS,
+                MAX_ALLOCATION);
+        return comparable(outputs) && DifferentialCheck.differing(outputs).equals(differing);
+    }
+
+    // Deletes lines while the program still fails the same way: runs of lines, from
+    // halves of the program down to single lines, then the opening and closing lines
+    // of a block together, until neither deletes anything. Lines left without a
+    // matching brace no longer parse, which every engine agrees on.
+    static String minimize(String source, List<String> differing) {
+        List<String> lines = new ArrayList<>(Arrays.asList(source.split("\n")));
+
+        while (true) {
+            int before = lines.size();
+            lines = deleteRuns(lines, differing);
+            lines = unwrapBlocks(lines, differing);
+            if(lines.size() == before) break;
+        }
+
+        return String.join("\n", lines) + "\n";
+    }
+
+    private static List<String> deleteRuns(List<String> lines, List<String> differing) {
+        int runs = 2;
+
+        while (lines.size() >= 2) {
+            int length = (lines.size() + runs - 1) / runs;
+            boolean deleted = false;
+
+            for(int from = 0; from < lines.size(); from += length) {
+                List<String> candidate = new ArrayList<>(lines.subList(0, from));
+                candidate.addAll(lines.subList(Math.min(from + length, lines.size()), lines.size()));
+
+                if(fails(candidate, differing)) {
+                    lines = candidate;
+                    runs = Math.max(runs - 1, 2);
+                    deleted = true;
+                    break;
+                }
+            }
+
+            if(deleted) continue;
+            if(runs >= lines.size()) break;
+            runs = Math.min(runs * 2, lines.size());
+        }
+
+        return lines;
+    }
+
+    private static List<String> unwrapBlocks(List<String> lines, List<String> differing) {
+        for(int open = 0; open < lines.size(); open++) {
+            if(!lines.get(open).endsWith("{") || braces(lines.get(open)) != 1) continue;
+
+            int depth = 0;
+            for(int close = open; close < lines.size(); close++) {
+                depth += braces(lines.get(close));
+                if(depth > 0) continue;
+
+                List<String> candidate = new ArrayList<>(lines);
+                candidate.remove(close);
+                candidate.remove(open);
+                if(fails(candidate, differing)) {
+                    lines = candidate;
+                    open--;
+                }
+                break;
+            }
+        }
+
+        return lines;
+    }
+
+    // Opening braces on a line less closing ones.
+    private static int braces(String line) {
+        int count = 0;
+        for(char c : line.toCharArray()) {
+            if(c == '{') count++;
+            if(c == '}') count--;
+        }
+
+        return count;
+    }
+}
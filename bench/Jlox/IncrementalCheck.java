@@ -0,0 +1,158 @@
+package Jlox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Random;
+
+// Makes random edits to each script through IncrementalParser and after every one
+// compares it with scanning and parsing the edited text from scratch: the tokens
+// with their lines, columns and offsets, whether there are errors, and for text
+// without errors the statements, compared by serializing both. Edits delete spans,
+// paste pieces of the script elsewhere and insert braces, quotes, comments and
+// newlines. Exits with status 1 on the first edit that does not match.
+//
+// Then, for each script copied 50 times over, times typing a statement into the
+// middle of it one character at a time and deleting it again, against parsing the
+// whole text once.
+//
+//   java -cp <classes> Jlox.IncrementalCheck [--edits <per script>] bench/corpus/*.lox
+public class IncrementalCheck {
+    private static final String[] FRAGMENTS = {
+            "{", "}", "(", ")", ";", "\"", "//", "\n", " ", "var a = 1;", "fun f() {", "print a;\n", "@"
+    };
+
+    public static void main(String[] args) throws IOException {
+        int edits = 500;
+        int first = 0;
+        if(args.length >= 2 && args[0].equals("--edits")) {
+            edits = Integer.parseInt(args[1]);
+            first = 2;
+        }
+
+        for(int i = first; i < args.length; i++) {
+            String path = args[i];
+            String original = new String(Files.readAllBytes(Paths.get(path)), Charset.defaultCharset());
+            if(!check(path, original, edits, new Random(i))) System.exit(1);
+        }
+
+        for(int i = first; i < args.length; i++) {
+            String original = new String(Files.readAllBytes(Paths.get(args[i])), Charset.defaultCharset());
+            typing(args[i], original.repeat(50));
+        }
+    }
+
+    private static boolean check(String path, String original, int edits, Random random) {
+        IncrementalParser incremental = new IncrementalParser(original);
+        String text = original;
+
+        for(int n = 0; n < edits; n++) {
+            int offset = random.nextInt(text.length() + 1);
+            int removed = 0;
+            String inserted = "";
+            switch (random.nextInt(3)) {
+                case 0:
+                    removed = Math.min(random.nextInt(20), text.length() - offset);
+                    break;
+                case 1:
+                    int from = random.nextInt(original.length() + 1);
+                    inserted = original.substring(from, Math.min(from + random.nextInt(40), original.length()));
+                    break;
+                default:
+                    inserted = FRAGMENTS[random.nextInt(FRAGMENTS.length)];
+            }
+
+            text = text.substring(0, offset) + inserted + text.substring(offset + removed);
+
+            incremental.edit(offset, removed, inserted);
+
+            Diagnostics diagnostics = new Diagnostics();
+            List<Token> tokens = new Scanner(text, diagnostics).scanTokens();
+            List<Stmt> stmts = new Parser(tokens, diagnostics).parse();
+
+            String problem = compare(incremental, text, tokens, stmts, diagnostics);
+            if(problem != null) {
+                System.out.println("MISMATCH " + path + " after edit " + (n + 1) + " at " + offset + " removing "
+                        + removed + " inserting \"" + inserted.replace("\n", "\\n") + "\": " + problem);
+                return false;
+            }
+        }
+
+        System.out.println("same     " + path + ": " + edits + " edits");
+        return true;
+    }
+
+    private static void typing(String path, String text) {
+        String typed = "var typed = 1 + 2;\n";
+        int rounds = 20;
+
+        List<Token> tokens = new Scanner(text).scanTokens();
+        List<Integer> boundaries = Parser.topLevelBoundaries(tokens);
+        int offset = tokens.get(boundaries.get(boundaries.size() / 2)).offset;
+
+        IncrementalParser incremental = new IncrementalParser(text);
+        long start = System.nanoTime();
+        for(int round = 0; round < rounds; round++) {
+            for(int i = 0; i < typed.length(); i++) {
+                incremental.edit(offset + i, 0, typed.substring(i, i + 1));
+            }
+            for(int i = typed.length() - 1; i >= 0; i--) {
+                incremental.edit(offset + i, 1, "");
+            }
+        }
+        double keystroke = (System.nanoTime() - start) / 1e3 / (rounds * typed.length() * 2);
+
+        start = System.nanoTime();
+        for(int round = 0; round < rounds; round++) {
+            new Parser(new Scanner(text).scanTokens()).parse();
+        }
+        double full = (System.nanoTime() - start) / 1e3 / rounds;
+
+        System.out.printf("typing   %s x50: %.1f us per keystroke, %.1f us per full parse%n", path, keystroke,
+                full);
+    }
+
+    private static String compare(IncrementalParser incremental, String text, List<Token> tokens, List<Stmt> stmts,
+            Diagnostics diagnostics) {
+        if(!incremental.source().equals(text)) return "source differs";
+
+        List<Token> incrementalTokens = incremental.tokens();
+        if(incrementalTokens.size() != tokens.size()) {
+            return incrementalTokens.size() + " tokens instead of " + tokens.size();
+        }
+
+        for(int i = 0; i < tokens.size(); i++) {
+            String expected = describe(tokens.get(i));
+            String actual = describe(incrementalTokens.get(i));
+            if(!actual.equals(expected)) return "token " + i + " is " + actual + " instead of " + expected;
+        }
+
+        boolean hadError = incremental.diagnostics().hadError();
+        if(hadError != diagnostics.hadError()) {
+            return hadError ? "errors that a full parse does not have" : "no errors where a full parse has them";
+        }
+
+        if(!hadError && !serialize(incremental.statements()).equals(serialize(stmts))) return "statements differ";
+        return null;
+    }
+
+    private static String describe(Token token) {
+        return token.type + " '" + token.lexeme + "' " + token.line + ":" + token.column + " @" + token.offset;
+    }
+
+    private static String serialize(List<Stmt> stmts) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(stmts.toArray(new Stmt[0]));
+        }
+        catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+
+        return bytes.toString(Charset.forName("ISO-8859-1"));
+    }
+}
@@ -0,0 +1,191 @@
+package Jlox;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Runs each script unoptimized and counts how often every node shape is executed,
+// where a shape is a node type plus what its operands are (local, constant, ...).
+// The shapes at the top of the list are what Fuser fuses.
+//
+//   java -cp <classes> Jlox.NodeStats bench/corpus/*.lox
+public class NodeStats extends Interpreter {
+    private final Map<String, Long> counts;
+
+    private NodeStats(Map<String, Long> counts) {
+        this.counts = counts;
+    }
+
+    public static void main(String[] args) throws IOException {
+        Map<String, Long> counts = new HashMap<>();
+
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        for(String path : args) {
+            String source = new String(Files.readAllBytes(Paths.get(path)), Charset.defaultCharset());
+            List<Stmt> stmts = new Parser(new Scanner(source).scanTokens()).parse();
+            int slotCount = new Resolver().resolve(stmts);
+            Diagnostics diagnostics = new Diagnostics();
+            new NodeStats(counts).interpret(stmts, slotCount, diagnostics);
+            diagnostics.report(System.err);
+        }
+        System.setOut(out);
+
+        long total = 0;
+        for(long count : counts.values()) {
+            total += count;
+        }
+
+        List<Map.Entry<String, Long>> entries = new ArrayList<>(counts.entrySet());
+        entries.sort((a, b) -> Long.compare(b.getValue(), a.getValue()));
+
+        System.out.printf("%-40s %14s %8s%n", "shape", "executions", "share");
+        for(Map.Entry<String, Long> entry : entries) {
+            System.out.printf("%-40s %14d %7.2f%%%n", entry.getKey(), entry.getValue(),
+                    100.0 * entry.getValue() / total);
+        }
+    }
+
+    private void count(String shape) {
+        counts.merge(shape, 1L, Long::sum);
+    }
+
+    private static String operand(Expr expr) {
+        if(expr instanceof Expr.Literal) return "constant";
+        if(expr instanceof Expr.Variable) return kind(((Expr.Variable) expr).kind);
+        if(expr instanceof Expr.Call) return "call";
+
+        return "expr";
+    }
+
+    private static String kind(int kind) {
+        switch (kind) {
+            case Resolver.LOCAL:
+                return "local";
+            case Resolver.CELL:
+                return "cell";
+            case Resolver.UPVALUE:
+                return "upvalue";
+            case Resolver.LATE:
+                return "late";
+            default:
+                return "global";
+        }
+    }
+
+    @Override
+    public Object visitBinaryExpr(Expr.Binary expr) {
+        count("Binary " + operand(expr.left) + " " + expr.operator.lexeme + " " + operand(expr.right));
+        return super.visitBinaryExpr(expr);
+    }
+
+    @Override
+    public Object visitUnaryExpr(Expr.Unary expr) {
+        count("Unary " + expr.operator.lexeme + " " + operand(expr.right));
+        return super.visitUnaryExpr(expr);
+    }
+
+    @Override
+    public Object visitGroupingExpr(Expr.Grouping expr) {
+        count("Grouping");
+        return super.visitGroupingExpr(expr);
+    }
+
+    @Override
+    public Object visitLiteralExpr(Expr.Literal expr) {
+        count("Literal");
+        return super.visitLiteralExpr(expr);
+    }
+
+    @Override
+    public Object visitVariableExpr(Expr.Variable expr) {
+        count("Variable " + operand(expr));
+        return super.visitVariableExpr(expr);
+    }
+
+    @Override
+    public Object visitAssignExpr(Expr.Assign expr) {
+        String shape = "Assign " + kind(expr.kind);
+        if(expr.value instanceof Expr.Binary) {
+            Expr.Binary binary = (Expr.Binary) expr.value;
+            boolean self = binary.left instanceof Expr.Variable
+                    && ((Expr.Variable) binary.left).slot == expr.slot
+                    && ((Expr.Variable) binary.left).kind == expr.kind;
+            shape += " = " + (self ? "itself" : operand(binary.left)) + " " + binary.operator.lexeme
+                    + " " + operand(binary.right);
+        }
+        else {
+            shape += " = " + operand(expr.value);
+        }
+
+        count(shape);
+        return super.visitAssignExpr(expr);
+    }
+
+    @Override
+    public Object visitLogicalExpr(Expr.Logical expr) {
+        count("Logical " + expr.operator.lexeme);
+        return super.visitLogicalExpr(expr);
+    }
+
+    @Override
+    public Object visitCallExpr(Expr.Call expr) {
+        count("Call " + operand(expr.callee) + " with " + expr.arguments.size() + " arguments");
+        return super.visitCallExpr(expr);
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        count("Print " + operand(stmt.expression));
+        return super.visitPrintStmt(stmt);
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        count("Expression");
+        return super.visitExpressionStmt(stmt);
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        count("Var");
+        return super.visitVarStmt(stmt);
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        count("Block");
+        return super.visitBlockStmt(stmt);
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        count("If");
+        return super.visitIfStmt(stmt);
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        String shape = "While";
+        if(stmt.condition instanceof Expr.Binary) {
+            Expr.Binary condition = (Expr.Binary) stmt.condition;
+            shape += " " + operand(condition.left) + " " + condition.operator.lexeme + " " + operand(condition.right);
+        }
+
+        count(shape);
+        return super.visitWhileStmt(stmt);
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        count("Return");
+        return super.visitReturnStmt(stmt);
+    }
+}
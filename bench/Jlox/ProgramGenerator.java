@@ -0,0 +1,611 @@
+package Jlox;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+// Writes a random Lox program that parses, resolves and ends, for Fuzz to run under
+// every engine. There is a production for each node in tools/GenerateAst that the
+// parser can produce: every Stmt but the ones passes make (WhileLess, Trap, Count),
+// and for expressions literals, unary and binary operators, grouping, variables,
+// assignment, and/or, calls, property get and set, method calls, this and super.
+//
+// Expressions are mostly typed so that most programs run a while before a runtime
+// error, if they hit one; a few operands are picked from the wrong type on purpose.
+// Loops count to a small constant with a counter nothing else assigns, and a
+// function or method only calls what was declared before it, apart from one kind of
+// function that recurses on a small literal, so every program terminates. Each
+// statement is written on a line of its own, and a block's closing brace too, so
+// that Fuzz can shrink a program by deleting lines.
+class ProgramGenerator {
+    private static final int NUM    = 0;
+    private static final int STR    = 1;
+    private static final int BOOL   = 2;
+    private static final int LIST   = 3;
+    private static final int OBJECT = 4;
+    private static final int FUN    = 5;
+    private static final int CLASS  = 6;
+
+    // How tightly each kind of expression binds, loosest first.
+    private static final int OR         = 1;
+    private static final int AND        = 2;
+    private static final int EQUALITY   = 3;
+    private static final int COMPARISON = 4;
+    private static final int TERM       = 5;
+    private static final int FACTOR     = 6;
+    private static final int UNARY      = 7;
+    private static final int PRIMARY    = 8;
+
+    private static final int MAX_NESTING = 3;
+    private static final int MAX_EXPR_DEPTH = 3;
+
+    private static class Name {
+        final String name;
+        final int type;
+        // Parameters of a function; the class of an object or a class.
+        final int arity;
+        final Klass klass;
+        // Loop counters are never assigned, so loops always end.
+        final boolean fixed;
+
+        Name(String name, int type, int arity, Klass klass, boolean fixed) {
+            this.name = name;
+            this.type = type;
+            this.arity = arity;
+            this.klass = klass;
+            this.fixed = fixed;
+        }
+    }
+
+    private static class Klass {
+        final String name;
+        final Klass superclass;
+        // Method names to arities, inherited ones included.
+        final Map<String, Integer> methods = new LinkedHashMap<>();
+
+        Klass(String name, Klass superclass) {
+            this.name = name;
+            this.superclass = superclass;
+            if(superclass != null) methods.putAll(superclass.methods);
+        }
+    }
+
+    private final Random random;
+    private final StringBuilder out = new StringBuilder();
+    private final List<List<Name>> scopes = new ArrayList<>();
+    private int indent = 0;
+    private int nesting = 0;
+    private int names = 0;
+    // Of the expression written last.
+    private int precedence = PRIMARY;
+
+    private boolean inFunction = false;
+    // The class whose method is being written, for this and super.
+    private Klass inClass = null;
+
+    ProgramGenerator(long seed) {
+        this.random = new Random(seed);
+    }
+
+    String program() {
+        scopes.add(new ArrayList<>());
+
+        int count = 10 + random.nextInt(25);
+        for(int i = 0; i < count; i++) {
+            statement();
+        }
+
+        return out.toString();
+    }
+
+    private boolean chance(int percent) {
+        return random.nextInt(100) < percent;
+    }
+
+    private String fresh(String prefix) {
+        return prefix + names++;
+    }
+
+    private void line(String text) {
+        for(int i = 0; i < indent; i++) {
+            out.append("  ");
+        }
+
+        out.append(text).append('\n');
+    }
+
+    private void open(String header) {
+        line(header.isEmpty() ? "{" : header + " {");
+        indent++;
+        nesting++;
+        scopes.add(new ArrayList<>());
+    }
+
+    private void close() {
+        scopes.remove(scopes.size() - 1);
+        nesting--;
+        indent--;
+        line("}");
+    }
+
+    private void declare(Name name) {
+        scopes.get(scopes.size() - 1).add(name);
+    }
+
+    private List<Name> visible(int type, boolean assignable) {
+        List<Name> found = new ArrayList<>();
+        for(List<Name> scope : scopes) {
+            for(Name name : scope) {
+                if(name.type == type && !(assignable && name.fixed)) found.add(name);
+            }
+        }
+
+        return found;
+    }
+
+    private Name pick(int type, boolean assignable) {
+        List<Name> found = visible(type, assignable);
+        return found.isEmpty() ? null : found.get(random.nextInt(found.size()));
+    }
+
+    private <T> T pick(List<T> items) {
+        return items.get(random.nextInt(items.size()));
+    }
+
+    // Statements.
+
+    private void statement() {
+        boolean nest = nesting < MAX_NESTING;
+
+        while (true) {
+            int roll = random.nextInt(100);
+            if(roll < 20) {
+                line("print " + expr(pickType(), 0) + ";");
+            }
+            else if(roll < 35) {
+                varStmt();
+            }
+            else if(roll < 50) {
+                if(!expressionStmt()) continue;
+            }
+            else if(roll < 60) {
+                if(!nest) continue;
+                ifStmt();
+            }
+            else if(roll < 68) {
+                if(!nest) continue;
+                forStmt();
+            }
+            else if(roll < 72) {
+                if(!nest) continue;
+                open("");
+                block(1 + random.nextInt(3));
+                close();
+            }
+            else if(roll < 79) {
+                if(!nest) continue;
+                function();
+            }
+            else if(roll < 83) {
+                if(nesting > 1) continue;
+                klass();
+            }
+            else if(roll < 87) {
+                recursive();
+            }
+            else if(roll < 91) {
+                Name list = pick(LIST, false);
+                if(list == null) continue;
+                line("push(" + list.name + ", " + expr(NUM, 1) + ");");
+            }
+            else {
+                if(!inFunction) continue;
+                if(chance(60)) line("if (" + expr(BOOL, 1) + ") return " + expr(NUM, 1) + ";");
+                else line("return " + expr(NUM, 1) + ";");
+            }
+
+            return;
+        }
+    }
+
+    private void block(int count) {
+        for(int i = 0; i < count; i++) {
+            statement();
+        }
+    }
+
+    private int pickType() {
+        int roll = random.nextInt(100);
+        if(roll < 50) return NUM;
+        if(roll < 65) return STR;
+        if(roll < 80) return BOOL;
+        if(roll < 86 && pick(LIST, false) != null) return LIST;
+        if(roll < 94 && pick(CLASS, false) != null) return OBJECT;
+        if(roll < 97 && pick(FUN, false) != null) return FUN;
+        if(pick(CLASS, false) != null) return CLASS;
+
+        return NUM;
+    }
+
+    private void varStmt() {
+        int type = chance(8) ? LIST : pickType();
+        if(type == FUN || type == CLASS) type = NUM;
+
+        String name = fresh("v");
+        if(type == OBJECT) {
+            Klass klass = pick(CLASS, false).klass;
+            line("var " + name + " = " + construct(klass) + ";");
+            declare(new Name(name, OBJECT, 0, klass, false));
+            return;
+        }
+
+        String initializer = type == LIST ? "list()" : expr(type, 0);
+        line("var " + name + " = " + initializer + ";");
+        declare(new Name(name, type, 0, null, false));
+    }
+
+    // An assignment, a field store or a call on a line of its own.
+    private boolean expressionStmt() {
+        int roll = random.nextInt(4);
+        if(roll == 0) {
+            Name name = pick(pickType(), true);
+            if(name == null || name.type == FUN || name.type == CLASS) return false;
+            line(name.name + " = " + value(name) + ";");
+        }
+        else if(roll == 1) {
+            String object = object();
+            if(object == null) return false;
+            line(object + ".f1 = " + expr(NUM, 1) + ";");
+        }
+        else if(roll == 2) {
+            String call = call(1);
+            if(call == null) return false;
+            line(call + ";");
+        }
+        else {
+            String call = methodCall(1);
+            if(call == null) return false;
+            line(call + ";");
+        }
+
+        return true;
+    }
+
+    private void ifStmt() {
+        String condition = condition();
+
+        // Without braces the branch is a single statement rather than a block.
+        if(chance(25)) {
+            line("if (" + condition + ") print " + expr(pickType(), 1) + ";");
+            return;
+        }
+
+        open("if (" + condition + ")");
+        block(1 + random.nextInt(3));
+        if(chance(50)) {
+            scopes.remove(scopes.size() - 1);
+            indent--;
+            line("} else {");
+            indent++;
+            scopes.add(new ArrayList<>());
+            block(1 + random.nextInt(3));
+        }
+        close();
+    }
+
+    private void forStmt() {
+        String counter = fresh("i");
+        int limit = 1 + random.nextInt(4);
+
+        open("for (var " + counter + " = 0; " + counter + " < " + limit + "; " + counter + " = " + counter + " + 1)");
+        declare(new Name(counter, NUM, 0, null, true));
+        block(1 + random.nextInt(3));
+        close();
+    }
+
+    private String parameters(int arity) {
+        List<String> params = new ArrayList<>();
+        for(int i = 0; i < arity; i++) {
+            String param = fresh("p");
+            params.add(param);
+            declare(new Name(param, NUM, 0, null, false));
+        }
+
+        return String.join(", ", params);
+    }
+
+    private void function() {
+        String name = fresh("f");
+        int arity = random.nextInt(4);
+
+        // The name is declared after the body, so the function cannot call itself.
+        functionBody("fun " + name, arity);
+        declare(new Name(name, FUN, arity, null, false));
+    }
+
+    // A function or method body, which always ends by returning a number.
+    private void functionBody(String header, int arity) {
+        boolean wasInFunction = inFunction;
+        inFunction = true;
+
+        nesting++;
+        scopes.add(new ArrayList<>());
+        line(header + "(" + parameters(arity) + ") {");
+        indent++;
+        block(random.nextInt(4));
+        line("return " + expr(NUM, 0) + ";");
+        close();
+
+        inFunction = wasInFunction;
+    }
+
+    private void recursive() {
+        String name = fresh("r");
+        line("fun " + name + "(n) { if (n < 1) return 0; return n + " + name + "(n - 1); }");
+        declare(new Name(name, FUN, -1, null, false));
+    }
+
+    private void klass() {
+        String name = fresh("C");
+        Name superclass = chance(40) ? pick(CLASS, false) : null;
+        Klass klass = new Klass(name, superclass == null ? null : superclass.klass);
+
+        open("class " + name + (superclass == null ? "" : " < " + superclass.name));
+
+        Klass wasInClass = inClass;
+        inClass = klass;
+
+        if(superclass == null || chance(50)) {
+            open("init(a)");
+            if(superclass != null) line("super.init(a);");
+            line("this.f0 = a;");
+            line("this.f1 = " + (chance(50) ? "a + 1" : String.valueOf(random.nextInt(10))) + ";");
+            close();
+        }
+
+        // Some of m0 to m3, overriding any the superclass has.
+        for(int i = 0; i < 4; i++) {
+            if(!chance(40)) continue;
+
+            String method = "m" + i;
+            int arity = random.nextInt(3);
+            functionBody(method, arity);
+            klass.methods.put(method, arity);
+        }
+
+        inClass = wasInClass;
+        close();
+
+        declare(new Name(name, CLASS, 1, klass, false));
+    }
+
+    // Expressions.
+
+    private String condition() {
+        return chance(85) ? expr(BOOL, 0) : expr(pickType(), 1);
+    }
+
+    private String value(Name name) {
+        switch (name.type) {
+            case LIST:
+                return "list()";
+            case OBJECT:
+                return construct(name.klass);
+            default:
+                return expr(name.type, 0);
+        }
+    }
+
+    private String construct(Klass klass) {
+        return klass.name + "(" + expr(NUM, 2) + ")";
+    }
+
+    private String arguments(int arity, int depth) {
+        List<String> args = new ArrayList<>();
+        for(int i = 0; i < arity; i++) {
+            args.add(expr(NUM, depth + 1));
+        }
+
+        return String.join(", ", args);
+    }
+
+    private String call(int depth) {
+        Name function = pick(FUN, false);
+        if(function == null) return null;
+        if(function.arity < 0) return function.name + "(" + random.nextInt(12) + ")";
+
+        return function.name + "(" + arguments(function.arity, depth) + ")";
+    }
+
+    // An object expression: a variable holding one, this or a new instance.
+    private String object() {
+        int roll = random.nextInt(10);
+        if(inClass != null && roll < 3) return "this";
+
+        Name object = pick(OBJECT, false);
+        if(object != null && roll < 8) return object.name;
+
+        Name klass = pick(CLASS, false);
+        return klass == null ? null : construct(klass.klass);
+    }
+
+    private String methodCall(int depth) {
+        if(inClass != null && inClass.superclass != null && !inClass.superclass.methods.isEmpty() && chance(30)) {
+            String method = pick(new ArrayList<>(inClass.superclass.methods.keySet()));
+            return "super." + method + "(" + arguments(inClass.superclass.methods.get(method), depth) + ")";
+        }
+
+        // Calls on this could reach a later override, so methods only call on others.
+        Name object = pick(OBJECT, false);
+        if(object == null || object.klass.methods.isEmpty()) return null;
+
+        String method = pick(new ArrayList<>(object.klass.methods.keySet()));
+        return object.name + "." + method + "(" + arguments(object.klass.methods.get(method), depth) + ")";
+    }
+
+    private String expr(int type, int depth) {
+        // Now and then an operand of the wrong type, for the runtime errors.
+        if(depth > 0 && random.nextInt(2000) == 0) type = random.nextInt(3);
+
+        String text;
+        if(depth >= MAX_EXPR_DEPTH) {
+            text = leaf(type);
+        }
+        else if(type == NUM) {
+            return number(depth);
+        }
+        else if(type == STR) {
+            return string(depth);
+        }
+        else if(type == BOOL) {
+            return bool(depth);
+        }
+        else if(type == LIST) {
+            Name list = pick(LIST, false);
+            text = list == null ? "list()" : list.name;
+        }
+        else if(type == OBJECT) {
+            String object = object();
+            text = object == null || object.equals("this") ? "nil" : object;
+        }
+        else {
+            Name name = pick(type, false);
+            text = name == null ? "nil" : name.name;
+        }
+
+        precedence = PRIMARY;
+        return text;
+    }
+
+    // An operand for an operator at level, in parentheses if it binds more loosely.
+    private String operand(int type, int depth, int level) {
+        String text = expr(type, depth + 1);
+        return precedence < level ? "(" + text + ")" : text;
+    }
+
+    // Operators associate to the left, so the right operand must bind tighter.
+    private String binary(int left, String operator, int right, int level, int depth) {
+        String text = operand(left, depth, level) + " " + operator + " " + operand(right, depth, level + 1);
+        precedence = level;
+        return text;
+    }
+
+    private String unary(String operator, int type, int depth) {
+        String text = operator + operand(type, depth, UNARY);
+        precedence = UNARY;
+        return text;
+    }
+
+    private String grouping(int type, int depth) {
+        String text = "(" + expr(type, depth + 1) + ")";
+        precedence = PRIMARY;
+        return text;
+    }
+
+    private String leaf(int type) {
+        precedence = PRIMARY;
+
+        Name name = pick(type, false);
+        if(name != null && chance(60)) return name.name;
+
+        switch (type) {
+            case NUM:
+                return numberLiteral();
+            case STR:
+                return stringLiteral();
+            case BOOL:
+                return chance(50) ? "true" : "false";
+            default:
+                return "nil";
+        }
+    }
+
+    private String numberLiteral() {
+        if(chance(80)) return String.valueOf(random.nextInt(10));
+
+        return pick(List.of("0.5", "1.25", "2.5", "100", "0.1"));
+    }
+
+    private String stringLiteral() {
+        return pick(List.of("\"a\"", "\"b\"", "\"xy\"", "\"\"", "\"lox\""));
+    }
+
+    private String number(int depth) {
+        while (true) {
+            int roll = random.nextInt(100);
+            if(roll < 30) return leaf(NUM);
+            if(roll < 35) return unary("-", NUM, depth);
+            if(roll < 47) return binary(NUM, pick(List.of("+", "-")), NUM, TERM, depth);
+            if(roll < 52) return binary(NUM, "*", NUM, FACTOR, depth);
+            if(roll < 55) {
+                // Mostly by a literal that is not zero, which is an error.
+                if(chance(30)) return binary(NUM, "/", NUM, FACTOR, depth);
+
+                String text = operand(NUM, depth, FACTOR) + " / " + (1 + random.nextInt(9));
+                precedence = FACTOR;
+                return text;
+            }
+            if(roll < 60) return grouping(NUM, depth);
+
+            String text = null;
+            if(roll < 67) {
+                text = call(depth);
+            }
+            else if(roll < 72) {
+                String object = object();
+                if(object != null) text = object + ".f" + random.nextInt(2);
+            }
+            else if(roll < 79) {
+                text = methodCall(depth);
+            }
+            else if(roll < 84) {
+                Name name = pick(NUM, true);
+                if(name != null) text = "(" + name.name + " = " + expr(NUM, depth + 1) + ")";
+            }
+            else if(roll < 89) {
+                Name list = pick(LIST, false);
+                if(list != null && chance(50)) {
+                    text = "length(" + list.name + ")";
+                }
+                else if(list != null) {
+                    text = "get(" + list.name + ", " + (chance(70) ? "length(" + list.name + ") - 1" : leaf(NUM)) + ")";
+                }
+            }
+            else if(roll < 92) {
+                text = "length(" + expr(STR, depth + 1) + ")";
+            }
+
+            if(text != null) {
+                precedence = PRIMARY;
+                return text;
+            }
+        }
+    }
+
+    private String string(int depth) {
+        int roll = random.nextInt(100);
+        if(roll < 50) return leaf(STR);
+        if(roll < 80) return binary(STR, "+", STR, TERM, depth);
+        if(roll < 90) return binary(STR, "+", NUM, TERM, depth);
+
+        return grouping(STR, depth);
+    }
+
+    private String bool(int depth) {
+        int roll = random.nextInt(100);
+        if(roll < 20) return leaf(BOOL);
+        if(roll < 45) return binary(NUM, pick(List.of("<", "<=", ">", ">=")), NUM, COMPARISON, depth);
+        if(roll < 60) {
+            int left = chance(70) ? NUM : pickType();
+            int right = chance(70) ? left : pickType();
+            return binary(left, chance(50) ? "==" : "!=", right, EQUALITY, depth);
+        }
+        if(roll < 70) return unary("!", BOOL, depth);
+        if(roll < 78) return binary(BOOL, "and", BOOL, AND, depth);
+        if(roll < 85) return binary(BOOL, "or", BOOL, OR, depth);
+
+        return grouping(BOOL, depth);
+    }
+}
@@ -0,0 +1,44 @@
+#!/bin/sh
+# Compiles the interpreter together with the benchmarks, checks that the optimizer
+# and the other engines do not change what the corpus or generated programs print,
+# and runs the benchmarks over the corpus.
+set -e
+
+here=$(cd "$(dirname "$0")" && pwd)
+root=$(dirname "$here")
+out="$root/build/bench"
+
+rm -rf "$out"
+mkdir -p "$out"
+javac -d "$out" "$root"/src/Jlox/*.java "$here"/Jlox/*.java
+
+java -cp "$out" Jlox.DifferentialCheck "$here"/corpus/*.lox "$here"/parallel/*.lox "$here"/regress/*.lox
+# The same for generated programs; any that differ are left shrunk in build/fuzz.
+java -cp "$out" Jlox.Fuzz --count 2000 --out "$root/build/fuzz"
+# IncrementalParser against scanning and parsing from scratch, after random edits.
+java -cp "$out" Jlox.IncrementalCheck "$here"/corpus/*.lox "$here"/regress/*.lox
+header=""
+for script in "$here"/corpus/*.lox; do
+    java -cp "$out" Jlox.AllocationBenchmark $header "$script"
+    header="--no-header"
+done
+
+# Visitor against switch dispatch (see SwitchInterpreter).
+header=""
+for script in "$here"/corpus/*.lox; do
+    for dispatch in visitor switch; do
+        java -cp "$out" Jlox.DispatchBenchmark $header "$dispatch" "$script"
+        header="--no-header"
+    done
+done
+
+# parallelMap and parallelReduce run on the common ForkJoinPool; time them with
+# pools of 1, 2, 4, ... threads up to the number of processors.
+processors=$(getconf _NPROCESSORS_ONLN)
+threads=1
+while [ "$threads" -le "$processors" ]; do
+    echo "parallelism $threads"
+    java -Djava.util.concurrent.ForkJoinPool.common.parallelism="$threads" -cp "$out" \
+        Jlox.AllocationBenchmark --no-header "$here"/parallel/*.lox
+    threads=$((threads * 2))
+done
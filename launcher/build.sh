@@ -0,0 +1,39 @@
+#!/bin/sh
+# Builds build/jlox.jar, a class-data-sharing archive trained on training/*.lox,
+# and bin/jlox and bin/jloxc launchers that use it. Pass --native to also build
+# a GraalVM native image (needs native-image on the PATH).
+set -e
+
+here=$(cd "$(dirname "$0")" && pwd)
+root=$(dirname "$here")
+out="$root/build"
+
+rm -rf "$out"
+mkdir -p "$out/classes" "$out/bin"
+
+javac -d "$out/classes" "$root"/src/Jlox/*.java
+cp -r "$here/native-image/META-INF" "$out/classes/"
+jar --create --file "$out/jlox.jar" --main-class Jlox.Lox -C "$out/classes" .
+
+# Training run: one JVM over the whole corpus so every class the interpreter
+# needs is loaded before the archive is dumped at exit.
+cat "$here"/training/*.lox > "$out/training.lox"
+java -XX:ArchiveClassesAtExit="$out/jlox.jsa" -jar "$out/jlox.jar" "$out/training.lox" > /dev/null
+
+cat > "$out/bin/jlox" <<LAUNCHER
+#!/bin/sh
+exec java -XX:SharedArchiveFile="$out/jlox.jsa" -XX:TieredStopAtLevel=1 -Xshare:auto -jar "$out/jlox.jar" "\$@"
+LAUNCHER
+chmod +x "$out/bin/jlox"
+
+cat > "$out/bin/jloxc" <<LAUNCHER
+#!/bin/sh
+exec java -XX:SharedArchiveFile="$out/jlox.jsa" -XX:TieredStopAtLevel=1 -Xshare:auto -cp "$out/jlox.jar" Jlox.LoxCompiler "\$@"
+LAUNCHER
+chmod +x "$out/bin/jloxc"
+
+if [ "$1" = "--native" ]; then
+    native-image -jar "$out/jlox.jar" -o "$out/bin/jlox-native"
+fi
+
+echo "Built $out/bin/jlox"
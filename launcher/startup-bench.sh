@@ -0,0 +1,37 @@
+#!/bin/sh
+# Reports the median time from process start to the first line of output of a
+# hello-world script, for the plain jar, the CDS launcher and (if built) the
+# native image. Run build.sh first.
+set -e
+
+here=$(cd "$(dirname "$0")" && pwd)
+out="$(dirname "$here")/build"
+script="$here/training/hello.lox"
+runs=${RUNS:-20}
+
+first_output_ms() {
+    start=$(date +%s%N)
+    "$@" "$script" 2>/dev/null | head -n 1 > /dev/null
+    end=$(date +%s%N)
+    echo $(( (end - start) / 1000000 ))
+}
+
+bench() {
+    name=$1
+    shift
+    times=""
+    i=0
+    while [ $i -lt "$runs" ]; do
+        times="$times $(first_output_ms "$@")"
+        i=$((i + 1))
+    done
+
+    median=$(echo $times | tr ' ' '\n' | sort -n | awk '{ a[NR] = $1 } END { print a[int((NR + 1) / 2)] }')
+    printf '%-10s %6s ms\n' "$name" "$median"
+}
+
+bench jar java -jar "$out/jlox.jar"
+bench cds "$out/bin/jlox"
+if [ -x "$out/bin/jlox-native" ]; then
+    bench native "$out/bin/jlox-native"
+fi
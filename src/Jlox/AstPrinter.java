@@ -49,6 +49,34 @@ public class AstPrinter implements Expr.Visitor<String>{
         return "";
     }
 
+    public String visitGetExpr(Expr.Get get) {
+        return parenthesize("." + get.name.lexeme, get.object);
+    }
+
+    public String visitSetExpr(Expr.Set set) {
+        return parenthesize("=." + set.name.lexeme, set.object, set.value);
+    }
+
+    public String visitInvokeExpr(Expr.Invoke invoke) {
+        return "";
+    }
+
+    public String visitSuperExpr(Expr.Super expr) {
+        return "(super " + expr.method.lexeme + ")";
+    }
+
+    public String visitHoistedExpr(Expr.Hoisted hoisted) {
+        return parenthesize("hoisted", hoisted.expr);
+    }
+
+    public String visitIncrementLocalExpr(Expr.IncrementLocal increment) {
+        return increment.fallback.accept(this);
+    }
+
+    public String visitCompareLocalExpr(Expr.CompareLocal compare) {
+        return compare.fallback.accept(this);
+    }
+
     private String parenthesize(String name, Expr... exprs) {
         StringBuilder stringBuilder = new StringBuilder();
         stringBuilder.append("(").append(name);
@@ -0,0 +1,23 @@
+package Jlox;
+
+import java.io.Serializable;
+
+// Box for a local variable that a nested function captures. The frame slot and the
+// closure's upvalue both point at the same cell. The owner is the Interpreter that
+// created it (see Interpreter.owns).
+class Cell implements Serializable {
+    private static final long serialVersionUID = Snapshot.VERSION;
+
+    // The value of a cell made when its scope starts, until the declaration runs.
+    // An enum constant, so that it is still the same object in a snapshot image.
+    private enum Marker { UNDEFINED }
+    static final Object UNDEFINED = Marker.UNDEFINED;
+
+    Object value;
+    final transient Interpreter owner;
+
+    Cell(Object value, Interpreter owner) {
+        this.value = value;
+        this.owner = owner;
+    }
+}
@@ -0,0 +1,136 @@
+package Jlox;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+// jlox --check <dir or file>...: scans, parses and resolves every .lox file under
+// the given paths on the common ForkJoinPool, without running any of them. Each file
+// gets its own Scanner, Parser, Resolver and Diagnostics, so files share nothing.
+// A file's errors are printed, prefixed with its path, as soon as it is done; a line
+// of totals follows at the end. A file the checker itself fails on, or a path that
+// cannot be read, is reported the same way without stopping the others.
+class Checker {
+    // Files per task below which a range is checked without splitting it further.
+    private static final int GRAIN = 16;
+
+    private final List<Path> files;
+    private final PrintStream err;
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+
+    private Checker(List<Path> files, PrintStream err) {
+        this.files = files;
+        this.err = err;
+    }
+
+    // Returns the exit status: 0, or 65 if any file has errors or a path cannot be read.
+    static int check(List<Path> roots) {
+        long start = System.nanoTime();
+
+        List<Path> files = new ArrayList<>();
+        List<String> unreadable = new ArrayList<>();
+        for(Path root : roots) {
+            try (Stream<Path> walk = Files.walk(root)) {
+                files.addAll(walk.filter(path -> path.toString().endsWith(".lox") && Files.isRegularFile(path))
+                        .collect(Collectors.toList()));
+            }
+            catch (IOException e) {
+                unreadable.add(root + ": Cannot read path: " + describe(e));
+            }
+            catch (UncheckedIOException e) {
+                unreadable.add(root + ": Cannot read path: " + describe(e.getCause()));
+            }
+        }
+
+        Checker checker = new Checker(files, System.err);
+        for(String message : unreadable) {
+            System.err.println(message);
+        }
+
+        ForkJoinPool.commonPool().invoke(checker.new CheckTask(0, files.size()));
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%d files, %d with errors, %d errors; %.1f MB in %.2f s (%.0f files/s)%n",
+                files.size(), checker.failed.get(), checker.errors.get(), checker.bytes.get() / 1e6, seconds,
+                files.size() / seconds);
+
+        return checker.failed.get() > 0 || !unreadable.isEmpty() ? 65 : 0;
+    }
+
+    private void check(Path file) {
+        StringBuilder text = new StringBuilder();
+
+        try {
+            byte[] source = Files.readAllBytes(file);
+            bytes.addAndGet(source.length);
+
+            Diagnostics diagnostics = new Diagnostics();
+            Lox.compile(new String(source, Charset.defaultCharset()), diagnostics);
+
+            List<Diagnostics.Diagnostic> found = diagnostics.errors();
+            if(found.isEmpty()) return;
+
+            errors.addAndGet(found.size());
+            for(Diagnostics.Diagnostic error : found) {
+                text.append(file).append(": ").append(error).append('\n');
+            }
+        }
+        catch (IOException e) {
+            errors.incrementAndGet();
+            text.append(file).append(": Cannot read file: ").append(describe(e)).append('\n');
+        }
+        catch (StackOverflowError e) {
+            errors.incrementAndGet();
+            text.append(file).append(": Too deeply nested to check.\n");
+        }
+        catch (RuntimeException e) {
+            errors.incrementAndGet();
+            text.append(file).append(": Checker failed: ").append(e).append('\n');
+        }
+
+        failed.incrementAndGet();
+        synchronized (err) {
+            err.print(text);
+        }
+    }
+
+    private static String describe(IOException e) {
+        return e instanceof NoSuchFileException ? "No such file or directory." : e.getMessage();
+    }
+
+    private class CheckTask extends RecursiveAction {
+        private final int from;
+        private final int to;
+
+        CheckTask(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if(to - from > GRAIN) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new CheckTask(from, middle), new CheckTask(middle, to));
+                return;
+            }
+
+            for(int i = from; i < to; i++) {
+                check(files.get(i));
+            }
+        }
+    }
+}
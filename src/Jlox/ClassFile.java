@@ -0,0 +1,417 @@
+package Jlox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Just enough of a class file writer for JitCompiler: a constant pool, static
+// fields and methods whose code uses forward and backward branches but no
+// exception handlers. Classes are written as version 49 (Java 5), which the JVM
+// verifies by type inference, so no StackMapTable is needed.
+class ClassFile {
+    static final int ACC_PUBLIC = 0x0001;
+    static final int ACC_STATIC = 0x0008;
+    static final int ACC_FINAL = 0x0010;
+    static final int ACC_SUPER = 0x0020;
+
+    // The opcodes JitCompiler emits.
+    static final int ACONST_NULL = 0x01;
+    static final int ICONST_0 = 0x03;
+    static final int BIPUSH = 0x10;
+    static final int SIPUSH = 0x11;
+    static final int LDC_W = 0x13;
+    static final int LDC2_W = 0x14;
+    static final int ALOAD = 0x19;
+    static final int AALOAD = 0x32;
+    static final int ASTORE = 0x3a;
+    static final int AASTORE = 0x53;
+    static final int POP = 0x57;
+    static final int DUP = 0x59;
+    static final int SWAP = 0x5f;
+    static final int DADD = 0x63;
+    static final int DCMPL = 0x97;
+    static final int DCMPG = 0x98;
+    static final int IFEQ = 0x99;
+    static final int IFNE = 0x9a;
+    static final int IFLT = 0x9b;
+    static final int IFGE = 0x9c;
+    static final int IFGT = 0x9d;
+    static final int IFLE = 0x9e;
+    static final int IF_ACMPNE = 0xa6;
+    static final int GOTO = 0xa7;
+    static final int ARETURN = 0xb0;
+    static final int RETURN = 0xb1;
+    static final int GETSTATIC = 0xb2;
+    static final int PUTSTATIC = 0xb3;
+    static final int INVOKEVIRTUAL = 0xb6;
+    static final int INVOKESPECIAL = 0xb7;
+    static final int INVOKESTATIC = 0xb8;
+    static final int ANEWARRAY = 0xbd;
+    static final int CHECKCAST = 0xc0;
+    static final int INSTANCEOF = 0xc1;
+    static final int IFNULL = 0xc6;
+
+    // Thrown when a method outgrows what a 16-bit branch offset can reach.
+    static class TooLarge extends RuntimeException {
+        TooLarge() {
+            super(null, null, false, false);
+        }
+    }
+
+    private final String name;
+    private final List<byte[]> constants = new ArrayList<>();
+    private final Map<String, Integer> constantIndices = new HashMap<>();
+    private int constantCount = 1;
+    private final List<byte[]> fields = new ArrayList<>();
+    private final List<byte[]> methods = new ArrayList<>();
+    private final String[] interfaces;
+
+    ClassFile(String name, String... interfaces) {
+        this.name = name;
+        this.interfaces = interfaces;
+    }
+
+    String name() {
+        return name;
+    }
+
+    void field(int access, String name, String descriptor) {
+        fields.add(member(access, name, descriptor, null));
+    }
+
+    Code method(int access, String name, String descriptor, int locals) {
+        return new Code(access, name, descriptor, locals);
+    }
+
+    byte[] toBytes() {
+        int self = classRef(name);
+        int superclass = classRef("java/lang/Object");
+        int[] implemented = new int[interfaces.length];
+        for(int i = 0; i < interfaces.length; i++) {
+            implemented[i] = classRef(interfaces[i]);
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(49);
+
+            out.writeShort(constantCount);
+            for(byte[] constant : constants) {
+                out.write(constant);
+            }
+
+            out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+            out.writeShort(self);
+            out.writeShort(superclass);
+            out.writeShort(implemented.length);
+            for(int index : implemented) {
+                out.writeShort(index);
+            }
+
+            out.writeShort(fields.size());
+            for(byte[] field : fields) {
+                out.write(field);
+            }
+
+            out.writeShort(methods.size());
+            for(byte[] method : methods) {
+                out.write(method);
+            }
+
+            out.writeShort(0);
+        }
+        catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+
+        return bytes.toByteArray();
+    }
+
+    // Constant pool.
+
+    private int constant(String key, int slots, Writer writer) {
+        Integer index = constantIndices.get(key);
+        if(index != null) return index;
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            writer.write(out);
+        }
+        catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+
+        index = constantCount;
+        constants.add(bytes.toByteArray());
+        constantIndices.put(key, index);
+        constantCount += slots;
+        return index;
+    }
+
+    private interface Writer {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    private int utf8(String value) {
+        return constant("U" + value, 1, out -> {
+            out.writeByte(1);
+            out.writeUTF(value);
+        });
+    }
+
+    int classRef(String internalName) {
+        int utf8 = utf8(internalName);
+        return constant("C" + internalName, 1, out -> {
+            out.writeByte(7);
+            out.writeShort(utf8);
+        });
+    }
+
+    private int doubleConstant(double value) {
+        return constant("D" + Double.doubleToRawLongBits(value), 2, out -> {
+            out.writeByte(6);
+            out.writeDouble(value);
+        });
+    }
+
+    private int nameAndType(String name, String descriptor) {
+        int nameIndex = utf8(name);
+        int descriptorIndex = utf8(descriptor);
+        return constant("N" + name + ":" + descriptor, 1, out -> {
+            out.writeByte(12);
+            out.writeShort(nameIndex);
+            out.writeShort(descriptorIndex);
+        });
+    }
+
+    private int memberRef(int tag, String owner, String name, String descriptor) {
+        int ownerIndex = classRef(owner);
+        int nameAndType = nameAndType(name, descriptor);
+        return constant(tag + owner + "." + name + ":" + descriptor, 1, out -> {
+            out.writeByte(tag);
+            out.writeShort(ownerIndex);
+            out.writeShort(nameAndType);
+        });
+    }
+
+    private byte[] member(int access, String name, String descriptor, byte[] code) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeShort(access);
+            out.writeShort(utf8(name));
+            out.writeShort(utf8(descriptor));
+
+            if(code == null) {
+                out.writeShort(0);
+            }
+            else {
+                out.writeShort(1);
+                out.writeShort(utf8("Code"));
+                out.writeInt(code.length);
+                out.write(code);
+            }
+        }
+        catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+
+        return bytes.toByteArray();
+    }
+
+    // Words a descriptor's arguments take on the operand stack, and its result.
+    private static int argumentSlots(String descriptor) {
+        int slots = 0;
+        int i = 1;
+        while(descriptor.charAt(i) != ')') {
+            char c = descriptor.charAt(i);
+            if(c == 'J' || c == 'D') {
+                slots += 2;
+                i++;
+                continue;
+            }
+
+            while(c == '[') c = descriptor.charAt(++i);
+            if(c == 'L') i = descriptor.indexOf(';', i);
+            slots++;
+            i++;
+        }
+
+        return slots;
+    }
+
+    private static int resultSlots(String descriptor) {
+        char c = descriptor.charAt(descriptor.indexOf(')') + 1);
+        if(c == 'V') return 0;
+        return c == 'J' || c == 'D' ? 2 : 1;
+    }
+
+    static class Label {
+        private int position = -1;
+        private int stack = -1;
+        private final List<Integer> jumps = new ArrayList<>();
+    }
+
+    // Code for one method. Tracks the operand stack depth as it goes, so max_stack
+    // comes out right without a separate pass.
+    class Code {
+        private final int access;
+        private final String name;
+        private final String descriptor;
+        private final int locals;
+        private final ByteArrayOutputStream code = new ByteArrayOutputStream();
+        private final List<Label> labels = new ArrayList<>();
+        private int stack = 0;
+        private int maxStack = 0;
+        // False after a goto or return, until a label someone jumps to.
+        private boolean reachable = true;
+
+        private Code(int access, String name, String descriptor, int locals) {
+            this.access = access;
+            this.name = name;
+            this.descriptor = descriptor;
+            this.locals = locals;
+        }
+
+        private void adjust(int delta) {
+            stack += delta;
+            if(stack > maxStack) maxStack = stack;
+        }
+
+        private void u1(int value) {
+            code.write(value);
+        }
+
+        private void u2(int value) {
+            code.write(value >> 8);
+            code.write(value);
+        }
+
+        // An opcode without operands, with its effect on the stack.
+        void op(int opcode, int delta) {
+            u1(opcode);
+            adjust(delta);
+            if(opcode == GOTO || opcode == ARETURN || opcode == RETURN) reachable = false;
+        }
+
+        void pushInt(int value) {
+            if(value >= -1 && value <= 5) {
+                u1(ICONST_0 + value);
+            }
+            else if(value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+                u1(BIPUSH);
+                u1(value);
+            }
+            else {
+                u1(SIPUSH);
+                u2(value);
+            }
+
+            adjust(1);
+        }
+
+        void pushDouble(double value) {
+            u1(LDC2_W);
+            u2(doubleConstant(value));
+            adjust(2);
+        }
+
+        void pushClass(String internalName) {
+            u1(LDC_W);
+            u2(classRef(internalName));
+            adjust(1);
+        }
+
+        void load(int local) {
+            u1(ALOAD);
+            u1(local);
+            adjust(1);
+        }
+
+        void store(int local) {
+            u1(ASTORE);
+            u1(local);
+            adjust(-1);
+        }
+
+        void type(int opcode, String internalName) {
+            u1(opcode);
+            u2(classRef(internalName));
+        }
+
+        void getStatic(String owner, String name, String descriptor) {
+            u1(GETSTATIC);
+            u2(memberRef(9, owner, name, descriptor));
+            adjust(resultSlots("()" + descriptor));
+        }
+
+        void putStatic(String owner, String name, String descriptor) {
+            u1(PUTSTATIC);
+            u2(memberRef(9, owner, name, descriptor));
+            adjust(-resultSlots("()" + descriptor));
+        }
+
+        void invoke(int opcode, String owner, String name, String descriptor) {
+            u1(opcode);
+            u2(memberRef(10, owner, name, descriptor));
+            adjust(resultSlots(descriptor) - argumentSlots(descriptor) - (opcode == INVOKESTATIC ? 0 : 1));
+        }
+
+        void jump(int opcode, Label label) {
+            int at = code.size();
+            u1(opcode);
+            u2(0);
+            adjust(opcode == GOTO ? 0 : opcode == IF_ACMPNE ? -2 : -1);
+            label.stack = stack;
+            label.jumps.add(at);
+            if(opcode == GOTO) reachable = false;
+        }
+
+        // A label nothing has jumped to yet, such as the start of a loop after a
+        // return, keeps the depth the code before it left.
+        void bind(Label label) {
+            if(!reachable && label.stack >= 0) stack = label.stack;
+            reachable = true;
+            label.position = code.size();
+        }
+
+        void end() {
+            byte[] bytes = code.toByteArray();
+            if(bytes.length > Short.MAX_VALUE) throw new TooLarge();
+
+            for(Label label : labels) {
+                for(int at : label.jumps) {
+                    int offset = label.position - at;
+                    bytes[at + 1] = (byte) (offset >> 8);
+                    bytes[at + 2] = (byte) offset;
+                }
+            }
+
+            ByteArrayOutputStream attribute = new ByteArrayOutputStream();
+            try (DataOutputStream out = new DataOutputStream(attribute)) {
+                out.writeShort(maxStack);
+                out.writeShort(locals);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+                out.writeShort(0);
+                out.writeShort(0);
+            }
+            catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+
+            methods.add(member(access, name, descriptor, attribute.toByteArray()));
+        }
+
+        Label label() {
+            Label label = new Label();
+            labels.add(label);
+            return label;
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package Jlox;
+
+// Lists and maps. Until Lox has method calls they are used through these globals:
+//
+//   list()  push(list, value)  pop(list)
+//   map()   has(map, key)  remove(map, key)  keys(map)
+//   get(list or map, index or key)  set(list or map, index or key, value)
+//   length(list, map or string)
+//
+// List indices are whole numbers from 0. Each new element counts as one unit
+// against the Governor's allocation cap. Inside parallelMap and parallelReduce
+// only lists and maps created by the same call of the function can be modified.
+class CollectionNatives {
+
+    @LoxNative
+    static Object list(Interpreter interpreter) {
+        return new LoxList(interpreter);
+    }
+
+    @LoxNative
+    static Object map(Interpreter interpreter) {
+        return new LoxMap(interpreter);
+    }
+
+    @LoxNative
+    static void push(Interpreter interpreter, Object list, Object value) {
+        LoxList items = modifiable(interpreter, toList(list));
+        interpreter.allocate(1);
+        items.add(value);
+    }
+
+    @LoxNative
+    static Object pop(Interpreter interpreter, Object list) {
+        LoxList items = modifiable(interpreter, toList(list));
+        if(items.size() == 0) throw new NativeFunction.ArgumentError("Cannot pop from an empty list");
+
+        return items.removeLast();
+    }
+
+    @LoxNative
+    static Object get(Object collection, Object key) {
+        if(collection instanceof LoxList) {
+            LoxList list = (LoxList) collection;
+            return list.get(toIndex(key, list.size()));
+        }
+
+        return toMap(collection).get(key);
+    }
+
+    @LoxNative
+    static Object set(Interpreter interpreter, Object collection, Object key, Object value) {
+        if(collection instanceof LoxList) {
+            LoxList list = modifiable(interpreter, (LoxList) collection);
+            list.set(toIndex(key, list.size()), value);
+            return value;
+        }
+
+        LoxMap map = modifiable(interpreter, toMap(collection));
+        if(!map.containsKey(key)) interpreter.allocate(1);
+        map.put(key, value);
+        return value;
+    }
+
+    @LoxNative
+    static boolean has(Object map, Object key) {
+        return toMap(map).containsKey(key);
+    }
+
+    @LoxNative
+    static Object remove(Interpreter interpreter, Object map, Object key) {
+        return modifiable(interpreter, toMap(map)).remove(key);
+    }
+
+    @LoxNative
+    static Object keys(Interpreter interpreter, Object map) {
+        LoxMap entries = toMap(map);
+        interpreter.allocate(entries.size());
+        return entries.keys(interpreter);
+    }
+
+    @LoxNative
+    static double length(Object value) {
+        if(value instanceof LoxList) return ((LoxList) value).size();
+        if(value instanceof LoxMap) return ((LoxMap) value).size();
+        if(value instanceof String) return ((String) value).length();
+
+        throw new NativeFunction.ArgumentError("Argument must be a list, map or string");
+    }
+
+    private static LoxList toList(Object value) {
+        if(value instanceof LoxList) return (LoxList) value;
+        throw new NativeFunction.ArgumentError("Argument must be a list");
+    }
+
+    private static LoxMap toMap(Object value) {
+        if(value instanceof LoxMap) return (LoxMap) value;
+        throw new NativeFunction.ArgumentError("Argument must be a list or map");
+    }
+
+    private static LoxList modifiable(Interpreter interpreter, LoxList list) {
+        if(interpreter.owns(list.owner)) return list;
+        throw new NativeFunction.ArgumentError("Cannot modify a list created outside a parallel function");
+    }
+
+    private static LoxMap modifiable(Interpreter interpreter, LoxMap map) {
+        if(interpreter.owns(map.owner)) return map;
+        throw new NativeFunction.ArgumentError("Cannot modify a map created outside a parallel function");
+    }
+
+    private static int toIndex(Object value, int size) {
+        if(!(value instanceof Double)) throw new NativeFunction.ArgumentError("List index must be a number");
+
+        double index = (double) value;
+        if(index != Math.floor(index)) throw new NativeFunction.ArgumentError("List index must be a whole number");
+        if(index < 0 || index >= size) {
+            throw new NativeFunction.ArgumentError("List index " + Interpreter.stringify(value) + " is out of bounds");
+        }
+
+        return (int) index;
+    }
+}
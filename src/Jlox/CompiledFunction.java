@@ -0,0 +1,8 @@
+package Jlox;
+
+// A function body compiled by JitCompiler. It runs in place of
+// Interpreter.executeBody: frame holds the arguments, with captured parameters
+// already in their Cells, and upvalues are the closure's Cells.
+public interface CompiledFunction {
+    Object run(Interpreter interpreter, Object[] frame, Object[] upvalues);
+}
@@ -0,0 +1,182 @@
+package Jlox;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+// Line and branch counts for jlox --coverage <file.info>. Before the script runs,
+// every statement but a block is wrapped in a Stmt.Count, and so is each branch
+// of an if (a missing else gets an empty block to count) and each loop body. All of
+// them share one long[] and each bumps its own slot, so counting costs an array
+// increment per statement in the tree-walker and in compiled code alike. A
+// statement whose line is not known, such as if (true), is put on the line of the
+// statement before it.
+//
+// At exit the counts go out as an LCOV tracefile: a line's count is that of the
+// statement on it that ran most often. A loop's exit branch is counted as the
+// number of times the loop statement ran, which is one too many for a loop left by
+// return. parallelMap workers bump the same array without locking, so counts from
+// inside parallel calls can come out low.
+class Coverage extends Rewriter {
+    private static final int STATEMENT = 0;
+    private static final int BRANCH    = 1;
+
+    // A line or branch to report, and the slot of the array that counts it.
+    private static class Probe {
+        final int kind;
+        final int line;
+        final int slot;
+        // For a branch, the statement it belongs to and which of its branches it is.
+        final int block;
+        final int branch;
+
+        Probe(int kind, int line, int slot, int block, int branch) {
+            this.kind = kind;
+            this.line = line;
+            this.slot = slot;
+            this.block = block;
+            this.branch = branch;
+        }
+    }
+
+    private final List<Probe> probes = new ArrayList<>();
+    private final List<Stmt.Count> counts = new ArrayList<>();
+    private int slots = 0;
+    private long[] counters;
+
+    // Probe of the statement being wrapped, which its branches are reported at.
+    private Probe current = null;
+    private int lastLine = 1;
+    private int blocks = 0;
+
+    // Instruments stmts in place.
+    void instrument(List<Stmt> stmts) {
+        rewriteAll(stmts);
+
+        counters = new long[slots];
+        for(Stmt.Count count : counts) {
+            count.counters = counters;
+        }
+    }
+
+    private static int line(Stmt stmt) {
+        if(stmt.tag == Stmt.WHILE_LESS) return ((Stmt.WhileLess) stmt).loop.keyword.line;
+
+        return Debugger.line(stmt);
+    }
+
+    private Probe probe(int kind, int line, int slot, int block, int branch) {
+        Probe probe = new Probe(kind, line, slot, block, branch);
+        probes.add(probe);
+        return probe;
+    }
+
+    private Stmt count(Stmt stmt, Probe probe) {
+        Stmt.Count count = new Stmt.Count(stmt, probe.slot);
+        counts.add(count);
+        return count;
+    }
+
+    @Override
+    Stmt rewrite(Stmt stmt) {
+        if(stmt == null || stmt.tag == Stmt.BLOCK) return stmt == null ? null : stmt.accept(this);
+
+        int line = line(stmt);
+        if(line < 0) line = lastLine;
+        lastLine = line;
+
+        Probe probe = probe(STATEMENT, line, slots++, 0, 0);
+        Probe outer = current;
+        current = probe;
+        Stmt rewritten = stmt.accept(this);
+        current = outer;
+
+        return count(rewritten, probe);
+    }
+
+    private Stmt branch(Stmt stmt, int block, int branch) {
+        return count(stmt, probe(BRANCH, current.line, slots++, block, branch));
+    }
+
+    @Override
+    public Stmt visitIfStmt(Stmt.If stmt) {
+        int block = blocks++;
+
+        Stmt thenBranch = branch(rewrite(stmt.thenBranch), block, 0);
+        Stmt elseBranch = stmt.elseBranch == null ? new Stmt.Block(new ArrayList<>()) : rewrite(stmt.elseBranch);
+
+        return new Stmt.If(stmt.condition, thenBranch, branch(elseBranch, block, 1));
+    }
+
+    // The body is one branch; leaving the loop is the other, which shares the loop
+    // statement's own slot.
+    @Override
+    public Stmt visitWhileStmt(Stmt.While stmt) {
+        int block = blocks++;
+        probe(BRANCH, current.line, current.slot, block, 1);
+
+        Stmt.While loop = new Stmt.While(stmt.keyword, stmt.condition, branch(rewrite(stmt.body), block, 0));
+        loop.hoisted = stmt.hoisted;
+        return loop;
+    }
+
+    @Override
+    public Stmt visitWhileLessStmt(Stmt.WhileLess stmt) {
+        return new Stmt.WhileLess((Stmt.While) visitWhileStmt(stmt.loop), stmt.slot, stmt.limit);
+    }
+
+    // Methods are not statements of their own; only their bodies are counted.
+    @Override
+    public Stmt visitClassStmt(Stmt.Class stmt) {
+        for(Stmt.Fun method : stmt.methods) {
+            rewriteAll(method.body);
+        }
+
+        return stmt;
+    }
+
+    // Writes the counts so far for the script at path.
+    void report(String path, Path file) throws IOException {
+        Map<Integer, Long> lines = new TreeMap<>();
+        List<String> branches = new ArrayList<>();
+        int taken = 0;
+
+        for(Probe probe : probes) {
+            long hits = counters[probe.slot];
+            if(probe.kind == STATEMENT) {
+                lines.merge(probe.line, hits, Math::max);
+                continue;
+            }
+
+            if(hits > 0) taken++;
+            branches.add("BRDA:" + probe.line + "," + probe.block + "," + probe.branch + "," + hits);
+        }
+
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(file, Charset.defaultCharset()))) {
+            out.println("TN:");
+            out.println("SF:" + path);
+
+            for(String branch : branches) {
+                out.println(branch);
+            }
+            out.println("BRF:" + branches.size());
+            out.println("BRH:" + taken);
+
+            int hit = 0;
+            for(Map.Entry<Integer, Long> line : lines.entrySet()) {
+                out.println("DA:" + line.getKey() + "," + line.getValue());
+                if(line.getValue() > 0) hit++;
+            }
+            out.println("LF:" + lines.size());
+            out.println("LH:" + hit);
+
+            out.println("end_of_record");
+        }
+    }
+}
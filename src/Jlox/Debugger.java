@@ -0,0 +1,430 @@
+package Jlox;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+// Breakpoints and stepping for jlox --debug. Nothing on the normal path checks for
+// a debugger: a breakpoint replaces the statement at its line with a Stmt.Trap that
+// holds the original, and only traps call back here. Stepping puts a trap on every
+// statement until the next continue takes them out again. Statements are found
+// where they sit in a list (the script, a block or a function body); a branch of
+// an if or a loop body without braces stops with the statement around it, and a
+// block only stops at the statements in it.
+//
+// One command per line comes in, and each gets its reply:
+//
+//   break <line>    breakpoint <line>   at the first line at or after it with a statement
+//   clear <line>    cleared <line>
+//   continue        run to the next breakpoint
+//   step            stop at the next statement, in a call it makes if there is one
+//   next            stop at the next statement of this call or one that called it
+//   finish          stop once this call has returned
+//   locals          local <name> <value> for each local in scope, captured
+//                   ones included, then end
+//   print <name>    value <name> <value>, for a local in scope, one the function
+//                   captured, or a global
+//   where           at <line> depth <calls>
+//   quit
+//
+// Whenever the script stops the debugger sends paused <line> depth <calls>, and
+// exited when it ends. The script starts out stopped before its first statement.
+class Debugger {
+    private static final int RUN       = 0;
+    private static final int STEP_IN   = 1;
+    private static final int STEP_OVER = 2;
+    private static final int STEP_OUT  = 3;
+
+    // A local in the frame, or with upvalue set one the function captured, whose
+    // slot is then its index among the closure's cells.
+    private static class Local {
+        final String name;
+        final int slot;
+        final boolean captured;
+        final boolean upvalue;
+
+        Local(String name, int slot, boolean captured) {
+            this(name, slot, captured, false);
+        }
+
+        Local(String name, int slot, boolean captured, boolean upvalue) {
+            this.name = name;
+            this.slot = slot;
+            this.captured = captured;
+            this.upvalue = upvalue;
+        }
+    }
+
+    // A statement, the list it sits in and the locals in scope just before it.
+    private static class Site {
+        final List<Stmt> owner;
+        final int index;
+        final Stmt stmt;
+        final int line;
+        final List<Local> locals;
+        Stmt.Trap trap;
+
+        Site(List<Stmt> owner, int index, Stmt stmt, int line, List<Local> locals) {
+            this.owner = owner;
+            this.index = index;
+            this.stmt = stmt;
+            this.line = line;
+            this.locals = locals;
+        }
+    }
+
+    private final List<Site> sites = new ArrayList<>();
+    private final BufferedReader in;
+    private final PrintStream out;
+
+    private int mode = RUN;
+    // Call depth the last step, next or finish was given at.
+    private int depth = 0;
+    private boolean stepping = false;
+
+    Debugger(List<Stmt> stmts, BufferedReader in, PrintStream out) {
+        this.in = in;
+        this.out = out;
+        index(stmts, new ArrayList<>());
+    }
+
+    private void index(List<Stmt> stmts, List<Local> scope) {
+        int mark = scope.size();
+
+        for(int i = 0; i < stmts.size(); i++) {
+            Stmt stmt = stmts.get(i);
+            int line = line(stmt);
+            if(line >= 0) {
+                Site site = new Site(stmts, i, stmt, line, new ArrayList<>(scope));
+                site.trap = new Stmt.Trap(stmt, sites.size());
+                sites.add(site);
+            }
+
+            // A function or class is in scope in its own body, so it can capture itself.
+            if(stmt instanceof Stmt.Var) {
+                Stmt.Var var = (Stmt.Var) stmt;
+                nested(stmt, scope);
+                if(var.slot >= 0) scope.add(new Local(var.name.lexeme, var.slot, var.captured));
+            }
+            else if(stmt instanceof Stmt.Fun) {
+                Stmt.Fun fun = (Stmt.Fun) stmt;
+                if(fun.slot >= 0) scope.add(new Local(fun.name.lexeme, fun.slot, fun.captured));
+                nested(stmt, scope);
+            }
+            else if(stmt instanceof Stmt.Class) {
+                Stmt.Class klass = (Stmt.Class) stmt;
+                if(klass.slot >= 0) scope.add(new Local(klass.name.lexeme, klass.slot, klass.captured));
+                nested(stmt, scope);
+            }
+            else {
+                nested(stmt, scope);
+            }
+        }
+
+        scope.subList(mark, scope.size()).clear();
+    }
+
+    private void nested(Stmt stmt, List<Local> scope) {
+        switch (stmt.tag) {
+            case Stmt.BLOCK:
+                index(((Stmt.Block) stmt).statements, scope);
+                break;
+            case Stmt.IF:
+                nested(((Stmt.If) stmt).thenBranch, scope);
+                if(((Stmt.If) stmt).elseBranch != null) nested(((Stmt.If) stmt).elseBranch, scope);
+                break;
+            case Stmt.WHILE:
+                nested(((Stmt.While) stmt).body, scope);
+                break;
+            case Stmt.FUN:
+                function((Stmt.Fun) stmt, scope);
+                break;
+            case Stmt.CLASS:
+                for(Stmt.Fun method : ((Stmt.Class) stmt).methods) {
+                    function(method, scope);
+                }
+                break;
+        }
+    }
+
+    // A function body runs in a frame of its own, which starts with the parameters.
+    // Its captured variables are named after what they capture in enclosing, the
+    // scope it is declared in. A LATE one's local is not declared yet and has no
+    // name there, so it is left out.
+    private void function(Stmt.Fun fun, List<Local> enclosing) {
+        List<Local> scope = new ArrayList<>();
+        for(int i = 0; i < fun.upvalues.length; i++) {
+            int source = fun.upvalues[i];
+            Local captured = source >= 0 ? find(enclosing, source, false) : find(enclosing, -1 - source, true);
+            if(captured != null) scope.add(new Local(captured.name, i, true, true));
+        }
+
+        for(int slot = 0; slot < fun.params.size(); slot++) {
+            scope.add(new Local(fun.params.get(slot).lexeme, slot, captured(fun, slot)));
+        }
+
+        if(fun.thisSlot >= 0) scope.add(new Local("this", fun.thisSlot, captured(fun, fun.thisSlot)));
+
+        index(fun.body, scope);
+    }
+
+    private static Local find(List<Local> scope, int slot, boolean upvalue) {
+        for(int i = scope.size() - 1; i >= 0; i--) {
+            Local local = scope.get(i);
+            if(local.slot == slot && local.upvalue == upvalue) return local;
+        }
+
+        return null;
+    }
+
+    private static boolean captured(Stmt.Fun fun, int slot) {
+        for(int captured : fun.capturedParams) {
+            if(captured == slot) return true;
+        }
+
+        return false;
+    }
+
+    // The line a statement stops at, or -1 for one that does not stop. Coverage
+    // counts statements by the same lines.
+    static int line(Stmt stmt) {
+        switch (stmt.tag) {
+            case Stmt.PRINT:
+                return ((Stmt.Print) stmt).keyword.line;
+            case Stmt.EXPRESSION:
+                return line(((Stmt.Expression) stmt).expression);
+            case Stmt.VAR:
+                return ((Stmt.Var) stmt).name.line;
+            case Stmt.IF:
+                return line(((Stmt.If) stmt).condition);
+            case Stmt.WHILE:
+                return ((Stmt.While) stmt).keyword.line;
+            case Stmt.FUN:
+                return ((Stmt.Fun) stmt).name.line;
+            case Stmt.RETURN:
+                return ((Stmt.Return) stmt).keyword.line;
+            case Stmt.CLASS:
+                return ((Stmt.Class) stmt).name.line;
+        }
+
+        return -1;
+    }
+
+    // Line of the first token of expr, or -1 if it starts with a literal.
+    private static int line(Expr expr) {
+        switch (expr.tag) {
+            case Expr.BINARY:
+                return line(((Expr.Binary) expr).left);
+            case Expr.UNARY:
+                return ((Expr.Unary) expr).operator.line;
+            case Expr.GROUPING:
+                return line(((Expr.Grouping) expr).expr);
+            case Expr.VARIABLE:
+                return ((Expr.Variable) expr).name.line;
+            case Expr.ASSIGN:
+                return ((Expr.Assign) expr).name.line;
+            case Expr.LOGICAL:
+                return line(((Expr.Logical) expr).left);
+            case Expr.CALL:
+                return line(((Expr.Call) expr).callee);
+            case Expr.GET:
+                return line(((Expr.Get) expr).object);
+            case Expr.SET:
+                return line(((Expr.Set) expr).object);
+            case Expr.INVOKE:
+                return line(((Expr.Invoke) expr).object);
+            case Expr.SUPER:
+                return ((Expr.Super) expr).keyword.line;
+            case Expr.HOISTED:
+                return line(((Expr.Hoisted) expr).expr);
+            case Expr.INCREMENT_LOCAL:
+                return line(((Expr.IncrementLocal) expr).fallback);
+            case Expr.COMPARE_LOCAL:
+                return line(((Expr.CompareLocal) expr).fallback);
+        }
+
+        return -1;
+    }
+
+    // Takes commands until one lets the script start.
+    void start() throws IOException {
+        commands(null, null, 0);
+    }
+
+    void exited() {
+        send("exited");
+    }
+
+    void trap(Interpreter interpreter, Stmt.Trap trap) {
+        // The site's own trap has the breakpoint; a rewriter may have copied it.
+        Site site = sites.get(trap.site);
+        int calls = interpreter.callDepth();
+
+        boolean stop = site.trap.breakpoint || mode == STEP_IN
+                || (mode == STEP_OVER && calls <= depth)
+                || (mode == STEP_OUT && calls < depth);
+        if(!stop) return;
+
+        send("paused " + site.line + " depth " + calls);
+        try {
+            commands(interpreter, site, calls);
+        }
+        catch (IOException e) {
+            detach();
+        }
+    }
+
+    private void commands(Interpreter interpreter, Site site, int calls) throws IOException {
+        while (true) {
+            String line = in.readLine();
+            if(line == null) {
+                detach();
+                return;
+            }
+
+            String[] words = line.trim().split("\\s+");
+            switch (words[0]) {
+                case "break":
+                case "clear":
+                    breakpoint(words, words[0].equals("break"));
+                    break;
+                case "continue":
+                    resume(RUN, calls);
+                    return;
+                case "step":
+                    resume(STEP_IN, calls);
+                    return;
+                case "next":
+                    resume(STEP_OVER, calls);
+                    return;
+                case "finish":
+                    resume(STEP_OUT, calls);
+                    return;
+                case "locals":
+                    if(site == null) send("error The script has not started");
+                    else locals(interpreter, site);
+                    break;
+                case "print":
+                    if(words.length != 2) send("error Usage: print <name>");
+                    else if(site == null) send("error The script has not started");
+                    else print(interpreter, site, words[1]);
+                    break;
+                case "where":
+                    if(site == null) send("error The script has not started");
+                    else send("at " + site.line + " depth " + calls);
+                    break;
+                case "quit":
+                    send("exited");
+                    System.exit(0);
+                    return;
+                case "":
+                    break;
+                default:
+                    send("error Unknown command " + words[0]);
+            }
+        }
+    }
+
+    private void breakpoint(String[] words, boolean set) {
+        int line;
+        try {
+            line = Integer.parseInt(words.length == 2 ? words[1] : "");
+        }
+        catch (NumberFormatException e) {
+            send("error Usage: " + words[0] + " <line>");
+            return;
+        }
+
+        int at = -1;
+        for(Site site : sites) {
+            if(site.line >= line && (at < 0 || site.line < at)) at = site.line;
+        }
+
+        if(at < 0) {
+            send("error No statement at or after line " + line);
+            return;
+        }
+
+        for(Site site : sites) {
+            if(site.line != at) continue;
+
+            site.trap.breakpoint = set;
+            update(site);
+        }
+
+        send((set ? "breakpoint " : "cleared ") + at);
+    }
+
+    private void resume(int mode, int calls) {
+        this.mode = mode;
+        this.depth = calls;
+
+        if(stepping != (mode != RUN)) {
+            stepping = mode != RUN;
+            for(Site site : sites) {
+                update(site);
+            }
+        }
+    }
+
+    // Without anyone to take commands, the script runs to the end untrapped.
+    private void detach() {
+        mode = RUN;
+        stepping = false;
+        for(Site site : sites) {
+            site.trap.breakpoint = false;
+            update(site);
+        }
+    }
+
+    private void update(Site site) {
+        boolean trapped = site.trap.breakpoint || stepping;
+        site.owner.set(site.index, trapped ? site.trap : site.stmt);
+    }
+
+    private void locals(Interpreter interpreter, Site site) {
+        for(Local local : site.locals) {
+            Object value = value(interpreter, local);
+            if(value != Cell.UNDEFINED) send("local " + local.name + " " + Interpreter.stringify(value));
+        }
+
+        send("end");
+    }
+
+    private void print(Interpreter interpreter, Site site, String name) {
+        for(int i = site.locals.size() - 1; i >= 0; i--) {
+            Local local = site.locals.get(i);
+            if(!local.name.equals(name)) continue;
+
+            Object value = value(interpreter, local);
+            if(value == Cell.UNDEFINED) break;
+
+            send("value " + name + " " + Interpreter.stringify(value));
+            return;
+        }
+
+        try {
+            Object value = interpreter.globals.find(new Token(TokenType.IDENTIFIER, name, null, site.line));
+            send("value " + name + " " + Interpreter.stringify(value));
+        }
+        catch (RuntimeError e) {
+            send("error " + e.getMessage());
+        }
+    }
+
+    private static Object value(Interpreter interpreter, Local local) {
+        if(local.upvalue) return interpreter.upvalues()[local.slot].value;
+
+        Object value = interpreter.frame()[local.slot];
+        if(local.captured && value instanceof Cell) return ((Cell) value).value;
+
+        return value;
+    }
+
+    private void send(String line) {
+        out.println(line);
+        out.flush();
+    }
+}
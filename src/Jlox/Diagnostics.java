@@ -0,0 +1,85 @@
+package Jlox;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+// Collects the errors from compiling and running one file: the Scanner, Parser and
+// Resolver all report into the same one, so a single pass gives every static error
+// in the file, and report prints them all in one write. Each file gets its own, so
+// files can be checked on as many threads as there are Diagnostics; one is not
+// meant to be shared between threads.
+class Diagnostics {
+
+    static class Diagnostic {
+        final int line;
+        // 1-based; 0 where the column is not known, as for tokens from a module.
+        final int column;
+        // Text of the token the error is at; empty at the end of the file.
+        final String lexeme;
+        final String message;
+
+        Diagnostic(int line, int column, String lexeme, String message) {
+            this.line = line;
+            this.column = column;
+            this.lexeme = lexeme;
+            this.message = message;
+        }
+
+        @Override
+        public String toString() {
+            String where = column > 0 ? line + ":" + column : String.valueOf(line);
+            String at = lexeme.isEmpty() ? "at end" : "at '" + lexeme + "'";
+            return "Line [" + where + "] Error " + at + ": " + message;
+        }
+    }
+
+    private final List<Diagnostic> errors = new ArrayList<>();
+    private RuntimeError runtimeError = null;
+
+    void error(int line, int column, String lexeme, String message) {
+        errors.add(new Diagnostic(line, column, lexeme, message));
+    }
+
+    void error(Token token, String message) {
+        error(token.line, token.column, token.lexeme, message);
+    }
+
+    void runtimeError(RuntimeError error) {
+        runtimeError = error;
+    }
+
+    boolean hadError() {
+        return !errors.isEmpty();
+    }
+
+    boolean hadRuntimeError() {
+        return runtimeError != null;
+    }
+
+    // The static errors in source order.
+    List<Diagnostic> errors() {
+        List<Diagnostic> sorted = new ArrayList<>(errors);
+        sorted.sort(Comparator.comparingInt((Diagnostic d) -> d.line).thenComparingInt(d -> d.column));
+        return sorted;
+    }
+
+    // Prints everything collected so far and forgets it.
+    void report(PrintStream out) {
+        StringBuilder text = new StringBuilder();
+        for(Diagnostic error : errors()) {
+            text.append(error).append('\n');
+        }
+
+        if(runtimeError != null) {
+            text.append(runtimeError.getMessage()).append(" \nLine ").append(runtimeError.token.line).append(" ]\n");
+        }
+
+        out.print(text);
+        out.flush();
+
+        errors.clear();
+        runtimeError = null;
+    }
+}
@@ -1,47 +1,103 @@
 package Jlox;
 
+import java.io.IOException;
+import java.io.NotSerializableException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.Map;
 
-class Environment {
-    private final HashMap<String, Object> values = new HashMap<String, Object>();
-    private final Environment enclosing;
+// Global variables. Locals live in the frames laid out by the Resolver.
+//
+// Globals sit in a dense table. A name is given its index the first time it is
+// defined or looked up and keeps it, so a global reference can cache the index;
+// the slot holds UNDEFINED until the name is actually defined.
+class Environment implements Serializable {
+    private static final long serialVersionUID = Snapshot.VERSION;
 
-    Environment() {
-        enclosing = null;
+    private static final Object UNDEFINED = new Object();
+
+    private transient HashMap<String, Integer> indices = new HashMap<>();
+    private transient Object[] values = new Object[64];
+    private transient int count = 0;
+
+    int indexOf(String name) {
+        Integer index = indices.get(name);
+        if(index != null) return index;
+
+        if(count == values.length) values = Arrays.copyOf(values, count * 2);
+        values[count] = UNDEFINED;
+        indices.put(name, count);
+        return count++;
     }
 
-    Environment(Environment environment) {
-        this.enclosing = environment;
+    // Like get, but never adds the name, so it is safe while several threads read
+    // the table.
+    Object find(Token name) {
+        Integer index = indices.get(name.lexeme);
+        if(index == null) throw new RuntimeError(name, "Undefined variable " + name.lexeme);
+
+        return get(index, name);
     }
 
-    void define(String string, Object object) {
-        values.put(string, object);
+    void define(String name, Object value) {
+        int index = indexOf(name);
+        values[index] = value;
     }
 
     Object get(Token name) {
-        if(values.containsKey(name.lexeme)) {
-            return values.get(name.lexeme);
-        }
-
-        if(enclosing != null) return enclosing.get(name);
+        return get(indexOf(name.lexeme), name);
+    }
 
-        throw new RuntimeError(name, "Undefined variable " + name.lexeme);
+    Object get(int index, Token name) {
+        Object value = values[index];
+        if(value == UNDEFINED) throw new RuntimeError(name, "Undefined variable " + name.lexeme);
 
+        return value;
     }
 
     void assign(Token name, Object value) {
-        if(values.containsKey(name.lexeme)) {
-            values.put(name.lexeme, value);
-            return;
-        }
+        assign(indexOf(name.lexeme), name, value);
+    }
 
-        if(enclosing != null) {
-            enclosing.assign(name, value);
-            return;
+    void assign(int index, Token name, Object value) {
+        if(values[index] == UNDEFINED) throw new RuntimeError(name, "Undefined variable " + name.lexeme);
+
+        values[index] = value;
+    }
+
+    // Native functions are skipped here and defined again by the Interpreter that
+    // restores the snapshot. Any other value that cannot be written is an error,
+    // rather than a global missing from the image.
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+
+        HashMap<String, Object> saved = new HashMap<>();
+        for(Map.Entry<String, Integer> entry : indices.entrySet()) {
+            Object value = values[entry.getValue()];
+            if(value == UNDEFINED || value instanceof NativeFunction) continue;
+            if(value != null && !(value instanceof Serializable)) {
+                throw new NotSerializableException("global '" + entry.getKey() + "' holds " + value);
+            }
+
+            saved.put(entry.getKey(), value);
         }
 
-        throw new RuntimeError(name, "Undefined variable " + name.lexeme);
+        out.writeObject(saved);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
 
+        indices = new HashMap<>();
+        values = new Object[64];
+        count = 0;
+        for(Map.Entry<String, Object> entry : ((HashMap<String, Object>) in.readObject()).entrySet()) {
+            define(entry.getKey(), entry.getValue());
+        }
     }
 
 }
@@ -1,7 +1,27 @@
 package Jlox;
+import java.io.Serializable;
 import java.util.List;
 
-abstract class Expr {
+abstract sealed class Expr implements Serializable {
+
+    // Snapshot images hold these trees, so Snapshot.VERSION says which ones load.
+    private static final long serialVersionUID = Snapshot.VERSION;
+
+    static final int BINARY = 0;
+    static final int UNARY = 1;
+    static final int GROUPING = 2;
+    static final int LITERAL = 3;
+    static final int VARIABLE = 4;
+    static final int ASSIGN = 5;
+    static final int LOGICAL = 6;
+    static final int CALL = 7;
+    static final int HOISTED = 8;
+    static final int INCREMENT_LOCAL = 9;
+    static final int COMPARE_LOCAL = 10;
+    static final int GET = 11;
+    static final int SET = 12;
+    static final int SUPER = 13;
+    static final int INVOKE = 14;
 
     interface Visitor<R> {
         R visitBinaryExpr(Binary binaryExpr);
@@ -12,12 +32,28 @@ abstract class Expr {
         R visitAssignExpr(Assign assignExpr);
         R visitLogicalExpr(Logical logicalExpr);
         R visitCallExpr(Call callExpr);
+        R visitHoistedExpr(Hoisted hoistedExpr);
+        R visitIncrementLocalExpr(IncrementLocal incrementlocalExpr);
+        R visitCompareLocalExpr(CompareLocal comparelocalExpr);
+        R visitGetExpr(Get getExpr);
+        R visitSetExpr(Set setExpr);
+        R visitSuperExpr(Super superExpr);
+        R visitInvokeExpr(Invoke invokeExpr);
+    }
+
+    final int tag;
+
+    Expr(int tag) {
+        this.tag = tag;
     }
 
     abstract <R> R accept(Visitor<R> visitor);
 
-    static class Binary extends Expr {
+    static final class Binary extends Expr {
+        private static final long serialVersionUID = Snapshot.VERSION;
+
         Binary(Expr left, Token operator, Expr right) {
+            super(BINARY);
             this.left = left;
             this.operator = operator;
             this.right = right;
@@ -32,8 +68,11 @@ abstract class Expr {
         }
     }
 
-    static class Unary extends Expr {
+    static final class Unary extends Expr {
+        private static final long serialVersionUID = Snapshot.VERSION;
+
         Unary(Token operator, Expr right) {
+            super(UNARY);
             this.operator = operator;
             this.right = right;
         }
@@ -46,8 +85,11 @@ abstract class Expr {
         }
     }
 
-    static class Grouping extends Expr {
+    static final class Grouping extends Expr {
+        private static final long serialVersionUID = Snapshot.VERSION;
+
         Grouping(Expr expr) {
+            super(GROUPING);
             this.expr = expr;
         }
 
@@ -58,8 +100,11 @@ abstract class Expr {
         }
     }
 
-    static class Literal extends Expr {
+    static final class Literal extends Expr {
+        private static final long serialVersionUID = Snapshot.VERSION;
+
         Literal(Object value) {
+            super(LITERAL);
             this.value = value;
         }
 
@@ -70,20 +115,31 @@ abstract class Expr {
         }
     }
 
-    static class Variable extends Expr {
+    static final class Variable extends Expr {
+        private static final long serialVersionUID = Snapshot.VERSION;
+
         Variable(Token name) {
+            super(VARIABLE);
             this.name = name;
         }
 
         final Token name;
 
+        // Filled in after parsing.
+        int kind;
+        int slot = -1;
+        transient Environment globals;
+
         <R> R accept(Visitor<R> visitor) {
             return visitor.visitVariableExpr(this);
         }
     }
 
-    static class Assign extends Expr {
+    static final class Assign extends Expr {
+        private static final long serialVersionUID = Snapshot.VERSION;
+
         Assign(Token name, Expr value) {
+            super(ASSIGN);
             this.name = name;
             this.value = value;
         }
@@ -91,13 +147,21 @@ abstract class Expr {
         final Token name;
         final Expr value;
 
+        // Filled in after parsing.
+        int kind;
+        int slot = -1;
+        transient Environment globals;
+
         <R> R accept(Visitor<R> visitor) {
             return visitor.visitAssignExpr(this);
         }
     }
 
-    static class Logical extends Expr {
+    static final class Logical extends Expr {
+        private static final long serialVersionUID = Snapshot.VERSION;
+
         Logical(Expr left, Token operator, Expr right) {
+            super(LOGICAL);
             this.left = left;
             this.operator = operator;
             this.right = right;
@@ -112,8 +176,11 @@ abstract class Expr {
         }
     }
 
-    static class Call extends Expr {
+    static final class Call extends Expr {
+        private static final long serialVersionUID = Snapshot.VERSION;
+
         Call(Expr callee, Token paren, List<Expr> arguments) {
+            super(CALL);
             this.callee = callee;
             this.paren = paren;
             this.arguments = arguments;
@@ -127,4 +194,154 @@ abstract class Expr {
             return visitor.visitCallExpr(this);
         }
     }
+
+    static final class Hoisted extends Expr {
+        private static final long serialVersionUID = Snapshot.VERSION;
+
+        Hoisted(Expr expr, int slot) {
+            super(HOISTED);
+            this.expr = expr;
+            this.slot = slot;
+        }
+
+        final Expr expr;
+        final int slot;
+
+        <R> R accept(Visitor<R> visitor) {
+            return visitor.visitHoistedExpr(this);
+        }
+    }
+
+    static final class IncrementLocal extends Expr {
+        private static final long serialVersionUID = Snapshot.VERSION;
+
+        IncrementLocal(int slot, double delta, Expr fallback) {
+            super(INCREMENT_LOCAL);
+            this.slot = slot;
+            this.delta = delta;
+            this.fallback = fallback;
+        }
+
+        final int slot;
+        final double delta;
+        final Expr fallback;
+
+        <R> R accept(Visitor<R> visitor) {
+            return visitor.visitIncrementLocalExpr(this);
+        }
+    }
+
+    static final class CompareLocal extends Expr {
+        private static final long serialVersionUID = Snapshot.VERSION;
+
+        CompareLocal(Token operator, int slot, double constant, Expr fallback) {
+            super(COMPARE_LOCAL);
+            this.operator = operator;
+            this.slot = slot;
+            this.constant = constant;
+            this.fallback = fallback;
+        }
+
+        final Token operator;
+        final int slot;
+        final double constant;
+        final Expr fallback;
+
+        <R> R accept(Visitor<R> visitor) {
+            return visitor.visitCompareLocalExpr(this);
+        }
+    }
+
+    static final class Get extends Expr {
+        private static final long serialVersionUID = Snapshot.VERSION;
+
+        Get(Expr object, Token name) {
+            super(GET);
+            this.object = object;
+            this.name = name;
+        }
+
+        final Expr object;
+        final Token name;
+
+        // Filled in after parsing.
+        transient Shape shape;
+        transient int index;
+        transient LoxFunction method;
+
+        <R> R accept(Visitor<R> visitor) {
+            return visitor.visitGetExpr(this);
+        }
+    }
+
+    static final class Set extends Expr {
+        private static final long serialVersionUID = Snapshot.VERSION;
+
+        Set(Expr object, Token name, Expr value) {
+            super(SET);
+            this.object = object;
+            this.name = name;
+            this.value = value;
+        }
+
+        final Expr object;
+        final Token name;
+        final Expr value;
+
+        // Filled in after parsing.
+        transient Shape shape;
+        transient int index;
+        transient Shape transition;
+
+        <R> R accept(Visitor<R> visitor) {
+            return visitor.visitSetExpr(this);
+        }
+    }
+
+    static final class Super extends Expr {
+        private static final long serialVersionUID = Snapshot.VERSION;
+
+        Super(Token keyword, Token method, Variable superclass, Variable receiver) {
+            super(SUPER);
+            this.keyword = keyword;
+            this.method = method;
+            this.superclass = superclass;
+            this.receiver = receiver;
+        }
+
+        final Token keyword;
+        final Token method;
+        final Variable superclass;
+        final Variable receiver;
+
+        <R> R accept(Visitor<R> visitor) {
+            return visitor.visitSuperExpr(this);
+        }
+    }
+
+    static final class Invoke extends Expr {
+        private static final long serialVersionUID = Snapshot.VERSION;
+
+        Invoke(Expr object, Token name, Token paren, List<Expr> arguments) {
+            super(INVOKE);
+            this.object = object;
+            this.name = name;
+            this.paren = paren;
+            this.arguments = arguments;
+        }
+
+        final Expr object;
+        final Token name;
+        final Token paren;
+        final List<Expr> arguments;
+
+        // Filled in after parsing.
+        transient Shape[] shapes;
+        transient LoxFunction[] methods;
+        transient int cached;
+
+        <R> R accept(Visitor<R> visitor) {
+            return visitor.visitInvokeExpr(this);
+        }
+    }
 }
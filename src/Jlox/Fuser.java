@@ -0,0 +1,87 @@
+package Jlox;
+
+import static Jlox.TokenType.*;
+
+// Replaces the node shapes that dominate the benchmark corpus (bench/Jlox/NodeStats
+// counts them) with fused nodes the Interpreter runs in one dispatch:
+//
+//   i = i + c, i = i - c       IncrementLocal
+//   i < c, i <= c, i > c, ...  CompareLocal
+//   while (i < n) ...          WhileLess, for n a constant, local or hoisted value
+//
+// where i is an uncaptured local and c a number literal. Each fused node keeps
+// the original tree and falls back to it when i does not hold a number, so errors
+// and string concatenation behave exactly as before.
+class Fuser extends Rewriter {
+
+    @Override
+    public Expr visitAssignExpr(Expr.Assign expr) {
+        Expr.Assign assign = (Expr.Assign) super.visitAssignExpr(expr);
+        if(assign.kind != Resolver.LOCAL || !(assign.value instanceof Expr.Binary)) return assign;
+
+        Expr.Binary binary = (Expr.Binary) assign.value;
+        TokenType operator = binary.operator.type;
+        if(operator != PLUS && operator != MINUS) return assign;
+        if(!isLocal(binary.left, assign.slot) || !isNumber(binary.right)) return assign;
+
+        double delta = (double) ((Expr.Literal) binary.right).value;
+        return new Expr.IncrementLocal(assign.slot, operator == PLUS ? delta : -delta, assign);
+    }
+
+    @Override
+    public Expr visitBinaryExpr(Expr.Binary expr) {
+        Expr.Binary binary = (Expr.Binary) super.visitBinaryExpr(expr);
+        switch (binary.operator.type) {
+            case LESS:
+            case LESS_EQUAL:
+            case GREATER:
+            case GREATER_EQUAL:
+                break;
+            default:
+                return binary;
+        }
+
+        if(!isLocal(binary.left, -1) || !isNumber(binary.right)) return binary;
+
+        int slot = ((Expr.Variable) binary.left).slot;
+        double constant = (double) ((Expr.Literal) binary.right).value;
+        return new Expr.CompareLocal(binary.operator, slot, constant, binary);
+    }
+
+    @Override
+    public Stmt visitWhileStmt(Stmt.While stmt) {
+        if(!(stmt.condition instanceof Expr.Binary)) return super.visitWhileStmt(stmt);
+
+        Expr.Binary condition = (Expr.Binary) stmt.condition;
+        if(condition.operator.type != LESS || !isLocal(condition.left, -1) || !isPure(condition.right)) {
+            return super.visitWhileStmt(stmt);
+        }
+
+        Stmt.While loop = stmt;
+        Stmt body = rewrite(stmt.body);
+        if(body != stmt.body) {
+            loop = new Stmt.While(stmt.keyword, stmt.condition, body);
+            loop.hoisted = stmt.hoisted;
+        }
+
+        return new Stmt.WhileLess(loop, ((Expr.Variable) condition.left).slot, condition.right);
+    }
+
+    // An uncaptured local, in the given slot unless slot is -1.
+    private static boolean isLocal(Expr expr, int slot) {
+        if(!(expr instanceof Expr.Variable)) return false;
+
+        Expr.Variable variable = (Expr.Variable) expr;
+        return variable.kind == Resolver.LOCAL && (slot == -1 || variable.slot == slot);
+    }
+
+    private static boolean isNumber(Expr expr) {
+        return expr instanceof Expr.Literal && ((Expr.Literal) expr).value instanceof Double;
+    }
+
+    // WhileLess evaluates its limit a second time when it has to fall back, so the
+    // limit must not have side effects.
+    private static boolean isPure(Expr expr) {
+        return expr instanceof Expr.Literal || isLocal(expr, -1) || expr instanceof Expr.Hoisted;
+    }
+}
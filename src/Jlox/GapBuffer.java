@@ -0,0 +1,83 @@
+package Jlox;
+
+// The text IncrementalParser edits: a char array with a gap at the last edit, so an
+// edit moves only the text between it and the one before instead of everything
+// after it, and a run of edits in one place moves nothing.
+class GapBuffer {
+    private char[] text;
+    private int gapStart;
+    private int gapEnd;
+
+    GapBuffer(String source) {
+        text = new char[source.length() + 64];
+        source.getChars(0, source.length(), text, 0);
+        gapStart = source.length();
+        gapEnd = text.length;
+    }
+
+    int length() {
+        return text.length - (gapEnd - gapStart);
+    }
+
+    char charAt(int index) {
+        return text[index < gapStart ? index : index + gapEnd - gapStart];
+    }
+
+    String substring(int from, int to) {
+        if(to <= gapStart) return new String(text, from, to - from);
+
+        int gap = gapEnd - gapStart;
+        if(from >= gapStart) return new String(text, from + gap, to - from);
+
+        StringBuilder builder = new StringBuilder(to - from);
+        builder.append(text, from, gapStart - from);
+        builder.append(text, gapEnd, to - gapStart);
+        return builder.toString();
+    }
+
+    // Offset the line holding offset starts at.
+    int lineStart(int offset) {
+        while (offset > 0 && charAt(offset - 1) != '\n') offset--;
+        return offset;
+    }
+
+    // Replaces [offset, offset + removed) with inserted.
+    void replace(int offset, int removed, String inserted) {
+        moveGap(offset);
+        gapEnd += removed;
+
+        int length = inserted.length();
+        if(gapEnd - gapStart < length) grow(length);
+        inserted.getChars(0, length, text, gapStart);
+        gapStart += length;
+    }
+
+    private void moveGap(int offset) {
+        if(offset < gapStart) {
+            int count = gapStart - offset;
+            System.arraycopy(text, offset, text, gapEnd - count, count);
+            gapStart -= count;
+            gapEnd -= count;
+        }
+        else if(offset > gapStart) {
+            int count = offset - gapStart;
+            System.arraycopy(text, gapEnd, text, gapStart, count);
+            gapStart += count;
+            gapEnd += count;
+        }
+    }
+
+    private void grow(int needed) {
+        int after = text.length - gapEnd;
+        char[] grown = new char[Math.max(text.length * 2, length() + needed + 64)];
+        System.arraycopy(text, 0, grown, 0, gapStart);
+        System.arraycopy(text, gapEnd, grown, grown.length - after, after);
+        gapEnd = grown.length - after;
+        text = grown;
+    }
+
+    @Override
+    public String toString() {
+        return substring(0, length());
+    }
+}
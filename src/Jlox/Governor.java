@@ -0,0 +1,61 @@
+package Jlox;
+
+// Resource limits for scripts we do not trust: a budget of steps (loop iterations
+// and calls), a wall-clock deadline and a cap on allocation (call frame slots,
+// closure captures, characters of built strings and collection elements). Going
+// over any of them raises a RuntimeError.
+//
+// Interpreters spend steps and allocation from allowances and only come back here
+// when they have used one up. A limited budget is handed out CHECK_INTERVAL units
+// at a time, so the clock is read once per interval and the parallel workers of
+// ParallelNatives can share one Governor; a worker that finds the budget empty
+// may fail while others still hold part of an allowance.
+class Governor {
+    static final long UNLIMITED = Long.MAX_VALUE;
+    private static final long CHECK_INTERVAL = 1 << 14;
+
+    private long steps;
+    private final long deadline;
+    private long allocation;
+
+    Governor(long maxSteps, long timeoutMillis, long maxAllocation) {
+        this.steps = maxSteps;
+        this.deadline = timeoutMillis == UNLIMITED ? 0 : System.nanoTime() + timeoutMillis * 1_000_000;
+        this.allocation = maxAllocation;
+    }
+
+    static Governor unlimited() {
+        return new Governor(UNLIMITED, UNLIMITED, UNLIMITED);
+    }
+
+    // Returns the next allowance of steps.
+    synchronized long refuel(Token where) {
+        if(deadline != 0 && System.nanoTime() - deadline > 0) {
+            throw new RuntimeError(where, "Time limit exceeded.");
+        }
+
+        if(steps == UNLIMITED && deadline == 0) return UNLIMITED;
+        if(steps <= 0) throw new RuntimeError(where, "Step budget exceeded.");
+
+        long allowance = Math.min(steps, CHECK_INTERVAL);
+        if(steps != UNLIMITED) steps -= allowance;
+        return allowance;
+    }
+
+    // Returns an allowance of at least needed units, or -1 when the cap does not
+    // leave that many.
+    synchronized long grantAllocation(long needed) {
+        if(allocation == UNLIMITED) return UNLIMITED;
+        if(allocation < needed) return -1;
+
+        long allowance = Math.min(allocation, Math.max(needed, CHECK_INTERVAL));
+        allocation -= allowance;
+        return allowance;
+    }
+
+    // Takes back what is left of an interpreter's allowances.
+    synchronized void giveBack(long unusedSteps, long unusedAllocation) {
+        if(steps != UNLIMITED && unusedSteps > 0) steps += unusedSteps;
+        if(allocation != UNLIMITED && unusedAllocation > 0) allocation += unusedAllocation;
+    }
+}
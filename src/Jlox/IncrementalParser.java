@@ -0,0 +1,317 @@
+package Jlox;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static Jlox.TokenType.*;
+
+// Keeps a source text split into top-level segments (see Parser.topLevelBoundaries)
+// together with their tokens, statements and errors. An edit re-lexes and re-parses
+// only the segments it touches, widening the damaged region until it lines up with
+// segment boundaries again; every other segment keeps its tokens and Stmt trees.
+//
+// The text lives in a GapBuffer and a segment records only its own length and line
+// count, so an edit costs the region it re-lexes and nothing for the text after
+// it. Tokens keep the positions they were scanned at; tokens(), statements() and
+// diagnostics() move those of the segments that have shifted since.
+class IncrementalParser {
+
+    private static class Segment {
+        final int length;
+        final int lines;
+        final List<Token> tokens;
+        final List<Stmt> stmts;
+        List<Diagnostics.Diagnostic> errors;
+        // Where the segment starts, kept up to date for the segments before placed.
+        int start;
+        int line;
+        // Where it started when its tokens and errors were numbered.
+        int stampStart;
+        int stampLine;
+        int stampColumn;
+
+        Segment(int start, int end, int line, int column, int lines, List<Token> tokens, List<Stmt> stmts,
+                List<Diagnostics.Diagnostic> errors) {
+            this.length = end - start;
+            this.lines = lines;
+            this.tokens = tokens;
+            this.stmts = stmts;
+            this.errors = errors;
+            this.start = stampStart = start;
+            this.line = stampLine = line;
+            this.stampColumn = column;
+        }
+    }
+
+    private final GapBuffer source;
+    // Never empty: a text without tokens is one segment with none.
+    private final List<Segment> segments = new ArrayList<>();
+    private int placed = 0;
+
+    IncrementalParser(String source) {
+        this.source = new GapBuffer(source);
+        segments.addAll(relex(0, source.length(), 1, 1));
+        placed = segments.size();
+    }
+
+    String source() {
+        return source.toString();
+    }
+
+    int length() {
+        return source.length();
+    }
+
+    List<Token> tokens() {
+        List<Token> tokens = new ArrayList<>();
+        for(Segment segment : segments) {
+            tokens.addAll(restamp(segment).tokens);
+        }
+
+        Segment last = segments.get(segments.size() - 1);
+        int end = source.length();
+        tokens.add(new Token(EOF, "", null, last.line + last.lines, end, end - source.lineStart(end) + 1));
+        return tokens;
+    }
+
+    List<Stmt> statements() {
+        List<Stmt> stmts = new ArrayList<>();
+        for(Segment segment : segments) {
+            stmts.addAll(restamp(segment).stmts);
+        }
+
+        return stmts;
+    }
+
+    // The scanner and parser errors in the whole text, where they are now.
+    Diagnostics diagnostics() {
+        Diagnostics diagnostics = new Diagnostics();
+        for(Segment segment : segments) {
+            for(Diagnostics.Diagnostic error : restamp(segment).errors) {
+                diagnostics.error(error.line, error.column, error.lexeme, error.message);
+            }
+        }
+
+        return diagnostics;
+    }
+
+    // Whether the text ends inside a brace or parenthesis, as a REPL line that opens
+    // a block does. Only the last segment can.
+    boolean unfinished() {
+        int depth = 0;
+        for(Token token : segments.get(segments.size() - 1).tokens) {
+            switch (token.type) {
+                case LEFT_BRACE:
+                case LEFT_PAREN:
+                    depth++;
+                    break;
+                case RIGHT_BRACE:
+                case RIGHT_PAREN:
+                    depth--;
+                    break;
+            }
+        }
+
+        return depth > 0;
+    }
+
+    // Replaces source[offset, offset + removed) with inserted.
+    void edit(int offset, int removed, String inserted) {
+        if(offset < 0 || removed < 0 || offset + removed > source.length()) {
+            throw new IndexOutOfBoundsException("Edit outside of source: " + offset + "+" + removed);
+        }
+
+        int first = segmentAt(offset);
+        int last = segmentAt(Math.max(offset, offset + removed - 1));
+        int delta = inserted.length() - removed;
+        source.replace(offset, removed, inserted);
+
+        List<Segment> replacement;
+        while (true) {
+            place(last + 1);
+            Segment from = segments.get(first);
+            int regionStart = from.start;
+            int regionEnd = last + 1 < segments.size() ? segments.get(last + 1).start + delta : source.length();
+            int column = regionStart - source.lineStart(regionStart) + 1;
+
+            String text = source.substring(regionStart, regionEnd);
+            Scanner scanner = new Scanner(text, regionStart, from.line, column);
+            scanner.reportErrors = false;
+            List<Token> tokens = scanner.scanTokens();
+            tokens.remove(tokens.size() - 1);
+
+            // A region left without tokens joins the segment before it, or else the
+            // one after it.
+            if(first > 0 && (tokens.isEmpty() || !Parser.isDeclarationStart(tokens.get(0).type))) {
+                first--;
+                continue;
+            }
+
+            if(last + 1 < segments.size() && !endsStatement(tokens, scanner)) {
+                last++;
+                continue;
+            }
+
+            replacement = relex(regionStart, regionEnd, from.line, column, text, tokens, scanner.failed);
+            break;
+        }
+
+        segments.subList(first, last + 1).clear();
+        segments.addAll(first, replacement);
+        placed = first + replacement.size();
+    }
+
+    // The segment holding offset, or the last one for the end of the text. Places
+    // segments up to it as it goes.
+    private int segmentAt(int offset) {
+        Segment last = segments.get(placed - 1);
+        if(offset >= last.start + last.length) {
+            while (placed < segments.size()) {
+                place(placed);
+                last = segments.get(placed - 1);
+                if(offset < last.start + last.length) break;
+            }
+
+            return placed - 1;
+        }
+
+        int low = 0;
+        int high = placed - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if(segments.get(middle).start <= offset) low = middle;
+            else high = middle - 1;
+        }
+
+        return low;
+    }
+
+    // Brings the start and line of every segment up to index up to date.
+    private void place(int index) {
+        for(; placed <= index && placed < segments.size(); placed++) {
+            Segment previous = segments.get(placed - 1);
+            Segment segment = segments.get(placed);
+            segment.start = previous.start + previous.length;
+            segment.line = previous.line + previous.lines;
+        }
+    }
+
+    // Moves a segment's tokens and errors to where the segment is now.
+    private Segment restamp(Segment segment) {
+        place(segments.size() - 1);
+
+        int column = segment.start - source.lineStart(segment.start) + 1;
+        int delta = segment.start - segment.stampStart;
+        int lineDelta = segment.line - segment.stampLine;
+        int columnDelta = column - segment.stampColumn;
+        if(delta == 0 && lineDelta == 0 && columnDelta == 0) return segment;
+
+        // Only the segment's first line moves along a line.
+        for(Token token : segment.tokens) {
+            if(token.line == segment.stampLine) token.column += columnDelta;
+            token.offset += delta;
+            token.line += lineDelta;
+        }
+
+        List<Diagnostics.Diagnostic> errors = new ArrayList<>();
+        for(Diagnostics.Diagnostic error : segment.errors) {
+            int errorColumn = error.line == segment.stampLine && error.column > 0
+                    ? error.column + columnDelta : error.column;
+            errors.add(new Diagnostics.Diagnostic(error.line + lineDelta, errorColumn, error.lexeme, error.message));
+        }
+
+        segment.errors = errors;
+        segment.stampStart = segment.start;
+        segment.stampLine = segment.line;
+        segment.stampColumn = column;
+        return segment;
+    }
+
+    private static boolean endsStatement(List<Token> tokens, Scanner scanner) {
+        if(scanner.truncated) return false;
+        if(tokens.isEmpty()) return false;
+
+        TokenType type = tokens.get(tokens.size() - 1).type;
+        if(type != SEMICOLON && type != RIGHT_BRACE) return false;
+
+        int depth = 0;
+        for(Token token : tokens) {
+            switch (token.type) {
+                case LEFT_BRACE:
+                case LEFT_PAREN:
+                    depth++;
+                    break;
+                case RIGHT_BRACE:
+                case RIGHT_PAREN:
+                    if(--depth < 0) return false;
+                    break;
+            }
+        }
+
+        return depth == 0;
+    }
+
+    private List<Segment> relex(int regionStart, int regionEnd, int line, int column) {
+        String text = source.substring(regionStart, regionEnd);
+        Scanner scanner = new Scanner(text, regionStart, line, column);
+        scanner.reportErrors = false;
+        List<Token> tokens = scanner.scanTokens();
+        tokens.remove(tokens.size() - 1);
+        return relex(regionStart, regionEnd, line, column, text, tokens, scanner.failed);
+    }
+
+    // Cuts the region's tokens into segments and parses each one on its own. The
+    // first segment starts at regionStart and the last ends at regionEnd, so that
+    // whitespace and comments around the tokens belong to them. Scanner errors are
+    // collected, by scanning each segment again, only if there were any.
+    private List<Segment> relex(int regionStart, int regionEnd, int line, int column, String text,
+            List<Token> tokens, boolean failed) {
+        List<Segment> result = new ArrayList<>();
+        if(tokens.isEmpty()) {
+            Diagnostics diagnostics = new Diagnostics();
+            if(failed) new Scanner(text, regionStart, line, column, diagnostics).scanTokens();
+            result.add(new Segment(regionStart, regionEnd, line, column, countLines(text, 0, text.length()),
+                    tokens, new ArrayList<>(), new ArrayList<>(diagnostics.errors())));
+            return result;
+        }
+
+        List<Integer> boundaries = Parser.topLevelBoundaries(tokens);
+        boundaries.add(tokens.size());
+
+        for(int i = 0; i + 1 < boundaries.size(); i++) {
+            List<Token> chunk = new ArrayList<>(tokens.subList(boundaries.get(i), boundaries.get(i + 1)));
+            Token head = chunk.get(0);
+            int start = i == 0 ? regionStart : head.offset;
+            int end = i + 2 < boundaries.size() ? tokens.get(boundaries.get(i + 1)).offset : regionEnd;
+            int startLine = i == 0 ? line : head.line;
+            int startColumn = i == 0 ? column : head.column;
+
+            Diagnostics diagnostics = new Diagnostics();
+            if(failed) {
+                String piece = text.substring(start - regionStart, end - regionStart);
+                new Scanner(piece, start, startLine, startColumn, diagnostics).scanTokens();
+            }
+
+            List<Token> input = new ArrayList<>(chunk);
+            Token last = chunk.get(chunk.size() - 1);
+            input.add(new Token(EOF, "", null, last.line, last.offset + last.lexeme.length(),
+                    last.column + last.lexeme.length()));
+            List<Stmt> stmts = new Parser(input, diagnostics).parse();
+
+            int lines = countLines(text, start - regionStart, end - regionStart);
+            result.add(new Segment(start, end, startLine, startColumn, lines, chunk, stmts,
+                    new ArrayList<>(diagnostics.errors())));
+        }
+
+        return result;
+    }
+
+    private static int countLines(String text, int from, int to) {
+        int lines = 0;
+        for(int i = from; i < to; i++) {
+            if(text.charAt(i) == '\n') lines++;
+        }
+
+        return lines;
+    }
+}
@@ -2,31 +2,122 @@ package Jlox;
 
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
-    Environment globals = new Environment();
-    private Environment environment = globals;
+    static final Cell[] NO_UPVALUES = new Cell[0];
+    // Marks a hoisted slot whose expression has not run yet in this pass of its loop.
+    static final Object UNSET = new Object();
+    static final int INVOKE_CACHE_SIZE = 4;
+
+    Environment globals;
+    private Object[] frame = new Object[0];
+    private Cell[] upvalues = NO_UPVALUES;
+
+    // Call frames are recycled by call depth. Closures keep only the Cells they
+    // captured, never a frame, so a frame is free again once its call returns.
+    private Object[][] framePool = new Object[32][];
+    private int callDepth = 0;
+    private final Return returnSignal = new Return(null);
+
+    private Governor governor = Governor.unlimited();
+    private long fuel = 0;
+    private long allocationLeft = 0;
+
+    // Calls after which a function is compiled to JVM bytecode (see JitCompiler);
+    // 0 leaves every function to the tree-walker.
+    int jitThreshold = JitCompiler.DEFAULT_THRESHOLD;
+
+    // Only a Stmt.Trap, which the Debugger puts in the tree, looks at this.
+    Debugger debugger = null;
+
+    // Set on the workers of ParallelNatives, which share the globals and every
+    // Cell, list and map created before them. A worker may read that state but
+    // only modify what it created itself.
+    private final boolean worker;
 
     Interpreter() {
-        globals.define("clock", new LoxCallable() {
-            @Override
-            public Object call(Interpreter interpreter, List<Object> args) {
-                return (double)System.currentTimeMillis() / 1000.0;
-            }
+        worker = false;
+        globals = new Environment();
+        defineNatives();
+    }
 
-            @Override
-            public int arity() {
-                return 0;
-            }
+    Interpreter(Interpreter parent) {
+        worker = true;
+        globals = parent.globals;
+        governor = parent.governor;
+        jitThreshold = parent.jitThreshold;
+    }
 
-            @Override
-            public String toString() {
-                return "<native fn>";
-            }
+    void setGovernor(Governor governor) {
+        this.governor = governor;
+        fuel = 0;
+        allocationLeft = 0;
+    }
+
+    // Hands unused allowances back to the Governor, before workers start drawing
+    // on it or when a worker is done.
+    void releaseAllowances() {
+        governor.giveBack(fuel, allocationLeft);
+        fuel = 0;
+        allocationLeft = 0;
+    }
+
+    // Called once per loop iteration and per call.
+    void step(Token where) {
+        if(--fuel < 0) fuel = governor.refuel(where) - 1;
+    }
+
+    void allocate(long units, Token where) {
+        if((allocationLeft -= units) < 0 && !refill(units)) {
+            throw new RuntimeError(where, "Allocation limit exceeded.");
+        }
+    }
+
+    // For natives, which fail the call instead.
+    void allocate(long units) {
+        if((allocationLeft -= units) < 0 && !refill(units)) {
+            throw new NativeFunction.ArgumentError("Allocation limit exceeded.");
+        }
+    }
+
+    private boolean refill(long units) {
+        long allowance = governor.grantAllocation(-allocationLeft);
+        if(allowance < 0) {
+            allocationLeft += units;
+            return false;
+        }
+
+        allocationLeft += allowance;
+        return true;
+    }
+
+    boolean owns(Object owner) {
+        return !worker || owner == this;
+    }
+
+    // Fills a global reference's cached index ahead of the workers, which only read it.
+    void cacheGlobal(Expr.Variable variable) {
+        if(worker || variable.globals == globals) return;
+
+        variable.slot = globals.indexOf(variable.name.lexeme);
+        variable.globals = globals;
+    }
 
-        });
+    // Adopts a globals environment restored from a snapshot image.
+    void restoreGlobals(Environment snapshot) {
+        globals = snapshot;
+        defineNatives();
+    }
+
+    private void defineNatives() {
+        NativeRegistry.register(globals, Natives.class);
+        NativeRegistry.register(globals, CollectionNatives.class);
+        NativeRegistry.register(globals, ParallelNatives.class);
     }
 
     public Object visitLiteralExpr(Expr.Literal expr) {
@@ -34,10 +125,46 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     }
 
     public Object visitGroupingExpr(Expr.Grouping grouping) {
-        return evaluate(grouping);
+        return evaluate(grouping.expr);
+    }
+
+    public Object visitIncrementLocalExpr(Expr.IncrementLocal expr) {
+        Object value = frame[expr.slot];
+        if(!(value instanceof Double)) return evaluate(expr.fallback);
+
+        Object result = (double) value + expr.delta;
+        frame[expr.slot] = result;
+        return result;
+    }
+
+    public Object visitCompareLocalExpr(Expr.CompareLocal expr) {
+        Object value = frame[expr.slot];
+        if(!(value instanceof Double)) return evaluate(expr.fallback);
+
+        double left = (double) value;
+        switch (expr.operator.type) {
+            case LESS:
+                return left < expr.constant;
+            case LESS_EQUAL:
+                return left <= expr.constant;
+            case GREATER:
+                return left > expr.constant;
+            default:
+                return left >= expr.constant;
+        }
+    }
+
+    public Object visitHoistedExpr(Expr.Hoisted hoisted) {
+        Object value = frame[hoisted.slot];
+        if(value == UNSET) {
+            value = evaluate(hoisted.expr);
+            frame[hoisted.slot] = value;
+        }
+
+        return value;
     }
 
-    private Object evaluate(Expr expr) {
+    Object evaluate(Expr expr) {
         return expr.accept(this);
     }
 
@@ -56,16 +183,194 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     }
 
     public Object visitVariableExpr(Expr.Variable variable) {
-        return environment.get(variable.name);
+        switch (variable.kind) {
+            case Resolver.LOCAL:
+                return frame[variable.slot];
+            case Resolver.CELL:
+                return ((Cell) frame[variable.slot]).value;
+            case Resolver.UPVALUE:
+                return upvalues[variable.slot].value;
+            case Resolver.LATE:
+                return lateValue(upvalues[variable.slot], variable.name);
+        }
+
+        // For a global, slot caches its index in the table it was looked up in.
+        // Workers run on shared nodes, so they use the cache but never fill it.
+        if(variable.globals != globals) {
+            if(worker) return globals.find(variable.name);
+
+            variable.slot = globals.indexOf(variable.name.lexeme);
+            variable.globals = globals;
+        }
+
+        return globals.get(variable.slot, variable.name);
     }
 
     public Object visitAssignExpr(Expr.Assign expr) {
         Object value = evaluate(expr.value);
 
-        environment.assign(expr.name, value);
+        switch (expr.kind) {
+            case Resolver.LOCAL:
+                frame[expr.slot] = value;
+                break;
+            case Resolver.CELL:
+                ((Cell) frame[expr.slot]).value = value;
+                break;
+            case Resolver.UPVALUE:
+                assignUpvalue(upvalues[expr.slot], expr.name, value);
+                break;
+            case Resolver.LATE:
+                assignLate(upvalues[expr.slot], expr.name, value);
+                break;
+            default:
+                assignGlobal(expr, value);
+        }
+
         return value;
     }
 
+    // Until the declaration a LATE use was bound to has run, the name is a global.
+    // Its slot is the upvalue's, so the global is looked up by name.
+    Object lateValue(Cell cell, Token name) {
+        Object value = cell.value;
+        return value == Cell.UNDEFINED ? globals.find(name) : value;
+    }
+
+    void assignLate(Cell cell, Token name, Object value) {
+        if(cell.value != Cell.UNDEFINED) {
+            assignUpvalue(cell, name, value);
+            return;
+        }
+
+        if(worker) {
+            throw new RuntimeError(name, "Cannot assign to global variable '" + name.lexeme +
+                    "' inside a parallel function.");
+        }
+
+        globals.assign(name, value);
+    }
+
+    void assignUpvalue(Cell cell, Token name, Object value) {
+        if(!owns(cell.owner)) {
+            throw new RuntimeError(name, "Cannot assign to captured variable '" + name.lexeme +
+                    "' inside a parallel function.");
+        }
+
+        cell.value = value;
+    }
+
+    void assignGlobal(Expr.Assign expr, Object value) {
+        if(worker) {
+            throw new RuntimeError(expr.name, "Cannot assign to global variable '" + expr.name.lexeme +
+                    "' inside a parallel function.");
+        }
+
+        if(expr.globals != globals) {
+            expr.slot = globals.indexOf(expr.name.lexeme);
+            expr.globals = globals;
+        }
+
+        globals.assign(expr.slot, expr.name, value);
+    }
+
+    public Object visitGetExpr(Expr.Get expr) {
+        return getProperty(evaluate(expr.object), expr);
+    }
+
+    // Each Get and Set node remembers the last shape it saw and where the name was
+    // on it, so on a hit a field access is an array load after a pointer compare.
+    // Workers use the caches but never fill them, like global references.
+    Object getProperty(Object object, Expr.Get expr) {
+        if(!(object instanceof LoxInstance)) throw new RuntimeError(expr.name, "Only instances have properties.");
+
+        LoxInstance instance = (LoxInstance) object;
+        if(instance.shape == expr.shape) {
+            if(expr.index >= 0) return instance.fields[expr.index];
+            return expr.method.bind(instance);
+        }
+
+        Shape shape = instance.shape;
+        int index = shape.indexOf(expr.name.lexeme);
+        LoxFunction method = null;
+        if(index < 0) {
+            method = shape.klass.findMethod(expr.name.lexeme);
+            if(method == null) throw new RuntimeError(expr.name, "Undefined property '" + expr.name.lexeme + "'.");
+        }
+
+        if(!worker) {
+            expr.shape = shape;
+            expr.index = index;
+            expr.method = method;
+        }
+
+        return index >= 0 ? instance.fields[index] : method.bind(instance);
+    }
+
+    public Object visitSetExpr(Expr.Set expr) {
+        LoxInstance instance = instanceToSet(evaluate(expr.object), expr);
+        Object value = evaluate(expr.value);
+        setProperty(instance, expr, value);
+        return value;
+    }
+
+    LoxInstance instanceToSet(Object object, Expr.Set expr) {
+        if(!(object instanceof LoxInstance)) throw new RuntimeError(expr.name, "Only instances have fields.");
+        return (LoxInstance) object;
+    }
+
+    // A Set that added a field also remembers the shape it moved the instance to.
+    void setProperty(LoxInstance instance, Expr.Set expr, Object value) {
+        if(!owns(instance.owner)) {
+            throw new RuntimeError(expr.name, "Cannot modify an instance created outside a parallel function.");
+        }
+
+        if(instance.shape == expr.shape) {
+            if(expr.transition == null) {
+                instance.fields[expr.index] = value;
+                return;
+            }
+
+            allocate(1, expr.name);
+            instance.addField(expr.transition, expr.index, value);
+            return;
+        }
+
+        Shape shape = instance.shape;
+        int index = shape.indexOf(expr.name.lexeme);
+        Shape transition = null;
+        if(index < 0) {
+            index = shape.size();
+            transition = shape.with(expr.name.lexeme);
+        }
+
+        if(!worker) {
+            expr.shape = shape;
+            expr.index = index;
+            expr.transition = transition;
+        }
+
+        if(transition == null) {
+            instance.fields[index] = value;
+            return;
+        }
+
+        allocate(1, expr.name);
+        instance.addField(transition, index, value);
+    }
+
+    public Object visitSuperExpr(Expr.Super expr) {
+        return superMethod(evaluate(expr.superclass), evaluate(expr.receiver), expr);
+    }
+
+    Object superMethod(Object superclass, Object receiver, Expr.Super expr) {
+        LoxFunction method = ((LoxClass) superclass).findMethod(expr.method.lexeme);
+        if(method == null) {
+            throw new RuntimeError(expr.method, "Undefined property '" + expr.method.lexeme + "'.");
+        }
+
+        return method.bind((LoxInstance) receiver);
+    }
+
     public Object visitLogicalExpr(Expr.Logical expr) {
 
         Object left = evaluate(expr.left);
@@ -88,28 +393,161 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     }
 
     public Object visitCallExpr(Expr.Call expr) {
-        Object callee = evaluate(expr.callee);
+        return call(evaluate(expr.callee), expr.arguments, expr.paren);
+    }
+
+    private Object call(Object callee, List<Expr> arguments, Token paren) {
+        step(paren);
+
+        if(callee instanceof LoxFunction) {
+            LoxFunction function = (LoxFunction) callee;
+
+            if(function.arity() == arguments.size()) {
+                return invoke(function, argumentFrame(function, arguments, paren), paren);
+            }
+        }
+        else if(callee instanceof LoxCallable && ((LoxCallable) callee).arity() == arguments.size()) {
+            return callDirect((LoxCallable) callee, arguments, paren);
+        }
 
         List<Object> args = new ArrayList<>();
 
-        for(Expr argument : expr.arguments) {
+        for(Expr argument : arguments) {
             args.add(evaluate(argument));
         }
 
         if( !(callee instanceof LoxCallable) ) {
-            throw new RuntimeError(expr.paren, "Can only call functions and classes.");
+            throw new RuntimeError(paren, "Can only call functions and classes.");
         }
 
         LoxCallable function = (LoxCallable) callee;
 
         if( args.size() != function.arity()) {
-            throw new RuntimeError(expr.paren, "Expected " + function.arity() +
+            throw new RuntimeError(paren, "Expected " + function.arity() +
                     " arguments but got " + args.size());
         }
 
         return function.call(this, args);
     }
 
+    private Object[] argumentFrame(LoxFunction function, List<Expr> arguments, Token paren) {
+        allocate(function.frameSize(), paren);
+        Object[] calleeFrame = acquireFrame(function.frameSize());
+        try {
+            for(int i = 0; i < arguments.size(); i++) {
+                calleeFrame[i] = evaluate(arguments.get(i));
+            }
+        }
+        catch (Throwable e) {
+            releaseFrame(function.frameSize());
+            throw e;
+        }
+
+        return calleeFrame;
+    }
+
+    private Object callDirect(LoxCallable function, List<Expr> arguments, Token paren) {
+        try {
+            switch (arguments.size()) {
+                case 0:
+                    return function.call0(this);
+                case 1:
+                    return function.call1(this, evaluate(arguments.get(0)));
+                case 2: {
+                    Object a = evaluate(arguments.get(0));
+                    return function.call2(this, a, evaluate(arguments.get(1)));
+                }
+                case 3: {
+                    Object a = evaluate(arguments.get(0));
+                    Object b = evaluate(arguments.get(1));
+                    return function.call3(this, a, b, evaluate(arguments.get(2)));
+                }
+            }
+
+            List<Object> args = new ArrayList<>();
+            for(Expr argument : arguments) {
+                args.add(evaluate(argument));
+            }
+
+            return function.call(this, args);
+        }
+        catch (NativeFunction.ArgumentError e) {
+            throw new RuntimeError(paren, e.getMessage());
+        }
+        catch (StackOverflowError e) {
+            throw new RuntimeError(paren, "Stack overflow.");
+        }
+    }
+
+    // obj.name(args): a method runs with obj as this and is never bound; anything
+    // else (a field holding a function, a bad arity) is called like obj.name would be.
+    public Object visitInvokeExpr(Expr.Invoke expr) {
+        Object object = evaluate(expr.object);
+        Object target = invokeTarget(object, expr);
+        List<Expr> arguments = expr.arguments;
+
+        if(!(target instanceof LoxFunction) || !((LoxFunction) target).unbound()
+                || ((LoxFunction) target).arity() != arguments.size()) {
+            return call(target, arguments, expr.paren);
+        }
+
+        LoxFunction method = (LoxFunction) target;
+        step(expr.paren);
+        return invoke(method, argumentFrame(method, arguments, expr.paren), (LoxInstance) object, expr.paren);
+    }
+
+    // A call site remembers the method it found on each of the first
+    // INVOKE_CACHE_SIZE shapes it sees; past that it is megamorphic and looks up
+    // every call. Returns the method unbound, or the field if there is one by
+    // that name.
+    Object invokeTarget(Object object, Expr.Invoke expr) {
+        if(!(object instanceof LoxInstance)) throw new RuntimeError(expr.name, "Only instances have properties.");
+
+        LoxInstance instance = (LoxInstance) object;
+        Shape shape = instance.shape;
+        Shape[] shapes = expr.shapes;
+        for(int i = 0; i < expr.cached; i++) {
+            if(shapes[i] == shape) return expr.methods[i];
+        }
+
+        int index = shape.indexOf(expr.name.lexeme);
+        if(index >= 0) return instance.fields[index];
+
+        LoxFunction method = shape.klass.findMethod(expr.name.lexeme);
+        if(method == null) throw new RuntimeError(expr.name, "Undefined property '" + expr.name.lexeme + "'.");
+
+        if(!worker && expr.cached < INVOKE_CACHE_SIZE) {
+            if(shapes == null) {
+                expr.shapes = new Shape[INVOKE_CACHE_SIZE];
+                expr.methods = new LoxFunction[INVOKE_CACHE_SIZE];
+            }
+
+            expr.shapes[expr.cached] = shape;
+            expr.methods[expr.cached] = method;
+            expr.cached++;
+        }
+
+        return method;
+    }
+
+    Object invoke(LoxFunction function, Object[] frame, Token paren) {
+        try {
+            return function.invoke(this, frame);
+        }
+        catch (StackOverflowError e) {
+            throw new RuntimeError(paren, "Stack overflow.");
+        }
+    }
+
+    Object invoke(LoxFunction method, Object[] frame, LoxInstance receiver, Token paren) {
+        try {
+            return method.invoke(this, frame, receiver);
+        }
+        catch (StackOverflowError e) {
+            throw new RuntimeError(paren, "Stack overflow.");
+        }
+    }
+
     private void checkNumberOperand(Token token, Object operand) {
         if(operand instanceof Double) return;
         throw new RuntimeError(token, "Operand must be a number");
@@ -148,12 +586,12 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
                 return (double) left * (double) right;
             case PLUS:
                 if(left instanceof Double && right instanceof Double) return (double) left + (double) right;
-                if(left instanceof String && right instanceof String) return (String) left + (String) right;
+                if(left instanceof String && right instanceof String) return concatenate((String) left, (String) right, binary.operator);
                 if( (left instanceof String && right instanceof Double) ) {
-                    return left + stringify(right);
+                    return concatenate((String) left, stringify(right), binary.operator);
                 }
                 if( (left instanceof Double && right instanceof String) ) {
-                    return stringify(left) + right;
+                    return concatenate(stringify(left), (String) right, binary.operator);
                 }
 
                 throw new RuntimeError(binary.operator, "Operand must be numbers or strings");
@@ -178,14 +616,19 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         }
     }
 
-    private boolean isEqual(Object left, Object right) {
+    String concatenate(String left, String right, Token operator) {
+        allocate((long) left.length() + right.length(), operator);
+        return left + right;
+    }
+
+    static boolean isEqual(Object left, Object right) {
         if(left == null && right == null) return true;
         if(left == null) return false;
 
         return left.equals(right);
     }
 
-    private String stringify(Object object) {
+    static String stringify(Object object) {
         if(object == null) return "nil";
 
         if(object instanceof Double) {
@@ -205,6 +648,17 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         return null;
     }
 
+    // Workers never stop: the debugger talks to the thread running the script.
+    public Void visitTrapStmt(Stmt.Trap stmt) {
+        if(!worker && debugger != null) debugger.trap(this, stmt);
+        return execute(stmt.stmt);
+    }
+
+    public Void visitCountStmt(Stmt.Count stmt) {
+        stmt.counters[stmt.id]++;
+        return execute(stmt.stmt);
+    }
+
     public Void visitPrintStmt(Stmt.Print stmt) {
         Object value = evaluate(stmt.expression);
 //        System.out.println("StopWierd in intrpereter.java");
@@ -218,12 +672,19 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
             value = evaluate(var.initializer);
         }
 
-        environment.define(var.name.lexeme, value);
+        if(var.slot < 0) globals.define(var.name.lexeme, value);
+        else if(var.boxed) ((Cell) frame[var.slot]).value = value;
+        else frame[var.slot] = var.captured ? new Cell(value, this) : value;
         return null;
     }
 
     public Void visitBlockStmt(Stmt.Block block) {
-        executeBlock(block.statements, new Environment(environment));
+        if(block.cells != null) makeCells(block.cells, frame);
+
+        for(Stmt stmt : block.statements) {
+            execute(stmt);
+        }
+
         return null;
     }
 
@@ -242,51 +703,185 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     public Void visitWhileStmt(Stmt.While stmt) {
         Expr condition = stmt.condition;
+        clearHoisted(stmt);
 
         while(isTruthy(evaluate(condition))) {
+            step(stmt.keyword);
             execute(stmt.body);
         }
 
         return null;
     }
 
+    private void clearHoisted(Stmt.While stmt) {
+        if(stmt.hoisted != null) {
+            for(int slot : stmt.hoisted) {
+                frame[slot] = UNSET;
+            }
+        }
+    }
+
+    public Void visitWhileLessStmt(Stmt.WhileLess stmt) {
+        Stmt.While loop = stmt.loop;
+        clearHoisted(loop);
+
+        while(true) {
+            Object value = frame[stmt.slot];
+            Object limit = evaluate(stmt.limit);
+
+            if(value instanceof Double && limit instanceof Double) {
+                if(!((double) value < (double) limit)) break;
+            }
+            else if(!isTruthy(evaluate(loop.condition))) {
+                break;
+            }
+
+            step(loop.keyword);
+            execute(loop.body);
+        }
+
+        return null;
+    }
+
     public Void visitFunStmt(Stmt.Fun stmt) {
-        LoxFunction loxFunction = new LoxFunction(stmt, environment);
-        environment.define(stmt.name.lexeme, loxFunction);
+        if(stmt.slot < 0) {
+            globals.define(stmt.name.lexeme, new LoxFunction(stmt, captureUpvalues(stmt)));
+            return null;
+        }
+
+        if(!stmt.captured) {
+            frame[stmt.slot] = new LoxFunction(stmt, captureUpvalues(stmt));
+            return null;
+        }
+
+        // The function may capture itself, so its cell has to exist first.
+        Cell cell = stmt.boxed ? (Cell) frame[stmt.slot] : new Cell(null, this);
+        frame[stmt.slot] = cell;
+        cell.value = new LoxFunction(stmt, captureUpvalues(stmt));
         return null;
     }
 
+    public Void visitClassStmt(Stmt.Class stmt) {
+        LoxClass superclass = null;
+        if(stmt.superclass != null) {
+            Object value = evaluate(stmt.superclass);
+            if(!(value instanceof LoxClass)) throw new RuntimeError(stmt.superclass.name, "Superclass must be a class.");
+            superclass = (LoxClass) value;
+        }
+
+        // Methods may capture the class, so its cell has to exist first.
+        Cell cell = null;
+        if(stmt.slot >= 0 && stmt.captured) {
+            cell = stmt.boxed ? (Cell) frame[stmt.slot] : new Cell(null, this);
+            frame[stmt.slot] = cell;
+        }
+
+        Map<String, LoxFunction> methods = new HashMap<>();
+        for(Stmt.Fun method : stmt.methods) {
+            methods.put(method.name.lexeme, new LoxFunction(method, captureUpvalues(method), superclass));
+        }
+
+        LoxClass klass = new LoxClass(stmt.name.lexeme, superclass, methods);
+        if(stmt.slot < 0) globals.define(stmt.name.lexeme, klass);
+        else if(cell != null) cell.value = klass;
+        else frame[stmt.slot] = klass;
+        return null;
+    }
+
+    // Cells a scope makes when it starts, see Resolver.LATE.
+    void makeCells(int[] slots, Object[] frame) {
+        for(int slot : slots) {
+            frame[slot] = new Cell(Cell.UNDEFINED, this);
+        }
+    }
+
+    private Cell[] captureUpvalues(Stmt.Fun stmt) {
+        allocate(1 + stmt.upvalues.length, stmt.name);
+        if(stmt.upvalues.length == 0) return NO_UPVALUES;
+
+        Cell[] cells = new Cell[stmt.upvalues.length];
+        for(int i = 0; i < cells.length; i++) {
+            int source = stmt.upvalues[i];
+            cells[i] = source >= 0 ? (Cell) frame[source] : upvalues[-1 - source];
+        }
+
+        return cells;
+    }
+
     public Void visitReturnStmt(Stmt.Return stmt) {
         Object value = null;
         if(stmt.Value != null) value = evaluate(stmt.Value);
 
-        throw new Return(value);
+        returnSignal.value = value;
+        throw returnSignal;
     }
 
-    public void executeBlock(List<Stmt> stmts, Environment environment) {
-        Environment previous = this.environment;
+    // The frame of the call running now, and how many calls deep it is.
+    Object[] frame() {
+        return frame;
+    }
+
+    int callDepth() {
+        return callDepth;
+    }
+
+    // The cells of the closure running now.
+    Cell[] upvalues() {
+        return upvalues;
+    }
+
+    Object[] acquireFrame(int size) {
+        if(callDepth == framePool.length) {
+            framePool = Arrays.copyOf(framePool, callDepth * 2);
+        }
+
+        Object[] frame = framePool[callDepth];
+        if(frame == null || frame.length < size) {
+            frame = new Object[Math.max(size, 8)];
+            framePool[callDepth] = frame;
+        }
+
+        callDepth++;
+        return frame;
+    }
+
+    // Clears the slots the call used so the pool does not keep its values alive.
+    void releaseFrame(int size) {
+        callDepth--;
+        Arrays.fill(framePool[callDepth], 0, size, null);
+    }
+
+    void executeBody(List<Stmt> stmts, Object[] frame, Cell[] upvalues) {
+        Object[] previousFrame = this.frame;
+        Cell[] previousUpvalues = this.upvalues;
 
         try {
-            this.environment = environment;
+            this.frame = frame;
+            this.upvalues = upvalues;
             for(Stmt stmt : stmts) {
                 execute(stmt);
             }
         } finally {
-            this.environment = previous;
+            this.frame = previousFrame;
+            this.upvalues = previousUpvalues;
         }
     }
 
-    private Void execute(Stmt stmt) {
+    Void execute(Stmt stmt) {
         return stmt.accept(this);
     }
 
-    void  interpret(List<Stmt> stmts) {
+    // A runtime error stops the run and goes to diagnostics.
+    void interpret(List<Stmt> stmts, int slotCount, Diagnostics diagnostics) {
+        frame = new Object[slotCount];
+        upvalues = NO_UPVALUES;
+
         try {
             for(Stmt stmt : stmts) {
                 execute(stmt);
             }
         } catch (RuntimeError e) {
-            Lox.runtimeError(e);
+            diagnostics.runtimeError(e);
         }
     }
 }
@@ -0,0 +1,748 @@
+package Jlox;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static Jlox.ClassFile.*;
+
+// Compiles a function body to a JVM class once the function has been called
+// Interpreter.jitThreshold times (LoxFunction.invoke counts), so HotSpot sees
+// straight-line Java instead of visitor dispatch it cannot optimize across.
+//
+// Every local slot becomes a JVM local holding the same value the frame slot
+// would, Cells included, and a return is a plain areturn. Operations call the
+// helpers in JitRuntime, which mirror the Interpreter node for node; tokens,
+// literals and nodes reach the code as static final fields, which HotSpot treats
+// as constants. Each class gets a Loader of its own, so it can be unloaded with
+// the function. A body that uses something not handled here (or outgrows a
+// method) is left to the tree-walker.
+class JitCompiler implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    // A native image cannot define classes at run time.
+    static final int DEFAULT_THRESHOLD =
+            System.getProperty("org.graalvm.nativeimage.imagecode") == null ? 500 : 0;
+
+    private static final String RUNTIME = "Jlox/JitRuntime";
+    private static final String OBJECT = "Ljava/lang/Object;";
+    private static final String RUN = "(LJlox/Interpreter;[Ljava/lang/Object;[Ljava/lang/Object;)Ljava/lang/Object;";
+    // JVM locals: this, the interpreter, the frame, the upvalues, then one per slot.
+    private static final int INTERPRETER = 1;
+    private static final int FRAME = 2;
+    private static final int UPVALUES = 3;
+    private static final int FIRST_SLOT = 4;
+
+    private static final AtomicInteger classes = new AtomicInteger();
+
+    static class Loader extends ClassLoader {
+        final Object[] constants;
+
+        Loader(Object[] constants) {
+            super(JitCompiler.class.getClassLoader());
+            this.constants = constants;
+        }
+
+        Class<?> define(String name, byte[] bytes) {
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+    }
+
+    private static class Unsupported extends RuntimeException {
+        Unsupported() {
+            super(null, null, false, false);
+        }
+    }
+
+    private final ClassFile classFile;
+    private final ClassFile.Code code;
+    private final List<Object> constants = new ArrayList<>();
+    private final Map<Object, Integer> constantIndices = new IdentityHashMap<>();
+
+    private JitCompiler(Stmt.Fun function) {
+        if(FIRST_SLOT + function.slotCount > 255) throw new Unsupported();
+
+        classFile = new ClassFile("jlox/compiled/" + function.name.lexeme + "$" + classes.incrementAndGet(),
+                "Jlox/CompiledFunction");
+        code = classFile.method(ACC_PUBLIC, "run", RUN, FIRST_SLOT + function.slotCount);
+    }
+
+    // Returns null when the body cannot be compiled.
+    static CompiledFunction compile(Stmt.Fun function) {
+        try {
+            JitCompiler compiler = new JitCompiler(function);
+            byte[] bytes = compiler.compileClass(function);
+
+            Loader loader = new Loader(compiler.constants.toArray());
+            Class<?> compiled = loader.define(compiler.classFile.name().replace('/', '.'), bytes);
+            return (CompiledFunction) compiled.getDeclaredConstructor().newInstance();
+        }
+        catch (Unsupported | ClassFile.TooLarge e) {
+            return null;
+        }
+        catch (ReflectiveOperationException | LinkageError e) {
+            throw new IllegalStateException("Compiled " + function.name.lexeme + " to an invalid class", e);
+        }
+    }
+
+    private byte[] compileClass(Stmt.Fun function) {
+        // The arguments, and a method's this and super after them, come in the frame,
+        // and so do the cells LoxFunction.invoke made for the body.
+        int passed = function.thisSlot >= 0 ? function.thisSlot + 2 : function.params.size();
+        for(int slot = 0; slot < function.slotCount; slot++) {
+            if(slot < passed || contains(function.cells, slot)) {
+                code.load(FRAME);
+                code.pushInt(slot);
+                code.op(AALOAD, -1);
+            }
+            else {
+                code.op(ACONST_NULL, 1);
+            }
+
+            code.store(local(slot));
+        }
+
+        for(Stmt stmt : function.body) {
+            compile(stmt);
+        }
+
+        code.op(ACONST_NULL, 1);
+        code.op(ARETURN, -1);
+        code.end();
+
+        ClassFile.Code initializer = classFile.method(ACC_STATIC, "<clinit>", "()V", 1);
+        initializer.pushClass(classFile.name());
+        initializer.invoke(INVOKESTATIC, RUNTIME, "constants", "(Ljava/lang/Class;)[Ljava/lang/Object;");
+        initializer.store(0);
+        for(int i = 0; i < constants.size(); i++) {
+            classFile.field(ACC_STATIC | ACC_FINAL, "c" + i, OBJECT);
+            initializer.load(0);
+            initializer.pushInt(i);
+            initializer.op(AALOAD, -1);
+            initializer.putStatic(classFile.name(), "c" + i, OBJECT);
+        }
+        initializer.op(RETURN, 0);
+        initializer.end();
+
+        ClassFile.Code constructor = classFile.method(ACC_PUBLIC, "<init>", "()V", 1);
+        constructor.load(0);
+        constructor.invoke(INVOKESPECIAL, "java/lang/Object", "<init>", "()V");
+        constructor.op(RETURN, 0);
+        constructor.end();
+
+        return classFile.toBytes();
+    }
+
+    private static boolean contains(int[] slots, int slot) {
+        if(slots == null) return false;
+
+        for(int each : slots) {
+            if(each == slot) return true;
+        }
+
+        return false;
+    }
+
+    private static int local(int slot) {
+        return FIRST_SLOT + slot;
+    }
+
+    private void compile(Expr expr) {
+        expr.accept(this);
+    }
+
+    private void compile(Stmt stmt) {
+        stmt.accept(this);
+    }
+
+    private void constant(Object value) {
+        Integer index = constantIndices.get(value);
+        if(index == null) {
+            index = constants.size();
+            constants.add(value);
+            constantIndices.put(value, index);
+        }
+
+        code.getStatic(classFile.name(), "c" + index, OBJECT);
+    }
+
+    private void runtime(String name, String descriptor) {
+        code.invoke(INVOKESTATIC, RUNTIME, name, descriptor);
+    }
+
+    private void isTruthy() {
+        runtime("isTruthy", "(Ljava/lang/Object;)Z");
+    }
+
+    private void step(Token keyword) {
+        code.load(INTERPRETER);
+        constant(keyword);
+        runtime("step", "(Ljava/lang/Object;Ljava/lang/Object;)V");
+    }
+
+    private void clearHoisted(Stmt.While loop) {
+        if(loop.hoisted == null) return;
+
+        for(int slot : loop.hoisted) {
+            code.getStatic(RUNTIME, "UNSET", OBJECT);
+            code.store(local(slot));
+        }
+    }
+
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        if(expr.value == null) code.op(ACONST_NULL, 1);
+        else constant(expr.value);
+        return null;
+    }
+
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        compile(expr.expr);
+        return null;
+    }
+
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        compile(expr.right);
+
+        switch (expr.operator.type) {
+            case MINUS:
+                constant(expr.operator);
+                runtime("negate", "(Ljava/lang/Object;Ljava/lang/Object;)Ljava/lang/Object;");
+                break;
+            case BANG:
+                runtime("not", "(Ljava/lang/Object;)Ljava/lang/Object;");
+                break;
+            default:
+                code.op(POP, -1);
+                code.op(ACONST_NULL, 1);
+        }
+
+        return null;
+    }
+
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        compile(expr.left);
+        compile(expr.right);
+
+        String checked = "(Ljava/lang/Object;Ljava/lang/Object;Ljava/lang/Object;)Ljava/lang/Object;";
+        switch (expr.operator.type) {
+            case MINUS:
+                constant(expr.operator);
+                runtime("subtract", checked);
+                break;
+            case SLASH:
+                constant(expr.operator);
+                runtime("divide", checked);
+                break;
+            case STAR:
+                constant(expr.operator);
+                runtime("multiply", checked);
+                break;
+            case PLUS:
+                constant(expr.operator);
+                code.load(INTERPRETER);
+                runtime("add", "(Ljava/lang/Object;Ljava/lang/Object;Ljava/lang/Object;Ljava/lang/Object;)Ljava/lang/Object;");
+                break;
+            case GREATER:
+                constant(expr.operator);
+                runtime("greater", checked);
+                break;
+            case GREATER_EQUAL:
+                constant(expr.operator);
+                runtime("greaterEqual", checked);
+                break;
+            case LESS:
+                constant(expr.operator);
+                runtime("less", checked);
+                break;
+            case LESS_EQUAL:
+                constant(expr.operator);
+                runtime("lessEqual", checked);
+                break;
+            case BANG_EQUAL:
+                runtime("notEqual", "(Ljava/lang/Object;Ljava/lang/Object;)Ljava/lang/Object;");
+                break;
+            case EQUAL_EQUAL:
+                runtime("equal", "(Ljava/lang/Object;Ljava/lang/Object;)Ljava/lang/Object;");
+                break;
+            default:
+                code.op(POP, -1);
+                code.op(POP, -1);
+                code.op(ACONST_NULL, 1);
+        }
+
+        return null;
+    }
+
+    public Void visitVariableExpr(Expr.Variable expr) {
+        switch (expr.kind) {
+            case Resolver.LOCAL:
+                code.load(local(expr.slot));
+                break;
+            case Resolver.CELL:
+                code.load(local(expr.slot));
+                runtime("cellValue", "(Ljava/lang/Object;)Ljava/lang/Object;");
+                break;
+            case Resolver.UPVALUE:
+                code.load(UPVALUES);
+                code.pushInt(expr.slot);
+                runtime("upvalue", "([Ljava/lang/Object;I)Ljava/lang/Object;");
+                break;
+            case Resolver.LATE:
+                code.load(INTERPRETER);
+                code.load(UPVALUES);
+                code.pushInt(expr.slot);
+                constant(expr.name);
+                runtime("lateValue", "(Ljava/lang/Object;[Ljava/lang/Object;ILjava/lang/Object;)Ljava/lang/Object;");
+                break;
+            default:
+                code.load(INTERPRETER);
+                constant(expr);
+                runtime("global", "(Ljava/lang/Object;Ljava/lang/Object;)Ljava/lang/Object;");
+        }
+
+        return null;
+    }
+
+    public Void visitAssignExpr(Expr.Assign expr) {
+        compile(expr.value);
+
+        switch (expr.kind) {
+            case Resolver.LOCAL:
+                code.op(DUP, 1);
+                code.store(local(expr.slot));
+                break;
+            case Resolver.CELL:
+                code.load(local(expr.slot));
+                runtime("setCellValue", "(Ljava/lang/Object;Ljava/lang/Object;)Ljava/lang/Object;");
+                break;
+            case Resolver.UPVALUE:
+                code.load(INTERPRETER);
+                code.load(UPVALUES);
+                code.pushInt(expr.slot);
+                constant(expr.name);
+                runtime("assignUpvalue",
+                        "(Ljava/lang/Object;Ljava/lang/Object;[Ljava/lang/Object;ILjava/lang/Object;)Ljava/lang/Object;");
+                break;
+            case Resolver.LATE:
+                code.load(INTERPRETER);
+                code.load(UPVALUES);
+                code.pushInt(expr.slot);
+                constant(expr.name);
+                runtime("assignLate",
+                        "(Ljava/lang/Object;Ljava/lang/Object;[Ljava/lang/Object;ILjava/lang/Object;)Ljava/lang/Object;");
+                break;
+            default:
+                code.load(INTERPRETER);
+                constant(expr);
+                runtime("assignGlobal", "(Ljava/lang/Object;Ljava/lang/Object;Ljava/lang/Object;)Ljava/lang/Object;");
+        }
+
+        return null;
+    }
+
+    public Void visitLogicalExpr(Expr.Logical expr) {
+        compile(expr.left);
+        compile(expr.right);
+
+        switch (expr.operator.type) {
+            case OR:
+                runtime("or", "(Ljava/lang/Object;Ljava/lang/Object;)Ljava/lang/Object;");
+                break;
+            case AND:
+                runtime("and", "(Ljava/lang/Object;Ljava/lang/Object;)Ljava/lang/Object;");
+                break;
+            default:
+                code.op(POP, -1);
+                code.op(POP, -1);
+                code.op(ACONST_NULL, 1);
+        }
+
+        return null;
+    }
+
+    public Void visitCallExpr(Expr.Call expr) {
+        List<Expr> arguments = expr.arguments;
+
+        compile(expr.callee);
+        code.load(INTERPRETER);
+        constant(expr.paren);
+        code.pushInt(arguments.size());
+        runtime("enterCall", "(Ljava/lang/Object;Ljava/lang/Object;Ljava/lang/Object;I)Ljava/lang/Object;");
+
+        String tail = "Ljava/lang/Object;Ljava/lang/Object;)Ljava/lang/Object;";
+        if(arguments.size() <= 3) {
+            StringBuilder descriptor = new StringBuilder("(Ljava/lang/Object;");
+            for(Expr argument : arguments) {
+                compile(argument);
+                descriptor.append(OBJECT);
+            }
+
+            code.load(INTERPRETER);
+            constant(expr.paren);
+            runtime("call" + arguments.size(), descriptor + tail);
+            return null;
+        }
+
+        code.pushInt(arguments.size());
+        code.type(ANEWARRAY, "java/lang/Object");
+        for(int i = 0; i < arguments.size(); i++) {
+            code.op(DUP, 1);
+            code.pushInt(i);
+            compile(arguments.get(i));
+            code.op(AASTORE, -3);
+        }
+
+        code.load(INTERPRETER);
+        constant(expr.paren);
+        runtime("callN", "(Ljava/lang/Object;[" + OBJECT + tail);
+        return null;
+    }
+
+    // Like a call, with the instance kept under the callee for invoke0..3 and invokeN.
+    public Void visitInvokeExpr(Expr.Invoke expr) {
+        List<Expr> arguments = expr.arguments;
+
+        compile(expr.object);
+        code.op(DUP, 1);
+        code.load(INTERPRETER);
+        constant(expr);
+        runtime("invokeTarget", "(Ljava/lang/Object;Ljava/lang/Object;Ljava/lang/Object;)Ljava/lang/Object;");
+        code.load(INTERPRETER);
+        constant(expr.paren);
+        code.pushInt(arguments.size());
+        runtime("enterCall", "(Ljava/lang/Object;Ljava/lang/Object;Ljava/lang/Object;I)Ljava/lang/Object;");
+
+        String tail = "Ljava/lang/Object;Ljava/lang/Object;)Ljava/lang/Object;";
+        if(arguments.size() <= 3) {
+            StringBuilder descriptor = new StringBuilder("(Ljava/lang/Object;Ljava/lang/Object;");
+            for(Expr argument : arguments) {
+                compile(argument);
+                descriptor.append(OBJECT);
+            }
+
+            code.load(INTERPRETER);
+            constant(expr);
+            runtime("invoke" + arguments.size(), descriptor + tail);
+            return null;
+        }
+
+        code.pushInt(arguments.size());
+        code.type(ANEWARRAY, "java/lang/Object");
+        for(int i = 0; i < arguments.size(); i++) {
+            code.op(DUP, 1);
+            code.pushInt(i);
+            compile(arguments.get(i));
+            code.op(AASTORE, -3);
+        }
+
+        code.load(INTERPRETER);
+        constant(expr);
+        runtime("invokeN", "(Ljava/lang/Object;Ljava/lang/Object;[" + OBJECT + tail);
+        return null;
+    }
+
+    public Void visitGetExpr(Expr.Get expr) {
+        compile(expr.object);
+        code.load(INTERPRETER);
+        constant(expr);
+        runtime("get", "(Ljava/lang/Object;Ljava/lang/Object;Ljava/lang/Object;)Ljava/lang/Object;");
+        return null;
+    }
+
+    public Void visitSetExpr(Expr.Set expr) {
+        compile(expr.object);
+        code.load(INTERPRETER);
+        constant(expr);
+        runtime("instanceToSet", "(Ljava/lang/Object;Ljava/lang/Object;Ljava/lang/Object;)Ljava/lang/Object;");
+        compile(expr.value);
+        code.load(INTERPRETER);
+        constant(expr);
+        runtime("set", "(Ljava/lang/Object;Ljava/lang/Object;Ljava/lang/Object;Ljava/lang/Object;)Ljava/lang/Object;");
+        return null;
+    }
+
+    public Void visitSuperExpr(Expr.Super expr) {
+        compile(expr.superclass);
+        compile(expr.receiver);
+        code.load(INTERPRETER);
+        constant(expr);
+        runtime("superMethod",
+                "(Ljava/lang/Object;Ljava/lang/Object;Ljava/lang/Object;Ljava/lang/Object;)Ljava/lang/Object;");
+        return null;
+    }
+
+    public Void visitHoistedExpr(Expr.Hoisted expr) {
+        ClassFile.Label done = code.label();
+
+        code.load(local(expr.slot));
+        code.op(DUP, 1);
+        code.getStatic(RUNTIME, "UNSET", OBJECT);
+        code.jump(IF_ACMPNE, done);
+        code.op(POP, -1);
+        compile(expr.expr);
+        code.op(DUP, 1);
+        code.store(local(expr.slot));
+        code.bind(done);
+        return null;
+    }
+
+    // The value is a number: leave it as a double on the stack. Otherwise jump to
+    // fallback with the value still on the stack.
+    private void unboxLocal(int slot, ClassFile.Label fallback) {
+        code.load(local(slot));
+        code.op(DUP, 1);
+        code.type(INSTANCEOF, "java/lang/Double");
+        code.jump(IFEQ, fallback);
+        code.type(CHECKCAST, "java/lang/Double");
+        code.invoke(INVOKEVIRTUAL, "java/lang/Double", "doubleValue", "()D");
+    }
+
+    public Void visitIncrementLocalExpr(Expr.IncrementLocal expr) {
+        ClassFile.Label fallback = code.label();
+        ClassFile.Label done = code.label();
+
+        unboxLocal(expr.slot, fallback);
+        code.pushDouble(expr.delta);
+        code.op(DADD, -2);
+        code.invoke(INVOKESTATIC, "java/lang/Double", "valueOf", "(D)Ljava/lang/Double;");
+        code.op(DUP, 1);
+        code.store(local(expr.slot));
+        code.jump(GOTO, done);
+
+        code.bind(fallback);
+        code.op(POP, -1);
+        compile(expr.fallback);
+        code.bind(done);
+        return null;
+    }
+
+    public Void visitCompareLocalExpr(Expr.CompareLocal expr) {
+        ClassFile.Label fallback = code.label();
+        ClassFile.Label yes = code.label();
+        ClassFile.Label done = code.label();
+
+        unboxLocal(expr.slot, fallback);
+        code.pushDouble(expr.constant);
+        // dcmpg makes a NaN compare greater and dcmpl less, so either way the
+        // comparison is false, as it is in Java.
+        switch (expr.operator.type) {
+            case LESS:
+                code.op(DCMPG, -3);
+                code.jump(IFLT, yes);
+                break;
+            case LESS_EQUAL:
+                code.op(DCMPG, -3);
+                code.jump(IFLE, yes);
+                break;
+            case GREATER:
+                code.op(DCMPL, -3);
+                code.jump(IFGT, yes);
+                break;
+            default:
+                code.op(DCMPL, -3);
+                code.jump(IFGE, yes);
+        }
+
+        code.getStatic("java/lang/Boolean", "FALSE", "Ljava/lang/Boolean;");
+        code.jump(GOTO, done);
+        code.bind(yes);
+        code.getStatic("java/lang/Boolean", "TRUE", "Ljava/lang/Boolean;");
+        code.jump(GOTO, done);
+
+        code.bind(fallback);
+        code.op(POP, -1);
+        compile(expr.fallback);
+        code.bind(done);
+        return null;
+    }
+
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        compile(stmt.expression);
+        runtime("print", "(Ljava/lang/Object;)V");
+        return null;
+    }
+
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        compile(stmt.expression);
+        code.op(POP, -1);
+        return null;
+    }
+
+    public Void visitVarStmt(Stmt.Var stmt) {
+        if(stmt.slot < 0) throw new Unsupported();
+
+        if(stmt.initializer != null) compile(stmt.initializer);
+        else code.op(ACONST_NULL, 1);
+
+        if(stmt.boxed) {
+            code.load(local(stmt.slot));
+            runtime("setCellValue", "(Ljava/lang/Object;Ljava/lang/Object;)Ljava/lang/Object;");
+            code.op(POP, -1);
+            return null;
+        }
+
+        if(stmt.captured) {
+            code.load(INTERPRETER);
+            runtime("cell", "(Ljava/lang/Object;Ljava/lang/Object;)Ljava/lang/Object;");
+        }
+
+        code.store(local(stmt.slot));
+        return null;
+    }
+
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        if(stmt.cells != null) {
+            for(int slot : stmt.cells) {
+                code.load(INTERPRETER);
+                runtime("undefinedCell", "(Ljava/lang/Object;)Ljava/lang/Object;");
+                code.store(local(slot));
+            }
+        }
+
+        for(Stmt statement : stmt.statements) {
+            compile(statement);
+        }
+
+        return null;
+    }
+
+    public Void visitIfStmt(Stmt.If stmt) {
+        ClassFile.Label otherwise = code.label();
+
+        compile(stmt.condition);
+        isTruthy();
+        code.jump(IFEQ, otherwise);
+        compile(stmt.thenBranch);
+
+        if(stmt.elseBranch == null) {
+            code.bind(otherwise);
+            return null;
+        }
+
+        ClassFile.Label done = code.label();
+        code.jump(GOTO, done);
+        code.bind(otherwise);
+        compile(stmt.elseBranch);
+        code.bind(done);
+        return null;
+    }
+
+    public Void visitWhileStmt(Stmt.While stmt) {
+        ClassFile.Label start = code.label();
+        ClassFile.Label exit = code.label();
+
+        clearHoisted(stmt);
+        code.bind(start);
+        compile(stmt.condition);
+        isTruthy();
+        code.jump(IFEQ, exit);
+        step(stmt.keyword);
+        compile(stmt.body);
+        code.jump(GOTO, start);
+        code.bind(exit);
+        return null;
+    }
+
+    public Void visitWhileLessStmt(Stmt.WhileLess stmt) {
+        Stmt.While loop = stmt.loop;
+        ClassFile.Label start = code.label();
+        ClassFile.Label fallback = code.label();
+        ClassFile.Label body = code.label();
+        ClassFile.Label exit = code.label();
+
+        clearHoisted(loop);
+        code.bind(start);
+        code.load(local(stmt.slot));
+        compile(stmt.limit);
+        runtime("below", "(Ljava/lang/Object;Ljava/lang/Object;)Ljava/lang/Object;");
+        code.op(DUP, 1);
+        code.jump(IFNULL, fallback);
+        code.type(CHECKCAST, "java/lang/Boolean");
+        code.invoke(INVOKEVIRTUAL, "java/lang/Boolean", "booleanValue", "()Z");
+        code.jump(IFEQ, exit);
+        code.jump(GOTO, body);
+
+        code.bind(fallback);
+        code.op(POP, -1);
+        compile(loop.condition);
+        isTruthy();
+        code.jump(IFEQ, exit);
+
+        code.bind(body);
+        step(loop.keyword);
+        compile(loop.body);
+        code.jump(GOTO, start);
+        code.bind(exit);
+        return null;
+    }
+
+    public Void visitFunStmt(Stmt.Fun stmt) {
+        if(stmt.slot < 0) throw new Unsupported();
+
+        // The function may capture itself, so its cell has to exist first.
+        if(stmt.captured && !stmt.boxed) {
+            code.op(ACONST_NULL, 1);
+            code.load(INTERPRETER);
+            runtime("cell", "(Ljava/lang/Object;Ljava/lang/Object;)Ljava/lang/Object;");
+            code.store(local(stmt.slot));
+        }
+
+        code.pushInt(stmt.upvalues.length);
+        runtime("newCells", "(I)[Ljava/lang/Object;");
+        for(int i = 0; i < stmt.upvalues.length; i++) {
+            int source = stmt.upvalues[i];
+            code.op(DUP, 1);
+            code.pushInt(i);
+            if(source >= 0) {
+                code.load(local(source));
+            }
+            else {
+                code.load(UPVALUES);
+                code.pushInt(-1 - source);
+                code.op(AALOAD, -1);
+            }
+            code.op(AASTORE, -3);
+        }
+
+        code.load(INTERPRETER);
+        constant(stmt);
+        runtime("closure", "([Ljava/lang/Object;Ljava/lang/Object;Ljava/lang/Object;)Ljava/lang/Object;");
+
+        if(stmt.captured) {
+            code.load(local(stmt.slot));
+            runtime("setCellValue", "(Ljava/lang/Object;Ljava/lang/Object;)Ljava/lang/Object;");
+            code.op(POP, -1);
+        }
+        else {
+            code.store(local(stmt.slot));
+        }
+
+        return null;
+    }
+
+    // Rare enough inside a function to leave to the tree-walker.
+    public Void visitClassStmt(Stmt.Class stmt) {
+        throw new Unsupported();
+    }
+
+    // A function the debugger has put traps in stays with the tree-walker.
+    public Void visitTrapStmt(Stmt.Trap stmt) {
+        throw new Unsupported();
+    }
+
+    public Void visitCountStmt(Stmt.Count stmt) {
+        constant(stmt.counters);
+        code.pushInt(stmt.id);
+        runtime("count", "(Ljava/lang/Object;I)V");
+        compile(stmt.stmt);
+        return null;
+    }
+
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        if(stmt.Value != null) compile(stmt.Value);
+        else code.op(ACONST_NULL, 1);
+
+        code.op(ARETURN, -1);
+        return null;
+    }
+}
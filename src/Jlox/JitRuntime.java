@@ -0,0 +1,413 @@
+package Jlox;
+
+import java.util.Arrays;
+
+// What the classes JitCompiler generates call into. They are defined by a class
+// loader of their own, so they can only see public members; everything they pass
+// is typed Object and cast back here. Each helper does what the Interpreter's
+// visit method for the same node does, with the same errors at the same tokens,
+// and is small enough for HotSpot to inline into the generated code.
+public final class JitRuntime {
+    public static final Object UNSET = Interpreter.UNSET;
+
+    private JitRuntime() {
+    }
+
+    // Called from a generated class's static initializer for its constants.
+    public static Object[] constants(Class<?> compiled) {
+        return ((JitCompiler.Loader) compiled.getClassLoader()).constants;
+    }
+
+    public static boolean isTruthy(Object object) {
+        if(object == null) return false;
+        if(object instanceof Boolean) return (boolean) object;
+
+        return true;
+    }
+
+    private static boolean isEqual(Object left, Object right) {
+        if(left == null && right == null) return true;
+        if(left == null) return false;
+
+        return left.equals(right);
+    }
+
+    private static void checkNumberOperands(Object operator, Object left, Object right) {
+        if(left instanceof Double && right instanceof Double) return;
+        throw new RuntimeError((Token) operator, "Operands must be number");
+    }
+
+    public static Object negate(Object right, Object operator) {
+        if(!(right instanceof Double)) throw new RuntimeError((Token) operator, "Operand must be a number");
+        return -(double) right;
+    }
+
+    public static Object not(Object right) {
+        return !isTruthy(right);
+    }
+
+    public static Object subtract(Object left, Object right, Object operator) {
+        checkNumberOperands(operator, left, right);
+        return (double) left - (double) right;
+    }
+
+    public static Object divide(Object left, Object right, Object operator) {
+        checkNumberOperands(operator, left, right);
+        if((double) right == 0) throw new RuntimeError((Token) operator, "Division by zero not allowed");
+        return (double) left / (double) right;
+    }
+
+    public static Object multiply(Object left, Object right, Object operator) {
+        checkNumberOperands(operator, left, right);
+        return (double) left * (double) right;
+    }
+
+    public static Object add(Object left, Object right, Object operator, Object interpreter) {
+        if(left instanceof Double && right instanceof Double) return (double) left + (double) right;
+
+        Interpreter in = (Interpreter) interpreter;
+        Token token = (Token) operator;
+        if(left instanceof String && right instanceof String) return in.concatenate((String) left, (String) right, token);
+        if(left instanceof String && right instanceof Double) {
+            return in.concatenate((String) left, Interpreter.stringify(right), token);
+        }
+        if(left instanceof Double && right instanceof String) {
+            return in.concatenate(Interpreter.stringify(left), (String) right, token);
+        }
+
+        throw new RuntimeError(token, "Operand must be numbers or strings");
+    }
+
+    public static Object greater(Object left, Object right, Object operator) {
+        checkNumberOperands(operator, left, right);
+        return (double) left > (double) right;
+    }
+
+    public static Object greaterEqual(Object left, Object right, Object operator) {
+        checkNumberOperands(operator, left, right);
+        return (double) left >= (double) right;
+    }
+
+    public static Object less(Object left, Object right, Object operator) {
+        checkNumberOperands(operator, left, right);
+        return (double) left < (double) right;
+    }
+
+    public static Object lessEqual(Object left, Object right, Object operator) {
+        checkNumberOperands(operator, left, right);
+        return (double) left <= (double) right;
+    }
+
+    public static Object equal(Object left, Object right) {
+        return isEqual(left, right);
+    }
+
+    public static Object notEqual(Object left, Object right) {
+        return !isEqual(left, right);
+    }
+
+    // Logical evaluates both operands before it looks at either.
+    public static Object or(Object left, Object right) {
+        if(isTruthy(left)) return left;
+        if(isTruthy(right)) return right;
+        return left;
+    }
+
+    public static Object and(Object left, Object right) {
+        if(!isTruthy(left)) return left;
+        return right;
+    }
+
+    // For WhileLess: whether value < limit, or null when they are not both numbers.
+    public static Object below(Object value, Object limit) {
+        if(value instanceof Double && limit instanceof Double) return (double) value < (double) limit;
+        return null;
+    }
+
+    public static void print(Object value) {
+        System.out.println(Interpreter.stringify(value));
+    }
+
+    public static void step(Object interpreter, Object keyword) {
+        ((Interpreter) interpreter).step((Token) keyword);
+    }
+
+    public static void count(Object counters, int id) {
+        ((long[]) counters)[id]++;
+    }
+
+    // Variables.
+
+    public static Object cell(Object value, Object interpreter) {
+        return new Cell(value, (Interpreter) interpreter);
+    }
+
+    public static Object cellValue(Object cell) {
+        return ((Cell) cell).value;
+    }
+
+    public static Object setCellValue(Object value, Object cell) {
+        ((Cell) cell).value = value;
+        return value;
+    }
+
+    public static Object upvalue(Object[] upvalues, int slot) {
+        return ((Cell) upvalues[slot]).value;
+    }
+
+    public static Object assignUpvalue(Object value, Object interpreter, Object[] upvalues, int slot, Object name) {
+        ((Interpreter) interpreter).assignUpvalue((Cell) upvalues[slot], (Token) name, value);
+        return value;
+    }
+
+    public static Object undefinedCell(Object interpreter) {
+        return new Cell(Cell.UNDEFINED, (Interpreter) interpreter);
+    }
+
+    public static Object lateValue(Object interpreter, Object[] upvalues, int slot, Object name) {
+        return ((Interpreter) interpreter).lateValue((Cell) upvalues[slot], (Token) name);
+    }
+
+    public static Object assignLate(Object value, Object interpreter, Object[] upvalues, int slot, Object name) {
+        ((Interpreter) interpreter).assignLate((Cell) upvalues[slot], (Token) name, value);
+        return value;
+    }
+
+    public static Object global(Object interpreter, Object variable) {
+        return ((Interpreter) interpreter).visitVariableExpr((Expr.Variable) variable);
+    }
+
+    public static Object assignGlobal(Object value, Object interpreter, Object assign) {
+        ((Interpreter) interpreter).assignGlobal((Expr.Assign) assign, value);
+        return value;
+    }
+
+    // Properties.
+
+    public static Object get(Object object, Object interpreter, Object get) {
+        return ((Interpreter) interpreter).getProperty(object, (Expr.Get) get);
+    }
+
+    public static Object instanceToSet(Object object, Object interpreter, Object set) {
+        return ((Interpreter) interpreter).instanceToSet(object, (Expr.Set) set);
+    }
+
+    public static Object set(Object instance, Object value, Object interpreter, Object set) {
+        ((Interpreter) interpreter).setProperty((LoxInstance) instance, (Expr.Set) set, value);
+        return value;
+    }
+
+    public static Object superMethod(Object superclass, Object receiver, Object interpreter, Object expr) {
+        return ((Interpreter) interpreter).superMethod(superclass, receiver, (Expr.Super) expr);
+    }
+
+    // Closures.
+
+    public static Object[] newCells(int count) {
+        return count == 0 ? Interpreter.NO_UPVALUES : new Cell[count];
+    }
+
+    public static Object closure(Object[] cells, Object interpreter, Object declaration) {
+        Stmt.Fun fun = (Stmt.Fun) declaration;
+        ((Interpreter) interpreter).allocate(1 + cells.length, fun.name);
+        return new LoxFunction(fun, (Cell[]) cells);
+    }
+
+    // Calls. enterCall runs between evaluating the callee and the arguments, as
+    // Interpreter.visitCallExpr does, and returns the callee.
+
+    public static Object enterCall(Object callee, Object interpreter, Object paren, int argumentCount) {
+        Interpreter in = (Interpreter) interpreter;
+        Token token = (Token) paren;
+        in.step(token);
+
+        if(callee instanceof LoxFunction && ((LoxFunction) callee).arity() == argumentCount) {
+            in.allocate(((LoxFunction) callee).frameSize(), token);
+        }
+
+        return callee;
+    }
+
+    public static Object call0(Object callee, Object interpreter, Object paren) {
+        Interpreter in = (Interpreter) interpreter;
+        if(callee instanceof LoxFunction && ((LoxFunction) callee).arity() == 0) {
+            LoxFunction function = (LoxFunction) callee;
+            return in.invoke(function, in.acquireFrame(function.frameSize()), (Token) paren);
+        }
+
+        if(callee instanceof LoxCallable && ((LoxCallable) callee).arity() == 0) {
+            try {
+                return ((LoxCallable) callee).call0(in);
+            }
+            catch (NativeFunction.ArgumentError e) {
+                throw new RuntimeError((Token) paren, e.getMessage());
+            }
+        }
+
+        return callN(callee, new Object[0], interpreter, paren);
+    }
+
+    public static Object call1(Object callee, Object a, Object interpreter, Object paren) {
+        Interpreter in = (Interpreter) interpreter;
+        if(callee instanceof LoxFunction && ((LoxFunction) callee).arity() == 1) {
+            LoxFunction function = (LoxFunction) callee;
+            Object[] frame = in.acquireFrame(function.frameSize());
+            frame[0] = a;
+            return in.invoke(function, frame, (Token) paren);
+        }
+
+        if(callee instanceof LoxCallable && ((LoxCallable) callee).arity() == 1) {
+            try {
+                return ((LoxCallable) callee).call1(in, a);
+            }
+            catch (NativeFunction.ArgumentError e) {
+                throw new RuntimeError((Token) paren, e.getMessage());
+            }
+        }
+
+        return callN(callee, new Object[] {a}, interpreter, paren);
+    }
+
+    public static Object call2(Object callee, Object a, Object b, Object interpreter, Object paren) {
+        Interpreter in = (Interpreter) interpreter;
+        if(callee instanceof LoxFunction && ((LoxFunction) callee).arity() == 2) {
+            LoxFunction function = (LoxFunction) callee;
+            Object[] frame = in.acquireFrame(function.frameSize());
+            frame[0] = a;
+            frame[1] = b;
+            return in.invoke(function, frame, (Token) paren);
+        }
+
+        if(callee instanceof LoxCallable && ((LoxCallable) callee).arity() == 2) {
+            try {
+                return ((LoxCallable) callee).call2(in, a, b);
+            }
+            catch (NativeFunction.ArgumentError e) {
+                throw new RuntimeError((Token) paren, e.getMessage());
+            }
+        }
+
+        return callN(callee, new Object[] {a, b}, interpreter, paren);
+    }
+
+    public static Object call3(Object callee, Object a, Object b, Object c, Object interpreter, Object paren) {
+        Interpreter in = (Interpreter) interpreter;
+        if(callee instanceof LoxFunction && ((LoxFunction) callee).arity() == 3) {
+            LoxFunction function = (LoxFunction) callee;
+            Object[] frame = in.acquireFrame(function.frameSize());
+            frame[0] = a;
+            frame[1] = b;
+            frame[2] = c;
+            return in.invoke(function, frame, (Token) paren);
+        }
+
+        if(callee instanceof LoxCallable && ((LoxCallable) callee).arity() == 3) {
+            try {
+                return ((LoxCallable) callee).call3(in, a, b, c);
+            }
+            catch (NativeFunction.ArgumentError e) {
+                throw new RuntimeError((Token) paren, e.getMessage());
+            }
+        }
+
+        return callN(callee, new Object[] {a, b, c}, interpreter, paren);
+    }
+
+    // Method calls. invokeTarget runs before enterCall, and the invoke helpers
+    // get the instance along with what invokeTarget found.
+
+    public static Object invokeTarget(Object object, Object interpreter, Object invoke) {
+        return ((Interpreter) interpreter).invokeTarget(object, (Expr.Invoke) invoke);
+    }
+
+    // The method to run on the instance directly, or null to call target as a value.
+    private static LoxFunction method(Object target, int argumentCount) {
+        if(!(target instanceof LoxFunction)) return null;
+
+        LoxFunction function = (LoxFunction) target;
+        return function.unbound() && function.arity() == argumentCount ? function : null;
+    }
+
+    public static Object invoke0(Object object, Object target, Object interpreter, Object invoke) {
+        Interpreter in = (Interpreter) interpreter;
+        Token paren = ((Expr.Invoke) invoke).paren;
+        LoxFunction method = method(target, 0);
+        if(method == null) return call0(target, interpreter, paren);
+
+        return in.invoke(method, in.acquireFrame(method.frameSize()), (LoxInstance) object, paren);
+    }
+
+    public static Object invoke1(Object object, Object target, Object a, Object interpreter, Object invoke) {
+        Interpreter in = (Interpreter) interpreter;
+        Token paren = ((Expr.Invoke) invoke).paren;
+        LoxFunction method = method(target, 1);
+        if(method == null) return call1(target, a, interpreter, paren);
+
+        Object[] frame = in.acquireFrame(method.frameSize());
+        frame[0] = a;
+        return in.invoke(method, frame, (LoxInstance) object, paren);
+    }
+
+    public static Object invoke2(Object object, Object target, Object a, Object b, Object interpreter,
+                                 Object invoke) {
+        Interpreter in = (Interpreter) interpreter;
+        Token paren = ((Expr.Invoke) invoke).paren;
+        LoxFunction method = method(target, 2);
+        if(method == null) return call2(target, a, b, interpreter, paren);
+
+        Object[] frame = in.acquireFrame(method.frameSize());
+        frame[0] = a;
+        frame[1] = b;
+        return in.invoke(method, frame, (LoxInstance) object, paren);
+    }
+
+    public static Object invoke3(Object object, Object target, Object a, Object b, Object c, Object interpreter,
+                                 Object invoke) {
+        Interpreter in = (Interpreter) interpreter;
+        Token paren = ((Expr.Invoke) invoke).paren;
+        LoxFunction method = method(target, 3);
+        if(method == null) return call3(target, a, b, c, interpreter, paren);
+
+        Object[] frame = in.acquireFrame(method.frameSize());
+        frame[0] = a;
+        frame[1] = b;
+        frame[2] = c;
+        return in.invoke(method, frame, (LoxInstance) object, paren);
+    }
+
+    public static Object invokeN(Object object, Object target, Object[] arguments, Object interpreter, Object invoke) {
+        Interpreter in = (Interpreter) interpreter;
+        Token paren = ((Expr.Invoke) invoke).paren;
+        LoxFunction method = method(target, arguments.length);
+        if(method == null) return callN(target, arguments, interpreter, paren);
+
+        Object[] frame = in.acquireFrame(method.frameSize());
+        System.arraycopy(arguments, 0, frame, 0, arguments.length);
+        return in.invoke(method, frame, (LoxInstance) object, paren);
+    }
+
+    public static Object callN(Object callee, Object[] arguments, Object interpreter, Object paren) {
+        Interpreter in = (Interpreter) interpreter;
+        Token token = (Token) paren;
+        if(!(callee instanceof LoxCallable)) throw new RuntimeError(token, "Can only call functions and classes.");
+
+        LoxCallable function = (LoxCallable) callee;
+        if(arguments.length != function.arity()) {
+            throw new RuntimeError(token, "Expected " + function.arity() + " arguments but got " + arguments.length);
+        }
+
+        if(function instanceof LoxFunction) {
+            LoxFunction lox = (LoxFunction) function;
+            Object[] frame = in.acquireFrame(lox.frameSize());
+            System.arraycopy(arguments, 0, frame, 0, arguments.length);
+            return in.invoke(lox, frame, token);
+        }
+
+        try {
+            return function.call(in, Arrays.asList(arguments));
+        }
+        catch (NativeFunction.ArgumentError e) {
+            throw new RuntimeError(token, e.getMessage());
+        }
+    }
+}
@@ -3,77 +3,287 @@ package Jlox;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.List;
 
 public class Lox {
 
-    static boolean hadError  = false;
-    static boolean hadRuntimeError = false;
-
     private static Interpreter interpreter = new Interpreter();
+    private static Optimizer optimizer = null;
+    // "stdin", or the local port a debugger connects to; null when not debugging.
+    private static String debug = null;
+    // Where the LCOV report for --coverage goes; null when not counting.
+    private static String coverageFile = null;
+
+    private Coverage coverage = null;
 
     public static void main(String[] args) throws IOException {
 
         Lox lox = new Lox();
 
-        if(args.length < 1) {
+        long maxSteps = Governor.UNLIMITED;
+        long timeout = Governor.UNLIMITED;
+        long maxAllocation = Governor.UNLIMITED;
+        String image = null;
+
+        int arg = 0;
+        while(arg < args.length && args[arg].startsWith("-")) {
+            String option = args[arg++];
+
+            if(option.equals("-O")) {
+                optimizer = new Optimizer();
+                continue;
+            }
+
+            if(arg == args.length) usage();
+            String value = args[arg++];
+
+            switch (option) {
+                case "--max-steps":
+                    maxSteps = parseLimit(value);
+                    break;
+                case "--timeout":
+                    timeout = parseLimit(value);
+                    break;
+                case "--max-alloc":
+                    maxAllocation = parseLimit(value);
+                    break;
+                case "--jit-threshold":
+                    interpreter.jitThreshold = (int) Math.min(parseLimit(value), Integer.MAX_VALUE);
+                    break;
+                case "--image":
+                    image = value;
+                    break;
+                case "--debug":
+                    debug = value;
+                    break;
+                case "--coverage":
+                    coverageFile = value;
+                    break;
+                case "--snapshot":
+                    // jlox --snapshot <image> <prelude.lox>...
+                    interpreter.setGovernor(new Governor(maxSteps, timeout, maxAllocation));
+                    if(optimizer != null && args.length - arg > 1) optimizer.openWorld();
+                    for(; arg < args.length; arg++) {
+                        lox.runFile(args[arg]);
+                    }
+
+                    try {
+                        Snapshot.save(interpreter.globals, Paths.get(value));
+                    }
+                    catch (IOException e) {
+                        System.err.println("Cannot write snapshot " + value + ": " + e.getMessage());
+                        System.exit(74);
+                    }
+                    return;
+                case "--check":
+                    // jlox --check <dir or file>...
+                    List<Path> roots = new ArrayList<>();
+                    roots.add(Paths.get(value));
+                    for(; arg < args.length; arg++) {
+                        roots.add(Paths.get(args[arg]));
+                    }
+
+                    System.exit(Checker.check(roots));
+                    return;
+                default:
+                    usage();
+            }
+        }
+
+        if(image != null) {
+            try {
+                interpreter.restoreGlobals(Snapshot.load(Paths.get(image)));
+            }
+            catch (IOException e) {
+                System.err.println("Cannot read snapshot " + image + ": " + e.getMessage());
+                System.exit(74);
+                return;
+            }
+            if(optimizer != null) optimizer.openWorld();
+        }
+
+        interpreter.setGovernor(new Governor(maxSteps, timeout, maxAllocation));
+
+        if(arg == args.length && coverageFile == null) {
+            if(optimizer != null) optimizer.openWorld();
             lox.runPrompt();
         }
-        else if(args.length == 1) {
-            lox.runFile(args[0]);
+        else if(arg == args.length - 1) {
+            lox.runFile(args[arg]);
+        }
+        else {
+            usage();
+        }
+
+    }
+
+    private static void usage() {
+        System.err.println("Usage: jlox [-O] [--max-steps <n>] [--timeout <ms>] [--max-alloc <n>]");
+        System.err.println("            [--jit-threshold <calls>] [--image <image>] [--debug stdin|<port>]");
+        System.err.println("            [--coverage <file.info>]");
+        System.err.println("            [script | --snapshot <image> <prelude.lox>... | --check <path>...]");
+        System.exit(64);
+    }
+
+    private static long parseLimit(String value) {
+        try {
+            long limit = Long.parseLong(value);
+            if(limit >= 0) return limit;
+        }
+        catch (NumberFormatException e) {
         }
 
+        usage();
+        return 0;
     }
 
     private void runPrompt() throws IOException {
         InputStreamReader inputStreamReader = new InputStreamReader(System.in);
         BufferedReader bufferedReader = new BufferedReader(inputStreamReader);
 
+        // One entry is the lines typed until every brace and parenthesis is closed.
+        // Each line is appended as an edit, so only the unfinished statement at the
+        // end is scanned and parsed again.
+        IncrementalParser entry = new IncrementalParser("");
         while (true) {
-            System.out.print("> ");
-            run(bufferedReader.readLine());
+            System.out.print(entry.length() == 0 ? "> " : "... ");
+            String line = bufferedReader.readLine();
+            if(line == null) {
+                if(entry.length() > 0) runEntry(entry);
+                break;
+            }
+
+            entry.edit(entry.length(), 0, line + "\n");
+            if(entry.unfinished()) continue;
+
+            runEntry(entry);
+            entry = new IncrementalParser("");
+        }
+
+    }
+
+    private void runEntry(IncrementalParser entry) throws IOException {
+        Diagnostics diagnostics = entry.diagnostics();
+        if(!diagnostics.hadError()) {
+            LoxModule module = resolve(entry.statements(), diagnostics);
+            if(module != null) run(module, diagnostics);
         }
 
+        diagnostics.report(System.err);
     }
 
     private void runFile(String path) throws IOException {
-        byte[] bytes = Files.readAllBytes(Paths.get(path));
-        run(new String(bytes, Charset.defaultCharset()));
+        Diagnostics diagnostics = new Diagnostics();
+        if(LoxModule.isModule(path)) {
+            run(LoxModule.load(Paths.get(path)), diagnostics);
+        }
+        else {
+            byte[] bytes = Files.readAllBytes(Paths.get(path));
+            run(new String(bytes, Charset.defaultCharset()), diagnostics);
+        }
+
+        boolean hadError = diagnostics.hadError();
+        boolean hadRuntimeError = diagnostics.hadRuntimeError();
+        diagnostics.report(System.err);
+
+        if(coverage != null) {
+            coverage.report(Paths.get(path).toAbsolutePath().toString(), Paths.get(coverageFile));
+            coverage = null;
+        }
 
         if(hadError) System.exit(65);
         if(hadRuntimeError) System.exit(70);
 
     }
 
-    private void run(String source) {
-        Scanner scanner = new Scanner(source);
-        List<Token> tokens = scanner.scanTokens();
+    private void run(String source, Diagnostics diagnostics) throws IOException {
+        LoxModule module = compile(source, diagnostics);
+        if(module != null) run(module, diagnostics);
+    }
 
-        Parser parser = new Jlox.Parser(tokens);
-        List<Stmt> stmts = parser.parse();
+    private void run(LoxModule module, Diagnostics diagnostics) throws IOException {
+        if(debug != null) {
+            debug(module, diagnostics);
+            return;
+        }
 
-        if(hadError) return;
+        int slotCount = module.slotCount;
+        if(optimizer != null) slotCount = optimizer.optimize(module.statements, slotCount);
 
-//        System.out.println(new AstPrinter().print(expr));
+        // Counters go in after the optimizer, so they count the statements that run.
+        if(coverageFile != null) {
+            coverage = new Coverage();
+            coverage.instrument(module.statements);
+        }
 
-        interpreter.interpret(stmts);
+        interpreter.interpret(module.statements, slotCount, diagnostics);
     }
 
-    static void error(int line, String message) {
-        report(line, "", message);
+    // Runs unoptimized and uncompiled, so that every statement is where the
+    // Debugger expects it.
+    private void debug(LoxModule module, Diagnostics diagnostics) throws IOException {
+        interpreter.jitThreshold = 0;
+
+        if(debug.equals("stdin")) {
+            debug(module, diagnostics, new BufferedReader(new InputStreamReader(System.in)), System.out);
+            return;
+        }
+
+        int port;
+        try {
+            port = Integer.parseInt(debug);
+        }
+        catch (NumberFormatException e) {
+            usage();
+            return;
+        }
+
+        try (ServerSocket server = new ServerSocket(port, 1, InetAddress.getLoopbackAddress())) {
+            System.err.println("Waiting for a debugger on port " + server.getLocalPort());
+            try (Socket socket = server.accept()) {
+                debug(module, diagnostics, new BufferedReader(new InputStreamReader(socket.getInputStream())),
+                        new PrintStream(socket.getOutputStream(), true));
+            }
+        }
+    }
+
+    private void debug(LoxModule module, Diagnostics diagnostics, BufferedReader in, PrintStream out)
+            throws IOException {
+        Debugger debugger = new Debugger(module.statements, in, out);
+        interpreter.debugger = debugger;
+
+        debugger.start();
+        interpreter.interpret(module.statements, module.slotCount, diagnostics);
+        debugger.exited();
     }
 
-    static void report(int line, String where, String message) {
-        System.err.println("Line [" + line + "] Error " + where + ": " + message);
-        hadError = true;
+    // Scans, parses and resolves source, collecting every error from the three in
+    // diagnostics; null if there were any.
+    static LoxModule compile(String source, Diagnostics diagnostics) {
+        Scanner scanner = new Scanner(source, diagnostics);
+        List<Token> tokens = scanner.scanTokens();
+
+        Parser parser = new Jlox.Parser(tokens, diagnostics);
+        List<Stmt> stmts = parser.parseParallel();
+
+        return resolve(stmts, diagnostics);
     }
 
-    static void runtimeError(RuntimeError e) {
-        System.err.println(e.getMessage() + " \nLine " + e.token.line + " ]");
-        hadRuntimeError = true;
+    // The rest of compile, for statements parsed some other way.
+    static LoxModule resolve(List<Stmt> stmts, Diagnostics diagnostics) {
+        int slotCount = new Resolver(diagnostics).resolve(stmts);
+        if(diagnostics.hadError()) return null;
+
+        return new LoxModule(stmts, slotCount);
     }
 
 
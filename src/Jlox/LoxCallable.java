@@ -1,5 +1,6 @@
 package Jlox;
 
+import java.util.Arrays;
 import java.util.List;
 
 public interface LoxCallable {
@@ -8,4 +9,22 @@ public interface LoxCallable {
     int arity();
     String toString();
 
+    // Arity-specialised entry points used by visitCallExpr once the arity has been
+    // checked. Callables that can take their arguments directly override these.
+    default Object call0(Interpreter interpreter) {
+        return call(interpreter, Arrays.asList());
+    }
+
+    default Object call1(Interpreter interpreter, Object a) {
+        return call(interpreter, Arrays.asList(a));
+    }
+
+    default Object call2(Interpreter interpreter, Object a, Object b) {
+        return call(interpreter, Arrays.asList(a, b));
+    }
+
+    default Object call3(Interpreter interpreter, Object a, Object b, Object c) {
+        return call(interpreter, Arrays.asList(a, b, c));
+    }
+
 }
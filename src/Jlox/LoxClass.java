@@ -0,0 +1,105 @@
+package Jlox;
+
+import java.io.Serializable;
+import java.util.List;
+import java.util.Map;
+
+// Calling a class makes an instance and runs its init method, if it has one, on
+// the arguments.
+class LoxClass implements LoxCallable, Serializable {
+    private static final long serialVersionUID = Snapshot.VERSION;
+
+    final String name;
+    final LoxClass superclass;
+    private final Map<String, LoxFunction> methods;
+    private final LoxFunction initializer;
+    // The shape new instances start on.
+    final Shape shape;
+
+    LoxClass(String name, LoxClass superclass, Map<String, LoxFunction> methods) {
+        this.name = name;
+        this.superclass = superclass;
+        this.methods = methods;
+        this.initializer = findMethod("init");
+        this.shape = new Shape(this);
+    }
+
+    LoxFunction findMethod(String name) {
+        LoxFunction method = methods.get(name);
+        if(method == null && superclass != null) return superclass.findMethod(name);
+
+        return method;
+    }
+
+    private LoxInstance instantiate(Interpreter interpreter) {
+        interpreter.allocate(1);
+        return new LoxInstance(this, interpreter);
+    }
+
+    // Runs init on the instance in frame, whose first slots hold the arguments.
+    private Object initialize(Interpreter interpreter, LoxInstance instance, Object[] frame) {
+        initializer.invoke(interpreter, frame, instance);
+        return instance;
+    }
+
+    private Object[] frame(Interpreter interpreter) {
+        return interpreter.acquireFrame(initializer.frameSize());
+    }
+
+    public Object call(Interpreter interpreter, List<Object> args) {
+        LoxInstance instance = instantiate(interpreter);
+        if(initializer == null) return instance;
+
+        Object[] frame = frame(interpreter);
+        for(int i = 0; i < args.size(); i++) {
+            frame[i] = args.get(i);
+        }
+
+        return initialize(interpreter, instance, frame);
+    }
+
+    public Object call0(Interpreter interpreter) {
+        LoxInstance instance = instantiate(interpreter);
+        if(initializer == null) return instance;
+
+        return initialize(interpreter, instance, frame(interpreter));
+    }
+
+    public Object call1(Interpreter interpreter, Object a) {
+        LoxInstance instance = instantiate(interpreter);
+        if(initializer == null) return instance;
+
+        Object[] frame = frame(interpreter);
+        frame[0] = a;
+        return initialize(interpreter, instance, frame);
+    }
+
+    public Object call2(Interpreter interpreter, Object a, Object b) {
+        LoxInstance instance = instantiate(interpreter);
+        if(initializer == null) return instance;
+
+        Object[] frame = frame(interpreter);
+        frame[0] = a;
+        frame[1] = b;
+        return initialize(interpreter, instance, frame);
+    }
+
+    public Object call3(Interpreter interpreter, Object a, Object b, Object c) {
+        LoxInstance instance = instantiate(interpreter);
+        if(initializer == null) return instance;
+
+        Object[] frame = frame(interpreter);
+        frame[0] = a;
+        frame[1] = b;
+        frame[2] = c;
+        return initialize(interpreter, instance, frame);
+    }
+
+    public int arity() {
+        return initializer == null ? 0 : initializer.arity();
+    }
+
+    public String toString() {
+        return name;
+    }
+}
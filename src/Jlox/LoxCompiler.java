@@ -0,0 +1,41 @@
+package Jlox;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+// jloxc: compiles a script ahead of time into a module (see LoxModule) that jlox
+// runs without scanning, parsing or resolving it again.
+//
+//   jloxc [-O] <script.lox> [<module.loxc>]
+public class LoxCompiler {
+
+    public static void main(String[] args) throws IOException {
+        boolean optimize = args.length >= 1 && args[0].equals("-O");
+        if(optimize) args = Arrays.copyOfRange(args, 1, args.length);
+
+        if(args.length < 1 || args.length > 2) {
+            System.err.println("Usage: jloxc [-O] <script.lox> [<module.loxc>]");
+            System.exit(64);
+        }
+
+        String input = args[0];
+        String output = args.length == 2 ? args[1] : input.replaceFirst("\\.lox$", "") + LoxModule.EXTENSION;
+
+        String source = new String(Files.readAllBytes(Paths.get(input)), Charset.defaultCharset());
+        Diagnostics diagnostics = new Diagnostics();
+        LoxModule module = Lox.compile(source, diagnostics);
+        if(module == null) {
+            diagnostics.report(System.err);
+            System.exit(65);
+        }
+
+        if(optimize) {
+            module = new LoxModule(module.statements, new Optimizer().optimize(module.statements, module.slotCount));
+        }
+
+        module.write(Paths.get(output));
+    }
+}
@@ -1,32 +1,131 @@
 package Jlox;
 
+import java.io.Serializable;
 import java.util.List;
 
-public class LoxFunction implements LoxCallable {
+public class LoxFunction implements LoxCallable, Serializable {
+    private static final long serialVersionUID = Snapshot.VERSION;
 
     private final Stmt.Fun declaration;
-    private final Environment closure;
+    private final Cell[] upvalues;
+    // For methods: the instance this one is bound to and the class super refers
+    // to, passed in the slots the Resolver put after the parameters.
+    private final LoxInstance receiver;
+    private final LoxClass superclass;
+    private final boolean initializer;
 
-    LoxFunction(Stmt.Fun declaration, Environment environment) {
+    LoxFunction(Stmt.Fun declaration, Cell[] upvalues) {
+        this(declaration, upvalues, null, null);
+    }
+
+    LoxFunction(Stmt.Fun declaration, Cell[] upvalues, LoxClass superclass) {
+        this(declaration, upvalues, null, superclass);
+    }
+
+    private LoxFunction(Stmt.Fun declaration, Cell[] upvalues, LoxInstance receiver, LoxClass superclass) {
         this.declaration = declaration;
-        this.closure     = environment;
+        this.upvalues    = upvalues;
+        this.receiver    = receiver;
+        this.superclass  = superclass;
+        this.initializer = declaration.thisSlot >= 0 && declaration.name.lexeme.equals("init");
     }
 
-    public Object call(Interpreter interpreter, List<Object> args) {
-        Environment environment = new Environment(closure);
+    LoxFunction bind(LoxInstance instance) {
+        return new LoxFunction(declaration, upvalues, instance, superclass);
+    }
 
-        for(int i = 0; i < declaration.params.size(); i++) {
-            environment.define(declaration.params.get(i).lexeme, args.get(i));
+    // A method as a class holds it, before it is bound to an instance.
+    boolean unbound() {
+        return receiver == null && declaration.thisSlot >= 0;
+    }
+
+    Stmt.Fun declaration() {
+        return declaration;
+    }
+
+    Cell[] upvalues() {
+        return upvalues;
+    }
+
+    int frameSize() {
+        return declaration.slotCount;
+    }
+
+    // Runs the body in a frame taken from interpreter.acquireFrame(frameSize()) whose
+    // first arity() slots hold the arguments, and hands the frame back afterwards.
+    // An initializer always returns its instance.
+    Object invoke(Interpreter interpreter, Object[] frame) {
+        return invoke(interpreter, frame, receiver);
+    }
+
+    // Runs a method on receiver without binding it first.
+    Object invoke(Interpreter interpreter, Object[] frame, LoxInstance receiver) {
+        int self = declaration.thisSlot;
+        if(self >= 0) {
+            frame[self] = receiver;
+            frame[self + 1] = superclass;
+        }
+
+        for(int slot : declaration.capturedParams) {
+            frame[slot] = new Cell(frame[slot], interpreter);
         }
+        if(declaration.cells != null) interpreter.makeCells(declaration.cells, frame);
 
+        CompiledFunction compiled = declaration.compiled;
+        if(compiled == null && interpreter.jitThreshold > 0 && ++declaration.calls == interpreter.jitThreshold) {
+            compiled = JitCompiler.compile(declaration);
+            declaration.compiled = compiled;
+        }
+
+        Object value = null;
         try {
-            interpreter.executeBlock(declaration.body, environment);
+            if(compiled != null) value = compiled.run(interpreter, frame, upvalues);
+            else interpreter.executeBody(declaration.body, frame, upvalues);
         }
         catch (Return returnValue) {
-            return returnValue.value;
+            value = returnValue.value;
+            returnValue.value = null;
+        }
+        finally {
+            interpreter.releaseFrame(declaration.slotCount);
+        }
+
+        return initializer ? receiver : value;
+    }
+
+    public Object call(Interpreter interpreter, List<Object> args) {
+        Object[] frame = interpreter.acquireFrame(declaration.slotCount);
+
+        for(int i = 0; i < declaration.params.size(); i++) {
+            frame[i] = args.get(i);
         }
 
-        return null;
+        return invoke(interpreter, frame);
+    }
+
+    public Object call0(Interpreter interpreter) {
+        return invoke(interpreter, interpreter.acquireFrame(declaration.slotCount));
+    }
+
+    public Object call1(Interpreter interpreter, Object a) {
+        Object[] frame = interpreter.acquireFrame(declaration.slotCount);
+        frame[0] = a;
+        return invoke(interpreter, frame);
+    }
+
+    public Object call2(Interpreter interpreter, Object a, Object b) {
+        Object[] frame = interpreter.acquireFrame(declaration.slotCount);
+        frame[0] = a;
+        frame[1] = b;
+        return invoke(interpreter, frame);
+    }
+
+    public Object call3(Interpreter interpreter, Object a, Object b, Object c) {
+        Object[] frame = interpreter.acquireFrame(declaration.slotCount);
+        frame[0] = a;
+        frame[1] = b;
+        frame[2] = c;
+        return invoke(interpreter, frame);
     }
 
     public int arity() {
@@ -0,0 +1,34 @@
+package Jlox;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+// An instance keeps only its values; which field is at which index is in its
+// Shape. The owner is the Interpreter that created it (see Interpreter.owns).
+class LoxInstance implements Serializable {
+    private static final long serialVersionUID = Snapshot.VERSION;
+
+    private static final Object[] NO_FIELDS = new Object[0];
+
+    Shape shape;
+    Object[] fields = NO_FIELDS;
+    final transient Interpreter owner;
+
+    LoxInstance(LoxClass klass, Interpreter owner) {
+        this.shape = klass.shape;
+        this.owner = owner;
+    }
+
+    // Moves to next, the shape with one more field, whose value goes at index.
+    void addField(Shape next, int index, Object value) {
+        if(index == fields.length) fields = Arrays.copyOf(fields, Math.max(4, index * 2));
+
+        fields[index] = value;
+        shape = next;
+    }
+
+    @Override
+    public String toString() {
+        return shape.klass.name + " instance";
+    }
+}
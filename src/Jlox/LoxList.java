@@ -0,0 +1,98 @@
+package Jlox;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+// A growable list. While every element is a number the elements sit unboxed in a
+// double[]; the first element that is not a number moves them to an Object[].
+// The owner is the Interpreter that created it (see Interpreter.owns).
+class LoxList implements Serializable {
+    private static final long serialVersionUID = Snapshot.VERSION;
+
+    // The lists and maps toString is inside of on this thread, so that one holding
+    // itself prints as [...] or {...} the second time instead of recursing forever.
+    static final ThreadLocal<Set<Object>> PRINTING =
+            ThreadLocal.withInitial(() -> Collections.newSetFromMap(new IdentityHashMap<>()));
+
+    private double[] numbers = new double[8];
+    private Object[] values = null;
+    private int size = 0;
+    final transient Interpreter owner;
+
+    LoxList(Interpreter owner) {
+        this.owner = owner;
+    }
+
+    int size() {
+        return size;
+    }
+
+    Object get(int index) {
+        if(values != null) return values[index];
+        return numbers[index];
+    }
+
+    void set(int index, Object value) {
+        if(values == null) {
+            if(value instanceof Double) {
+                numbers[index] = (double) value;
+                return;
+            }
+
+            box();
+        }
+
+        values[index] = value;
+    }
+
+    void add(Object value) {
+        if(values == null) {
+            if(value instanceof Double) {
+                if(size == numbers.length) numbers = Arrays.copyOf(numbers, size * 2);
+                numbers[size++] = (double) value;
+                return;
+            }
+
+            box();
+        }
+
+        if(size == values.length) values = Arrays.copyOf(values, size * 2);
+        values[size++] = value;
+    }
+
+    Object removeLast() {
+        Object last = get(--size);
+        if(values != null) values[size] = null;
+        return last;
+    }
+
+    private void box() {
+        values = new Object[Math.max(numbers.length, 8)];
+        for(int i = 0; i < size; i++) {
+            values[i] = numbers[i];
+        }
+        numbers = null;
+    }
+
+    @Override
+    public String toString() {
+        Set<Object> printing = PRINTING.get();
+        if(!printing.add(this)) return "[...]";
+
+        try {
+            StringBuilder builder = new StringBuilder("[");
+            for(int i = 0; i < size; i++) {
+                if(i > 0) builder.append(", ");
+                builder.append(Interpreter.stringify(get(i)));
+            }
+
+            return builder.append("]").toString();
+        }
+        finally {
+            printing.remove(this);
+        }
+    }
+}
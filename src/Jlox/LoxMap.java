@@ -0,0 +1,183 @@
+package Jlox;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Set;
+
+// A hash map from Lox values to Lox values, with keys compared the way == compares
+// them (Interpreter.isEqual). Open addressing with linear probing in a power-of-two
+// table; removed entries leave a tombstone until the next resize. The owner is the
+// Interpreter that created it (see Interpreter.owns).
+class LoxMap implements Serializable {
+    private static final long serialVersionUID = Snapshot.VERSION;
+
+    private static final Object EMPTY = new Object();
+    private static final Object REMOVED = new Object();
+
+    private transient Object[] keys = newTable(8);
+    private transient Object[] values = new Object[8];
+    private transient int size = 0;
+    private transient int used = 0;
+    final transient Interpreter owner;
+
+    LoxMap(Interpreter owner) {
+        this.owner = owner;
+    }
+
+    private static Object[] newTable(int capacity) {
+        Object[] table = new Object[capacity];
+        Arrays.fill(table, EMPTY);
+        return table;
+    }
+
+    int size() {
+        return size;
+    }
+
+    private static int hash(Object key) {
+        int h = key == null ? 0 : key.hashCode();
+        h *= 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private static boolean same(Object a, Object b) {
+        if(a == null) return b == null;
+        return a.equals(b);
+    }
+
+    // Index of key's entry, or of the empty slot where it would go.
+    private int find(Object key) {
+        int mask = keys.length - 1;
+        int tombstone = -1;
+
+        for(int i = hash(key) & mask; ; i = (i + 1) & mask) {
+            Object k = keys[i];
+            if(k == EMPTY) return tombstone >= 0 ? tombstone : i;
+            if(k == REMOVED) {
+                if(tombstone < 0) tombstone = i;
+            }
+            else if(same(k, key)) {
+                return i;
+            }
+        }
+    }
+
+    private boolean isEntry(int index) {
+        Object k = keys[index];
+        return k != EMPTY && k != REMOVED;
+    }
+
+    boolean containsKey(Object key) {
+        return isEntry(find(key));
+    }
+
+    Object get(Object key) {
+        int index = find(key);
+        return isEntry(index) ? values[index] : null;
+    }
+
+    // Returns true if key was not in the map before.
+    boolean put(Object key, Object value) {
+        int index = find(key);
+        if(isEntry(index)) {
+            values[index] = value;
+            return false;
+        }
+
+        if(keys[index] == EMPTY) used++;
+        keys[index] = key;
+        values[index] = value;
+        size++;
+
+        if(used * 4 >= keys.length * 3) resize();
+        return true;
+    }
+
+    Object remove(Object key) {
+        int index = find(key);
+        if(!isEntry(index)) return null;
+
+        Object value = values[index];
+        keys[index] = REMOVED;
+        values[index] = null;
+        size--;
+        return value;
+    }
+
+    LoxList keys(Interpreter owner) {
+        LoxList list = new LoxList(owner);
+        for(int i = 0; i < keys.length; i++) {
+            if(isEntry(i)) list.add(keys[i]);
+        }
+
+        return list;
+    }
+
+    private void resize() {
+        Object[] oldKeys = keys;
+        Object[] oldValues = values;
+
+        int capacity = size * 4 >= oldKeys.length ? oldKeys.length * 2 : oldKeys.length;
+        keys = newTable(capacity);
+        values = new Object[capacity];
+        used = size;
+
+        for(int i = 0; i < oldKeys.length; i++) {
+            Object k = oldKeys[i];
+            if(k == EMPTY || k == REMOVED) continue;
+
+            int index = find(k);
+            keys[index] = k;
+            values[index] = oldValues[i];
+        }
+    }
+
+    // Written as its entries and put back into a new table on load: EMPTY and
+    // REMOVED would not come back as the same objects, and a key hashed by
+    // identity hashes differently afterwards.
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+
+        out.writeInt(size);
+        for(int i = 0; i < keys.length; i++) {
+            if(!isEntry(i)) continue;
+
+            out.writeObject(keys[i]);
+            out.writeObject(values[i]);
+        }
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+
+        keys = newTable(8);
+        values = new Object[8];
+        for(int count = in.readInt(); count > 0; count--) {
+            put(in.readObject(), in.readObject());
+        }
+    }
+
+    @Override
+    public String toString() {
+        Set<Object> printing = LoxList.PRINTING.get();
+        if(!printing.add(this)) return "{...}";
+
+        try {
+            StringBuilder builder = new StringBuilder("{");
+            for(int i = 0; i < keys.length; i++) {
+                if(!isEntry(i)) continue;
+
+                if(builder.length() > 1) builder.append(", ");
+                builder.append(Interpreter.stringify(keys[i])).append(": ").append(Interpreter.stringify(values[i]));
+            }
+
+            return builder.append("}").toString();
+        }
+        finally {
+            printing.remove(this);
+        }
+    }
+}
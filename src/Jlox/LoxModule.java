@@ -0,0 +1,822 @@
+package Jlox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// A resolved program stored in the binary module format written by jloxc:
+//
+//   header     magic, version
+//   constants  numbers and strings: literal values, lexemes
+//   lines      every token the code refers to: type, lexeme constant, line delta
+//   functions  one entry per function or method declaration, the script first:
+//              name token, parameter tokens, frame layout, first write outside
+//              the function, offset of its body
+//   code       the statement trees in prefix order, one opcode per node
+//
+// Integers are unsigned LEB128 varints, zigzag-encoded where they can be negative.
+// Tokens keep their lines, so runtime errors report the same lines as the source.
+class LoxModule {
+    static final String EXTENSION = ".loxc";
+
+    private static final int MAGIC = 0x4A4C4F43;
+    private static final int VERSION = 8;
+
+    private static final int CONSTANT_NUMBER = 0;
+    private static final int CONSTANT_STRING = 1;
+
+    private static final int NONE = 0;
+
+    // How a declaration stores a local: plainly, in a new cell, or in the cell its
+    // scope made when it started.
+    private static final int CAPTURED = 1;
+    private static final int BOXED    = 2;
+
+    private static final int BINARY   = 1;
+    private static final int UNARY    = 2;
+    private static final int GROUPING = 3;
+    private static final int NIL      = 4;
+    private static final int TRUE     = 5;
+    private static final int FALSE    = 6;
+    private static final int CONSTANT = 7;
+    private static final int VARIABLE = 8;
+    private static final int ASSIGN   = 9;
+    private static final int LOGICAL  = 10;
+    private static final int CALL     = 11;
+    private static final int HOISTED  = 12;
+    private static final int INCREMENT_LOCAL = 13;
+    private static final int COMPARE_LOCAL   = 14;
+    private static final int GET      = 15;
+    private static final int SET      = 16;
+    private static final int SUPER    = 17;
+    private static final int INVOKE   = 18;
+
+    private static final int PRINT      = 32;
+    private static final int EXPRESSION = 33;
+    private static final int VAR        = 34;
+    private static final int BLOCK      = 35;
+    private static final int IF         = 36;
+    private static final int WHILE      = 37;
+    private static final int FUN        = 38;
+    private static final int RETURN     = 39;
+    private static final int WHILE_LESS = 40;
+    private static final int CLASS      = 41;
+
+    final List<Stmt> statements;
+    final int slotCount;
+
+    LoxModule(List<Stmt> statements, int slotCount) {
+        this.statements = statements;
+        this.slotCount = slotCount;
+    }
+
+    static boolean isModule(String path) {
+        return path.endsWith(EXTENSION);
+    }
+
+    void write(Path path) throws IOException {
+        Writer writer = new Writer();
+        writer.function(null, statements, slotCount);
+
+        try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(path))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            writer.writeTo(out);
+        }
+    }
+
+    static LoxModule load(Path path) throws IOException {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        if(buffer.remaining() < 8 || buffer.getInt() != MAGIC) {
+            throw new IOException(path + " is not a jlox module.");
+        }
+
+        int version = buffer.getInt();
+        if(version != VERSION) {
+            throw new IOException(path + " has module version " + version + ", expected " + VERSION + ".");
+        }
+
+        try {
+            return new Reader(buffer).read();
+        }
+        catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException | ClassCastException e) {
+            throw new IOException(path + " is truncated or corrupt.", e);
+        }
+    }
+
+    private static class Writer implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+        private final ByteArrayOutputStream constants = new ByteArrayOutputStream();
+        private final Map<Object, Integer> constantIndex = new HashMap<>();
+
+        private final ByteArrayOutputStream lines = new ByteArrayOutputStream();
+        // Tokens with the same type, lexeme and line are interchangeable at run time.
+        private final Map<String, Integer> tokenIndex = new HashMap<>();
+        private int lastLine = 0;
+
+        private final ByteArrayOutputStream functions = new ByteArrayOutputStream();
+        private int functionCount = 0;
+
+        private final ByteArrayOutputStream code = new ByteArrayOutputStream();
+
+        // Bodies are written after the code that declares them, so that each one
+        // lies in one contiguous stretch of the code section.
+        private final List<Stmt.Fun> pending = new ArrayList<>();
+
+        void function(Stmt.Fun declaration, List<Stmt> body, int slotCount) {
+            writeFunction(declaration, body, slotCount);
+
+            while (!pending.isEmpty()) {
+                Stmt.Fun fun = pending.remove(0);
+                writeFunction(fun, fun.body, fun.slotCount);
+            }
+        }
+
+        private void writeFunction(Stmt.Fun declaration, List<Stmt> body, int slotCount) {
+            functionCount++;
+
+            if(declaration == null) {
+                varint(functions, 0);
+                varint(functions, 0);
+                varint(functions, slotCount);
+                signed(functions, -1);
+                varint(functions, 0);
+                intArray(functions, new int[0]);
+                intArray(functions, new int[0]);
+                intArray(functions, new int[0]);
+                signed(functions, -1);
+                varint(functions, 0);
+            }
+            else {
+                varint(functions, token(declaration.name) + 1);
+                varint(functions, declaration.params.size());
+                for(Token param : declaration.params) {
+                    varint(functions, token(param));
+                }
+                varint(functions, slotCount);
+                signed(functions, declaration.slot);
+                varint(functions, captured(declaration.captured, declaration.boxed));
+                intArray(functions, declaration.capturedParams);
+                intArray(functions, declaration.cells == null ? new int[0] : declaration.cells);
+                intArray(functions, declaration.upvalues);
+                signed(functions, declaration.thisSlot);
+                varint(functions, declaration.effect == null ? 0 : token(declaration.effect) + 1);
+            }
+
+            varint(functions, code.size());
+            statements(body);
+        }
+
+        private void intArray(ByteArrayOutputStream out, int[] values) {
+            varint(out, values.length);
+            for(int value : values) {
+                signed(out, value);
+            }
+        }
+
+        void writeTo(DataOutputStream out) throws IOException {
+            varint(out, constantIndex.size());
+            constants.writeTo(out);
+            varint(out, tokenIndex.size());
+            lines.writeTo(out);
+            varint(out, functionCount);
+            functions.writeTo(out);
+            varint(out, code.size());
+            code.writeTo(out);
+        }
+
+        private int constant(Object value) {
+            Integer index = constantIndex.get(value);
+            if(index != null) return index;
+
+            if(value instanceof Double) {
+                constants.write(CONSTANT_NUMBER);
+                long bits = Double.doubleToRawLongBits((Double) value);
+                for(int shift = 56; shift >= 0; shift -= 8) {
+                    constants.write((int) (bits >>> shift));
+                }
+            }
+            else {
+                byte[] bytes = ((String) value).getBytes(StandardCharsets.UTF_8);
+                constants.write(CONSTANT_STRING);
+                varint(constants, bytes.length);
+                constants.write(bytes, 0, bytes.length);
+            }
+
+            constantIndex.put(value, constantIndex.size());
+            return constantIndex.size() - 1;
+        }
+
+        private int token(Token token) {
+            String key = token.type.ordinal() + ":" + token.line + ":" + token.lexeme;
+            Integer index = tokenIndex.get(key);
+            if(index != null) return index;
+
+            varint(lines, token.type.ordinal());
+            varint(lines, constant(token.lexeme));
+            signed(lines, token.line - lastLine);
+            lastLine = token.line;
+
+            tokenIndex.put(key, tokenIndex.size());
+            return tokenIndex.size() - 1;
+        }
+
+        private static void varint(ByteArrayOutputStream out, int value) {
+            while ((value & ~0x7F) != 0) {
+                out.write((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            out.write(value);
+        }
+
+        private static void varint(DataOutputStream out, int value) throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            varint(bytes, value);
+            bytes.writeTo(out);
+        }
+
+        private static void signed(ByteArrayOutputStream out, int value) {
+            varint(out, (value << 1) ^ (value >> 31));
+        }
+
+        private void op(int opcode) {
+            code.write(opcode);
+        }
+
+        private void number(int value) {
+            varint(code, value);
+        }
+
+        private void slot(int value) {
+            signed(code, value);
+        }
+
+        private void tokenRef(Token token) {
+            varint(code, token(token));
+        }
+
+        private void expr(Expr expr) {
+            if(expr == null) op(NONE);
+            else expr.accept(this);
+        }
+
+        private void stmt(Stmt stmt) {
+            if(stmt == null) op(NONE);
+            else stmt.accept(this);
+        }
+
+        private void statements(List<Stmt> stmts) {
+            number(stmts.size());
+            for(Stmt stmt : stmts) {
+                stmt(stmt);
+            }
+        }
+
+        public Void visitBinaryExpr(Expr.Binary expr) {
+            op(BINARY);
+            tokenRef(expr.operator);
+            expr(expr.left);
+            expr(expr.right);
+            return null;
+        }
+
+        public Void visitUnaryExpr(Expr.Unary expr) {
+            op(UNARY);
+            tokenRef(expr.operator);
+            expr(expr.right);
+            return null;
+        }
+
+        public Void visitGroupingExpr(Expr.Grouping expr) {
+            op(GROUPING);
+            expr(expr.expr);
+            return null;
+        }
+
+        public Void visitLiteralExpr(Expr.Literal expr) {
+            if(expr.value == null) op(NIL);
+            else if(expr.value.equals(true)) op(TRUE);
+            else if(expr.value.equals(false)) op(FALSE);
+            else {
+                op(CONSTANT);
+                number(constant(expr.value));
+            }
+
+            return null;
+        }
+
+        public Void visitVariableExpr(Expr.Variable expr) {
+            op(VARIABLE);
+            tokenRef(expr.name);
+            number(expr.kind);
+            slot(expr.kind == Resolver.GLOBAL ? -1 : expr.slot);
+            return null;
+        }
+
+        public Void visitAssignExpr(Expr.Assign expr) {
+            op(ASSIGN);
+            tokenRef(expr.name);
+            number(expr.kind);
+            slot(expr.kind == Resolver.GLOBAL ? -1 : expr.slot);
+            expr(expr.value);
+            return null;
+        }
+
+        public Void visitLogicalExpr(Expr.Logical expr) {
+            op(LOGICAL);
+            tokenRef(expr.operator);
+            expr(expr.left);
+            expr(expr.right);
+            return null;
+        }
+
+        public Void visitCallExpr(Expr.Call expr) {
+            op(CALL);
+            tokenRef(expr.paren);
+            expr(expr.callee);
+            number(expr.arguments.size());
+            for(Expr argument : expr.arguments) {
+                expr(argument);
+            }
+
+            return null;
+        }
+
+        public Void visitHoistedExpr(Expr.Hoisted expr) {
+            op(HOISTED);
+            number(expr.slot);
+            expr(expr.expr);
+            return null;
+        }
+
+        public Void visitIncrementLocalExpr(Expr.IncrementLocal expr) {
+            op(INCREMENT_LOCAL);
+            number(expr.slot);
+            number(constant(expr.delta));
+            expr(expr.fallback);
+            return null;
+        }
+
+        public Void visitCompareLocalExpr(Expr.CompareLocal expr) {
+            op(COMPARE_LOCAL);
+            tokenRef(expr.operator);
+            number(expr.slot);
+            number(constant(expr.constant));
+            expr(expr.fallback);
+            return null;
+        }
+
+        public Void visitGetExpr(Expr.Get expr) {
+            op(GET);
+            tokenRef(expr.name);
+            expr(expr.object);
+            return null;
+        }
+
+        public Void visitSetExpr(Expr.Set expr) {
+            op(SET);
+            tokenRef(expr.name);
+            expr(expr.object);
+            expr(expr.value);
+            return null;
+        }
+
+        public Void visitInvokeExpr(Expr.Invoke expr) {
+            op(INVOKE);
+            tokenRef(expr.name);
+            tokenRef(expr.paren);
+            expr(expr.object);
+            number(expr.arguments.size());
+            for(Expr argument : expr.arguments) {
+                expr(argument);
+            }
+
+            return null;
+        }
+
+        public Void visitSuperExpr(Expr.Super expr) {
+            op(SUPER);
+            tokenRef(expr.keyword);
+            tokenRef(expr.method);
+            expr(expr.superclass);
+            expr(expr.receiver);
+            return null;
+        }
+
+        public Void visitPrintStmt(Stmt.Print stmt) {
+            op(PRINT);
+            tokenRef(stmt.keyword);
+            expr(stmt.expression);
+            return null;
+        }
+
+        public Void visitExpressionStmt(Stmt.Expression stmt) {
+            op(EXPRESSION);
+            expr(stmt.expression);
+            return null;
+        }
+
+        private static int captured(boolean captured, boolean boxed) {
+            return boxed ? BOXED : captured ? CAPTURED : 0;
+        }
+
+        public Void visitVarStmt(Stmt.Var stmt) {
+            op(VAR);
+            tokenRef(stmt.name);
+            slot(stmt.slot);
+            number(captured(stmt.captured, stmt.boxed));
+            expr(stmt.initializer);
+            return null;
+        }
+
+        public Void visitBlockStmt(Stmt.Block stmt) {
+            op(BLOCK);
+            statements(stmt.statements);
+
+            int[] cells = stmt.cells == null ? new int[0] : stmt.cells;
+            number(cells.length);
+            for(int slot : cells) {
+                number(slot);
+            }
+
+            return null;
+        }
+
+        public Void visitIfStmt(Stmt.If stmt) {
+            op(IF);
+            expr(stmt.condition);
+            stmt(stmt.thenBranch);
+            stmt(stmt.elseBranch);
+            return null;
+        }
+
+        public Void visitWhileStmt(Stmt.While stmt) {
+            op(WHILE);
+            tokenRef(stmt.keyword);
+            expr(stmt.condition);
+            stmt(stmt.body);
+
+            int[] hoisted = stmt.hoisted == null ? new int[0] : stmt.hoisted;
+            number(hoisted.length);
+            for(int slot : hoisted) {
+                number(slot);
+            }
+
+            return null;
+        }
+
+        public Void visitFunStmt(Stmt.Fun stmt) {
+            op(FUN);
+            number(functionCount + pending.size());
+            pending.add(stmt);
+            return null;
+        }
+
+        public Void visitReturnStmt(Stmt.Return stmt) {
+            op(RETURN);
+            tokenRef(stmt.keyword);
+            expr(stmt.Value);
+            return null;
+        }
+
+        public Void visitWhileLessStmt(Stmt.WhileLess stmt) {
+            op(WHILE_LESS);
+            number(stmt.slot);
+            expr(stmt.limit);
+            stmt(stmt.loop);
+            return null;
+        }
+
+        // Debugger traps and coverage counters are not part of the program.
+        public Void visitTrapStmt(Stmt.Trap stmt) {
+            stmt(stmt.stmt);
+            return null;
+        }
+
+        public Void visitCountStmt(Stmt.Count stmt) {
+            stmt(stmt.stmt);
+            return null;
+        }
+
+        public Void visitClassStmt(Stmt.Class stmt) {
+            op(CLASS);
+            tokenRef(stmt.name);
+            slot(stmt.slot);
+            number(captured(stmt.captured, stmt.boxed));
+            expr(stmt.superclass);
+            number(stmt.methods.size());
+            for(Stmt.Fun method : stmt.methods) {
+                number(functionCount + pending.size());
+                pending.add(method);
+            }
+
+            return null;
+        }
+    }
+
+    private static class Reader {
+        private final ByteBuffer buffer;
+        private Object[] constants;
+        private Token[] tokens;
+        private Stmt.Fun[] functions;
+        private int codeStart;
+
+        Reader(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        LoxModule read() {
+            constants = new Object[varint()];
+            for(int i = 0; i < constants.length; i++) {
+                int tag = buffer.get();
+                if(tag == CONSTANT_NUMBER) {
+                    constants[i] = buffer.getDouble();
+                }
+                else if(tag == CONSTANT_STRING) {
+                    byte[] bytes = new byte[varint()];
+                    buffer.get(bytes);
+                    constants[i] = new String(bytes, StandardCharsets.UTF_8);
+                }
+                else {
+                    throw new IllegalArgumentException("Unknown constant tag " + tag);
+                }
+            }
+
+            TokenType[] types = TokenType.values();
+            tokens = new Token[varint()];
+            int line = 0;
+            for(int i = 0; i < tokens.length; i++) {
+                TokenType type = types[varint()];
+                String lexeme = (String) constants[varint()];
+                line += signed();
+                tokens[i] = new Token(type, lexeme, null, line);
+            }
+
+            int count = varint();
+            functions = new Stmt.Fun[count];
+            int[] bodies = new int[count];
+            int scriptSlots = 0;
+            for(int i = 0; i < count; i++) {
+                int name = varint();
+                List<Token> params = new ArrayList<>();
+                for(int p = varint(); p > 0; p--) {
+                    params.add(tokens[varint()]);
+                }
+
+                Stmt.Fun fun = new Stmt.Fun(name == 0 ? null : tokens[name - 1], params, new ArrayList<>());
+                fun.slotCount = varint();
+                fun.slot = signed();
+                int captured = varint();
+                fun.captured = captured != 0;
+                fun.boxed = captured == BOXED;
+                fun.capturedParams = intArray();
+                int[] cells = intArray();
+                if(cells.length > 0) fun.cells = cells;
+                fun.upvalues = intArray();
+                fun.thisSlot = signed();
+                int effect = varint();
+                fun.effect = effect == 0 ? null : tokens[effect - 1];
+                bodies[i] = varint();
+
+                functions[i] = fun;
+                if(i == 0) scriptSlots = fun.slotCount;
+            }
+
+            int codeLength = varint();
+            codeStart = buffer.position();
+            if(codeLength > buffer.remaining()) throw new IllegalArgumentException("Code section is cut short");
+
+            for(int i = 0; i < count; i++) {
+                buffer.position(codeStart + bodies[i]);
+                statements(functions[i].body);
+            }
+
+            return new LoxModule(functions[0].body, scriptSlots);
+        }
+
+        private int varint() {
+            int value = 0;
+            for(int shift = 0; ; shift += 7) {
+                byte b = buffer.get();
+                value |= (b & 0x7F) << shift;
+                if(b >= 0) return value;
+            }
+        }
+
+        private int signed() {
+            int value = varint();
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        private int[] intArray() {
+            int[] values = new int[varint()];
+            for(int i = 0; i < values.length; i++) {
+                values[i] = signed();
+            }
+
+            return values;
+        }
+
+        private Token token() {
+            return tokens[varint()];
+        }
+
+        private void statements(List<Stmt> into) {
+            for(int i = varint(); i > 0; i--) {
+                into.add(stmt());
+            }
+        }
+
+        private Expr expr() {
+            int opcode = buffer.get();
+            switch (opcode) {
+                case NONE:
+                    return null;
+                case BINARY: {
+                    Token operator = token();
+                    Expr left = expr();
+                    return new Expr.Binary(left, operator, expr());
+                }
+                case UNARY: {
+                    Token operator = token();
+                    return new Expr.Unary(operator, expr());
+                }
+                case GROUPING:
+                    return new Expr.Grouping(expr());
+                case NIL:
+                    return new Expr.Literal(null);
+                case TRUE:
+                    return new Expr.Literal(true);
+                case FALSE:
+                    return new Expr.Literal(false);
+                case CONSTANT:
+                    return new Expr.Literal(constants[varint()]);
+                case VARIABLE: {
+                    Expr.Variable variable = new Expr.Variable(token());
+                    variable.kind = varint();
+                    variable.slot = signed();
+                    return variable;
+                }
+                case ASSIGN: {
+                    Token name = token();
+                    int kind = varint();
+                    int slot = signed();
+                    Expr.Assign assign = new Expr.Assign(name, expr());
+                    assign.kind = kind;
+                    assign.slot = slot;
+                    return assign;
+                }
+                case LOGICAL: {
+                    Token operator = token();
+                    Expr left = expr();
+                    return new Expr.Logical(left, operator, expr());
+                }
+                case CALL: {
+                    Token paren = token();
+                    Expr callee = expr();
+                    List<Expr> arguments = new ArrayList<>();
+                    for(int i = varint(); i > 0; i--) {
+                        arguments.add(expr());
+                    }
+                    return new Expr.Call(callee, paren, arguments);
+                }
+                case HOISTED: {
+                    int slot = varint();
+                    return new Expr.Hoisted(expr(), slot);
+                }
+                case INCREMENT_LOCAL: {
+                    int slot = varint();
+                    double delta = (double) constants[varint()];
+                    return new Expr.IncrementLocal(slot, delta, expr());
+                }
+                case COMPARE_LOCAL: {
+                    Token operator = token();
+                    int slot = varint();
+                    double constant = (double) constants[varint()];
+                    return new Expr.CompareLocal(operator, slot, constant, expr());
+                }
+                case GET: {
+                    Token name = token();
+                    return new Expr.Get(expr(), name);
+                }
+                case SET: {
+                    Token name = token();
+                    Expr object = expr();
+                    return new Expr.Set(object, name, expr());
+                }
+                case INVOKE: {
+                    Token name = token();
+                    Token paren = token();
+                    Expr object = expr();
+                    List<Expr> arguments = new ArrayList<>();
+                    for(int i = varint(); i > 0; i--) {
+                        arguments.add(expr());
+                    }
+                    return new Expr.Invoke(object, name, paren, arguments);
+                }
+                case SUPER: {
+                    Token keyword = token();
+                    Token method = token();
+                    Expr.Variable superclass = (Expr.Variable) expr();
+                    return new Expr.Super(keyword, method, superclass, (Expr.Variable) expr());
+                }
+            }
+
+            throw new IllegalArgumentException("Unknown expression opcode " + opcode);
+        }
+
+        private Stmt stmt() {
+            int opcode = buffer.get();
+            switch (opcode) {
+                case NONE:
+                    return null;
+                case PRINT: {
+                    Token keyword = token();
+                    return new Stmt.Print(keyword, expr());
+                }
+                case EXPRESSION:
+                    return new Stmt.Expression(expr());
+                case VAR: {
+                    Token name = token();
+                    int slot = signed();
+                    int captured = varint();
+                    Stmt.Var var = new Stmt.Var(name, expr());
+                    var.slot = slot;
+                    var.captured = captured != 0;
+                    var.boxed = captured == BOXED;
+                    return var;
+                }
+                case BLOCK: {
+                    List<Stmt> statements = new ArrayList<>();
+                    statements(statements);
+                    Stmt.Block block = new Stmt.Block(statements);
+                    int[] cells = new int[varint()];
+                    for(int i = 0; i < cells.length; i++) {
+                        cells[i] = varint();
+                    }
+                    if(cells.length > 0) block.cells = cells;
+                    return block;
+                }
+                case IF: {
+                    Expr condition = expr();
+                    Stmt thenBranch = stmt();
+                    return new Stmt.If(condition, thenBranch, stmt());
+                }
+                case WHILE: {
+                    Token keyword = token();
+                    Expr condition = expr();
+                    Stmt.While loop = new Stmt.While(keyword, condition, stmt());
+                    int[] hoisted = new int[varint()];
+                    for(int i = 0; i < hoisted.length; i++) {
+                        hoisted[i] = varint();
+                    }
+                    if(hoisted.length > 0) loop.hoisted = hoisted;
+                    return loop;
+                }
+                case FUN:
+                    return functions[varint()];
+                case RETURN: {
+                    Token keyword = token();
+                    return new Stmt.Return(keyword, expr());
+                }
+                case WHILE_LESS: {
+                    int slot = varint();
+                    Expr limit = expr();
+                    return new Stmt.WhileLess((Stmt.While) stmt(), slot, limit);
+                }
+                case CLASS: {
+                    Token name = token();
+                    int slot = signed();
+                    int captured = varint();
+                    Expr.Variable superclass = (Expr.Variable) expr();
+                    List<Stmt.Fun> methods = new ArrayList<>();
+                    for(int i = varint(); i > 0; i--) {
+                        methods.add(functions[varint()]);
+                    }
+                    Stmt.Class klass = new Stmt.Class(name, superclass, methods);
+                    klass.slot = slot;
+                    klass.captured = captured != 0;
+                    klass.boxed = captured == BOXED;
+                    return klass;
+                }
+            }
+
+            throw new IllegalArgumentException("Unknown statement opcode " + opcode);
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package Jlox;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+// Marks a static method that NativeRegistry binds as a global Lox function.
+// Parameters may be double, boolean, String or Object, optionally preceded by an
+// Interpreter; the return type may be any of those or void.
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface LoxNative {
+    // Name of the global; defaults to the method name.
+    String value() default "";
+
+    // False for a native whose result depends on more than its arguments and what
+    // they reach, which memoize then refuses to call.
+    boolean pure() default true;
+}
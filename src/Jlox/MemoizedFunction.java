@@ -0,0 +1,292 @@
+package Jlox;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// What memoize(fn) returns: fn behind a cache of its results keyed by arguments,
+// which match the way == compares them. The cache keeps the CAPACITY most recently
+// used results. Calls with a list, map, instance or function argument are not
+// cached, since what fn returns for those can change. parallelMap workers share
+// the cache; fn runs outside the lock, so two workers may compute the same result.
+class MemoizedFunction implements LoxCallable, Serializable {
+    private static final long serialVersionUID = Snapshot.VERSION;
+
+    static final int CAPACITY = 10000;
+    // Stands for a cached nil, which get could not tell apart from a miss.
+    private static final Object NIL = new Object();
+
+    private final LoxFunction function;
+    private final transient Map<Arguments, Object> cache = new LinkedHashMap<Arguments, Object>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Arguments, Object> eldest) {
+            return size() > CAPACITY;
+        }
+    };
+
+    MemoizedFunction(LoxFunction function) {
+        this.function = function;
+    }
+
+    private static class Arguments {
+        final Object[] values;
+        final int hash;
+
+        Arguments(Object[] values) {
+            this.values = values;
+            this.hash = Arrays.hashCode(values);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if(!(other instanceof Arguments)) return false;
+
+            Object[] those = ((Arguments) other).values;
+            for(int i = 0; i < values.length; i++) {
+                if(!Interpreter.isEqual(values[i], those[i])) return false;
+            }
+
+            return true;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    // The first thing fn, or a function it calls by name, does that a cached result
+    // would not repeat, or null if there is none. Each function reached must have no
+    // effect of its own (see Resolver); what it calls and the captured values it
+    // reads are looked up now. A captured value must be a number, string, boolean,
+    // nil or a function that passes the same check, and a native must be pure.
+    static Token check(Interpreter interpreter, LoxFunction fn) {
+        Purity purity = new Purity(interpreter);
+        purity.function(fn);
+        return purity.effect;
+    }
+
+    // Walks function bodies, nested ones included, without changing them.
+    private static class Purity extends Rewriter {
+        private final Interpreter interpreter;
+        private final Set<Stmt.Fun> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+        // The cells the code being walked has as upvalues; null for those that are
+        // locals of the function being checked.
+        private Cell[] closure;
+        Token effect = null;
+
+        Purity(Interpreter interpreter) {
+            this.interpreter = interpreter;
+        }
+
+        void function(LoxFunction fn) {
+            Stmt.Fun declaration = fn.declaration();
+            if(effect != null || !seen.add(declaration)) return;
+
+            effect = declaration.effect;
+            if(effect != null) return;
+            if(declaration.thisSlot >= 0) {
+                effect = declaration.name;
+                return;
+            }
+
+            Cell[] enclosing = closure;
+            closure = fn.upvalues();
+            rewriteAll(declaration.body);
+            closure = enclosing;
+        }
+
+        private void value(Token name, Object value) {
+            if(value == null || value instanceof Double || value instanceof String || value instanceof Boolean) return;
+            if(value instanceof MemoizedFunction) return;
+            if(value instanceof NativeFunction && ((NativeFunction) value).pure) return;
+
+            if(value instanceof LoxFunction) function((LoxFunction) value);
+            else if(effect == null) effect = name;
+        }
+
+        // The value of an upvalue or LATE use outside the function being checked.
+        private void captured(Expr.Variable variable) {
+            Cell cell = closure[variable.slot];
+            if(cell == null) return;
+
+            Object value = cell.value;
+            if(value != Cell.UNDEFINED) value(variable.name, value);
+            else global(variable.name);
+        }
+
+        private void global(Token name) {
+            try {
+                value(name, interpreter.globals.find(name));
+            }
+            catch (RuntimeError e) {
+                if(effect == null) effect = name;
+            }
+        }
+
+        @Override
+        public Expr visitCallExpr(Expr.Call expr) {
+            Expr callee = expr.callee instanceof Expr.Hoisted ? ((Expr.Hoisted) expr.callee).expr : expr.callee;
+            if(callee instanceof Expr.Variable && ((Expr.Variable) callee).kind == Resolver.GLOBAL) {
+                global(((Expr.Variable) callee).name);
+            }
+
+            return super.visitCallExpr(expr);
+        }
+
+        @Override
+        public Expr visitVariableExpr(Expr.Variable expr) {
+            if(expr.kind == Resolver.UPVALUE || expr.kind == Resolver.LATE) captured(expr);
+            return expr;
+        }
+
+        @Override
+        public Expr visitHoistedExpr(Expr.Hoisted expr) {
+            rewrite(expr.expr);
+            return expr;
+        }
+
+        @Override
+        public Expr visitIncrementLocalExpr(Expr.IncrementLocal expr) {
+            rewrite(expr.fallback);
+            return expr;
+        }
+
+        @Override
+        public Expr visitCompareLocalExpr(Expr.CompareLocal expr) {
+            rewrite(expr.fallback);
+            return expr;
+        }
+
+        @Override
+        public Stmt visitWhileLessStmt(Stmt.WhileLess stmt) {
+            rewrite(stmt.loop);
+            rewrite(stmt.limit);
+            return stmt;
+        }
+
+        // A nested function's upvalues come from the locals of the one around it,
+        // which are the checked function's own, or from that one's upvalues.
+        @Override
+        public Stmt visitFunStmt(Stmt.Fun stmt) {
+            Cell[] enclosing = closure;
+            closure = new Cell[stmt.upvalues.length];
+            for(int i = 0; i < closure.length; i++) {
+                int source = stmt.upvalues[i];
+                if(source < 0) closure[i] = enclosing[-1 - source];
+            }
+
+            rewriteAll(stmt.body);
+            closure = enclosing;
+            return stmt;
+        }
+    }
+
+    private static boolean cacheable(Object value) {
+        return value == null || value instanceof Double || value instanceof String || value instanceof Boolean;
+    }
+
+    // The key for these arguments, or null if the call should not be cached.
+    private static Arguments key(Object... values) {
+        for(Object value : values) {
+            if(!cacheable(value)) return null;
+        }
+
+        return new Arguments(values);
+    }
+
+    private Object lookup(Arguments key) {
+        synchronized (cache) {
+            return cache.get(key);
+        }
+    }
+
+    // A list, map, instance or function result is returned uncached, so that every
+    // call still gets a new one, as it would from fn.
+    private Object store(Arguments key, Object result) {
+        if(!cacheable(result)) return result;
+
+        synchronized (cache) {
+            cache.put(key, result == null ? NIL : result);
+        }
+
+        return result;
+    }
+
+    private static Object unwrap(Object cached) {
+        return cached == NIL ? null : cached;
+    }
+
+    @Override
+    public Object call(Interpreter interpreter, List<Object> args) {
+        Arguments key = key(args.toArray());
+        if(key == null) return function.call(interpreter, args);
+
+        Object cached = lookup(key);
+        if(cached != null) return unwrap(cached);
+
+        return store(key, function.call(interpreter, args));
+    }
+
+    @Override
+    public Object call0(Interpreter interpreter) {
+        Arguments key = key();
+        Object cached = lookup(key);
+        if(cached != null) return unwrap(cached);
+
+        return store(key, function.call0(interpreter));
+    }
+
+    @Override
+    public Object call1(Interpreter interpreter, Object a) {
+        Arguments key = key(a);
+        if(key == null) return function.call1(interpreter, a);
+
+        Object cached = lookup(key);
+        if(cached != null) return unwrap(cached);
+
+        return store(key, function.call1(interpreter, a));
+    }
+
+    @Override
+    public Object call2(Interpreter interpreter, Object a, Object b) {
+        Arguments key = key(a, b);
+        if(key == null) return function.call2(interpreter, a, b);
+
+        Object cached = lookup(key);
+        if(cached != null) return unwrap(cached);
+
+        return store(key, function.call2(interpreter, a, b));
+    }
+
+    @Override
+    public Object call3(Interpreter interpreter, Object a, Object b, Object c) {
+        Arguments key = key(a, b, c);
+        if(key == null) return function.call3(interpreter, a, b, c);
+
+        Object cached = lookup(key);
+        if(cached != null) return unwrap(cached);
+
+        return store(key, function.call3(interpreter, a, b, c));
+    }
+
+    @Override
+    public int arity() {
+        return function.arity();
+    }
+
+    @Override
+    public String toString() {
+        return function.toString();
+    }
+
+    // The cache is not part of a snapshot; a restored function starts empty.
+    private Object readResolve() {
+        return new MemoizedFunction(function);
+    }
+}
@@ -0,0 +1,119 @@
+package Jlox;
+
+import java.lang.invoke.MethodHandle;
+import java.util.List;
+
+// A @LoxNative method bound by NativeRegistry. The callN entry points pass their
+// arguments straight to the handle without building an argument list.
+class NativeFunction implements LoxCallable {
+
+    // Thrown when a native cannot accept its arguments: a type other than the one
+    // the Java method declares, a bad index, or a limit the call would go over.
+    // visitCallExpr turns it into a RuntimeError at the call's paren.
+    static class ArgumentError extends RuntimeException {
+        ArgumentError(String message) {
+            super(message, null, false, false);
+        }
+    }
+
+    private final String name;
+    private final int arity;
+    private final MethodHandle handle;
+    // See LoxNative.pure.
+    final boolean pure;
+
+    NativeFunction(String name, int arity, MethodHandle handle, boolean pure) {
+        this.name = name;
+        this.arity = arity;
+        this.handle = handle;
+        this.pure = pure;
+    }
+
+    @Override
+    public Object call0(Interpreter interpreter) {
+        try {
+            return (Object) handle.invokeExact(interpreter);
+        }
+        catch (RuntimeException | Error e) {
+            throw e;
+        }
+        catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public Object call1(Interpreter interpreter, Object a) {
+        try {
+            return (Object) handle.invokeExact(interpreter, a);
+        }
+        catch (RuntimeException | Error e) {
+            throw e;
+        }
+        catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public Object call2(Interpreter interpreter, Object a, Object b) {
+        try {
+            return (Object) handle.invokeExact(interpreter, a, b);
+        }
+        catch (RuntimeException | Error e) {
+            throw e;
+        }
+        catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public Object call3(Interpreter interpreter, Object a, Object b, Object c) {
+        try {
+            return (Object) handle.invokeExact(interpreter, a, b, c);
+        }
+        catch (RuntimeException | Error e) {
+            throw e;
+        }
+        catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public Object call(Interpreter interpreter, List<Object> args) {
+        switch (args.size()) {
+            case 0: return call0(interpreter);
+            case 1: return call1(interpreter, args.get(0));
+            case 2: return call2(interpreter, args.get(0), args.get(1));
+            case 3: return call3(interpreter, args.get(0), args.get(1), args.get(2));
+        }
+
+        Object[] all = new Object[args.size() + 1];
+        all[0] = interpreter;
+        for(int i = 0; i < args.size(); i++) {
+            all[i + 1] = args.get(i);
+        }
+
+        try {
+            return handle.invokeWithArguments(all);
+        }
+        catch (RuntimeException | Error e) {
+            throw e;
+        }
+        catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public int arity() {
+        return arity;
+    }
+
+    @Override
+    public String toString() {
+        return "<native fn>";
+    }
+}
@@ -0,0 +1,94 @@
+package Jlox;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+
+// Binds @LoxNative methods to globals. Every check on the Java signature happens
+// here, once; the resulting handle takes (Interpreter, Object...) and returns Object.
+class NativeRegistry {
+    private static final MethodHandles.Lookup lookup = MethodHandles.lookup();
+
+    private static final MethodHandle TO_DOUBLE = find("toDouble", double.class);
+    private static final MethodHandle TO_BOOLEAN = find("toBoolean", boolean.class);
+    private static final MethodHandle TO_STRING = find("toLoxString", String.class);
+
+    static void register(Environment globals, Class<?> natives) {
+        for(Method method : natives.getDeclaredMethods()) {
+            LoxNative annotation = method.getAnnotation(LoxNative.class);
+            if(annotation == null) continue;
+
+            String name = annotation.value().isEmpty() ? method.getName() : annotation.value();
+            globals.define(name, bind(name, method, annotation.pure()));
+        }
+    }
+
+    static NativeFunction bind(String name, Method method, boolean pure) {
+        if(!Modifier.isStatic(method.getModifiers())) {
+            throw new IllegalArgumentException("Native " + name + " must be static.");
+        }
+
+        MethodHandle handle;
+        try {
+            handle = lookup.unreflect(method);
+        }
+        catch (IllegalAccessException e) {
+            throw new IllegalArgumentException("Native " + name + " is not accessible.", e);
+        }
+
+        Class<?>[] params = method.getParameterTypes();
+        int first = params.length > 0 && params[0] == Interpreter.class ? 1 : 0;
+        if(first == 0) handle = MethodHandles.dropArguments(handle, 0, Interpreter.class);
+
+        for(int i = first; i < params.length; i++) {
+            MethodHandle filter = argumentFilter(name, params[i]);
+            if(filter != null) handle = MethodHandles.filterArguments(handle, i + 1 - first, filter);
+        }
+
+        Class<?> result = method.getReturnType();
+        if(result != void.class && result != Object.class && result != double.class
+                && result != boolean.class && result != String.class) {
+            throw new IllegalArgumentException("Native " + name + " returns unsupported type " + result.getName() + ".");
+        }
+
+        int arity = params.length - first;
+        MethodType generic = MethodType.genericMethodType(arity).insertParameterTypes(0, Interpreter.class);
+
+        return new NativeFunction(name, arity, handle.asType(generic), pure);
+    }
+
+    private static MethodHandle argumentFilter(String name, Class<?> type) {
+        if(type == double.class) return TO_DOUBLE;
+        if(type == boolean.class) return TO_BOOLEAN;
+        if(type == String.class) return TO_STRING;
+        if(type == Object.class) return null;
+
+        throw new IllegalArgumentException("Native " + name + " takes unsupported type " + type.getName() + ".");
+    }
+
+    private static double toDouble(Object value) {
+        if(value instanceof Double) return (double) value;
+        throw new NativeFunction.ArgumentError("Argument must be a number");
+    }
+
+    private static boolean toBoolean(Object value) {
+        if(value instanceof Boolean) return (boolean) value;
+        throw new NativeFunction.ArgumentError("Argument must be a boolean");
+    }
+
+    private static String toLoxString(Object value) {
+        if(value instanceof String) return (String) value;
+        throw new NativeFunction.ArgumentError("Argument must be a string");
+    }
+
+    private static MethodHandle find(String name, Class<?> type) {
+        try {
+            return lookup.findStatic(NativeRegistry.class, name, MethodType.methodType(type, Object.class));
+        }
+        catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package Jlox;
+
+class Natives {
+
+    @LoxNative(pure = false)
+    static double clock() {
+        return (double)System.currentTimeMillis() / 1000.0;
+    }
+
+    @LoxNative
+    static double sqrt(double x) {
+        return Math.sqrt(x);
+    }
+
+    @LoxNative
+    static double abs(double x) {
+        return Math.abs(x);
+    }
+
+    @LoxNative
+    static double floor(double x) {
+        return Math.floor(x);
+    }
+
+    @LoxNative
+    static double pow(double base, double exponent) {
+        return Math.pow(base, exponent);
+    }
+
+    // A function that remembers what fn returned for each list of arguments. fn
+    // must depend on nothing but its arguments, which the Resolver and
+    // MemoizedFunction.check work out.
+    @LoxNative
+    static Object memoize(Interpreter interpreter, Object fn) {
+        if(fn instanceof MemoizedFunction) return fn;
+        if(!(fn instanceof LoxFunction)) throw new NativeFunction.ArgumentError("memoize needs a function");
+
+        LoxFunction function = (LoxFunction) fn;
+        Stmt.Fun declaration = function.declaration();
+        if(declaration.thisSlot >= 0) throw new NativeFunction.ArgumentError("Cannot memoize a method");
+
+        Token effect = MemoizedFunction.check(interpreter, function);
+        if(effect != null) {
+            throw new NativeFunction.ArgumentError("Cannot memoize " + declaration.name.lexeme + ", which depends on "
+                    + "or changes state outside it at " + effect.lexeme + " on line " + effect.line);
+        }
+
+        return new MemoizedFunction(function);
+    }
+
+}
@@ -0,0 +1,396 @@
+package Jlox;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static Jlox.TokenType.*;
+
+// AST optimizations, run after the Resolver:
+//
+// - Loop-invariant code motion. Inside a while loop (including desugared fors),
+//   every maximal subexpression whose operands the loop cannot change is replaced
+//   by an Expr.Hoisted that caches its value in a synthetic frame slot. The loop
+//   clears those slots on entry and the first evaluation fills them, so the
+//   expression runs at the same point as before and its errors, if any, are
+//   raised exactly as they would have been.
+// - Strength reduction of division by a power of two into an exact multiplication.
+// - Fusion of the most frequent node shapes into single nodes (see Fuser).
+class Optimizer extends Rewriter {
+    // Globals assigned anywhere in the code this optimizer has seen. A loop that
+    // calls functions can only treat a global as invariant if it is not in here.
+    private final Set<String> assignedGlobals = new HashSet<>();
+    private boolean closedWorld = true;
+
+    private Stmt.Fun function = null;
+    private int scriptSlots;
+
+    // Called when code this optimizer never saw may be running, since that code
+    // could assign any global: a snapshot image, or the lines and files still to
+    // come when each is optimized on its own (the REPL, --snapshot preludes).
+    void openWorld() {
+        closedWorld = false;
+    }
+
+    // Returns the number of slots the top-level frame now needs.
+    int optimize(List<Stmt> stmts, int slotCount) {
+        Effects effects = new Effects(true);
+        for(Stmt stmt : stmts) {
+            effects.scan(stmt);
+        }
+        assignedGlobals.addAll(effects.globals);
+
+        function = null;
+        scriptSlots = slotCount;
+        rewriteAll(stmts);
+        new Fuser().rewriteAll(stmts);
+        return scriptSlots;
+    }
+
+    private int newSlot() {
+        if(function == null) return scriptSlots++;
+        return function.slotCount++;
+    }
+
+    @Override
+    public Stmt visitFunStmt(Stmt.Fun stmt) {
+        Stmt.Fun enclosing = function;
+        function = stmt;
+        rewriteAll(stmt.body);
+        function = enclosing;
+        return stmt;
+    }
+
+    @Override
+    public Expr visitBinaryExpr(Expr.Binary expr) {
+        Expr.Binary binary = (Expr.Binary) super.visitBinaryExpr(expr);
+        if(binary.operator.type != SLASH || !(binary.right instanceof Expr.Literal)) return binary;
+
+        Object divisor = ((Expr.Literal) binary.right).value;
+        if(!(divisor instanceof Double) || !isPowerOfTwo((double) divisor)) return binary;
+
+        Token operator = binary.operator;
+        Token star = new Token(STAR, "*", null, operator.line, operator.offset, operator.column);
+        return new Expr.Binary(binary.left, star, new Expr.Literal(1.0 / (double) divisor));
+    }
+
+    // Both d and 1 / d must be exact, so x / d == x * (1 / d) for every x.
+    private static boolean isPowerOfTwo(double d) {
+        if(d == 0 || Double.isInfinite(d) || Double.isNaN(d)) return false;
+        if(Math.abs(d) != Math.scalb(1.0, Math.getExponent(d))) return false;
+
+        double inverse = 1.0 / d;
+        return !Double.isInfinite(inverse) && Math.abs(inverse) == Math.scalb(1.0, Math.getExponent(inverse));
+    }
+
+    @Override
+    public Stmt visitWhileStmt(Stmt.While stmt) {
+        Stmt.While loop = (Stmt.While) super.visitWhileStmt(stmt);
+
+        Effects effects = new Effects(false);
+        effects.scan(loop.condition);
+        effects.scan(loop.body);
+
+        Hoister hoister = new Hoister(effects);
+        Expr condition = hoister.rewrite(loop.condition);
+        Stmt body = hoister.rewrite(loop.body);
+        if(hoister.slots.isEmpty()) return loop;
+
+        Stmt.While hoisted = new Stmt.While(loop.keyword, condition, body);
+        hoisted.hoisted = new int[hoister.slots.size()];
+        for(int i = 0; i < hoisted.hoisted.length; i++) {
+            hoisted.hoisted[i] = hoister.slots.get(i);
+        }
+
+        return hoisted;
+    }
+
+    // Replaces invariant subexpressions of one loop. Nested function bodies run in
+    // other frames and are left alone; loops nested in this one were already done
+    // and their Hoisted nodes are treated as opaque.
+    private class Hoister extends Rewriter {
+        private final Effects effects;
+        final List<Integer> slots = new ArrayList<>();
+
+        Hoister(Effects effects) {
+            this.effects = effects;
+        }
+
+        @Override
+        Expr rewrite(Expr expr) {
+            if(expr != null && worthHoisting(expr) && isInvariant(expr)) {
+                int slot = newSlot();
+                slots.add(slot);
+                return new Expr.Hoisted(expr, slot);
+            }
+
+            return super.rewrite(expr);
+        }
+
+        @Override
+        public Expr visitHoistedExpr(Expr.Hoisted expr) {
+            return expr;
+        }
+
+        @Override
+        public Stmt visitFunStmt(Stmt.Fun stmt) {
+            return stmt;
+        }
+
+        private boolean worthHoisting(Expr expr) {
+            if(expr instanceof Expr.Binary || expr instanceof Expr.Unary || expr instanceof Expr.Logical) return true;
+            if(expr instanceof Expr.Grouping) return worthHoisting(((Expr.Grouping) expr).expr);
+            if(expr instanceof Expr.Variable) return ((Expr.Variable) expr).kind == Resolver.GLOBAL;
+
+            return false;
+        }
+
+        private boolean isInvariant(Expr expr) {
+            if(expr instanceof Expr.Literal) return true;
+            if(expr instanceof Expr.Grouping) return isInvariant(((Expr.Grouping) expr).expr);
+            if(expr instanceof Expr.Unary) return isInvariant(((Expr.Unary) expr).right);
+
+            if(expr instanceof Expr.Binary) {
+                Expr.Binary binary = (Expr.Binary) expr;
+                return isInvariant(binary.left) && isInvariant(binary.right);
+            }
+
+            if(expr instanceof Expr.Logical) {
+                Expr.Logical logical = (Expr.Logical) expr;
+                return isInvariant(logical.left) && isInvariant(logical.right);
+            }
+
+            if(expr instanceof Expr.Variable) {
+                Expr.Variable variable = (Expr.Variable) expr;
+
+                switch (variable.kind) {
+                    case Resolver.LOCAL:
+                        return !effects.slots.contains(variable.slot);
+                    case Resolver.CELL:
+                        return !effects.calls && !effects.slots.contains(variable.slot);
+                    case Resolver.UPVALUE:
+                        return !effects.calls && !effects.upvalues.contains(variable.slot);
+                    case Resolver.LATE:
+                        return false;
+                }
+
+                String name = variable.name.lexeme;
+                if(effects.globals.contains(name)) return false;
+                return !effects.calls || (closedWorld && !assignedGlobals.contains(name));
+            }
+
+            return false;
+        }
+    }
+
+    // What a piece of code may write, and whether it makes calls. Nested function
+    // bodies are only scanned when descend is set.
+    private static class Effects implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+        private final boolean descend;
+        final Set<Integer> slots = new HashSet<>();
+        final Set<Integer> upvalues = new HashSet<>();
+        final Set<String> globals = new HashSet<>();
+        boolean calls = false;
+
+        Effects(boolean descend) {
+            this.descend = descend;
+        }
+
+        void scan(Expr expr) {
+            if(expr != null) expr.accept(this);
+        }
+
+        void scan(Stmt stmt) {
+            if(stmt != null) stmt.accept(this);
+        }
+
+        private void write(int kind, int slot, Token name) {
+            switch (kind) {
+                case Resolver.LOCAL:
+                case Resolver.CELL:
+                    slots.add(slot);
+                    break;
+                case Resolver.UPVALUE:
+                    upvalues.add(slot);
+                    break;
+                case Resolver.LATE:
+                    upvalues.add(slot);
+                    globals.add(name.lexeme);
+                    break;
+                default:
+                    globals.add(name.lexeme);
+            }
+        }
+
+        public Void visitBinaryExpr(Expr.Binary expr) {
+            scan(expr.left);
+            scan(expr.right);
+            return null;
+        }
+
+        public Void visitUnaryExpr(Expr.Unary expr) {
+            scan(expr.right);
+            return null;
+        }
+
+        public Void visitGroupingExpr(Expr.Grouping expr) {
+            scan(expr.expr);
+            return null;
+        }
+
+        public Void visitLiteralExpr(Expr.Literal expr) {
+            return null;
+        }
+
+        public Void visitVariableExpr(Expr.Variable expr) {
+            return null;
+        }
+
+        public Void visitAssignExpr(Expr.Assign expr) {
+            scan(expr.value);
+            write(expr.kind, expr.slot, expr.name);
+            return null;
+        }
+
+        public Void visitLogicalExpr(Expr.Logical expr) {
+            scan(expr.left);
+            scan(expr.right);
+            return null;
+        }
+
+        public Void visitCallExpr(Expr.Call expr) {
+            calls = true;
+            scan(expr.callee);
+            for(Expr argument : expr.arguments) {
+                scan(argument);
+            }
+
+            return null;
+        }
+
+        // Fields are never candidates for hoisting, so writing one is not an
+        // effect anything here depends on.
+        public Void visitGetExpr(Expr.Get expr) {
+            scan(expr.object);
+            return null;
+        }
+
+        public Void visitSetExpr(Expr.Set expr) {
+            scan(expr.object);
+            scan(expr.value);
+            return null;
+        }
+
+        public Void visitInvokeExpr(Expr.Invoke expr) {
+            calls = true;
+            scan(expr.object);
+            for(Expr argument : expr.arguments) {
+                scan(argument);
+            }
+
+            return null;
+        }
+
+        public Void visitSuperExpr(Expr.Super expr) {
+            return null;
+        }
+
+        public Void visitHoistedExpr(Expr.Hoisted expr) {
+            slots.add(expr.slot);
+            scan(expr.expr);
+            return null;
+        }
+
+        public Void visitIncrementLocalExpr(Expr.IncrementLocal expr) {
+            slots.add(expr.slot);
+            return null;
+        }
+
+        public Void visitCompareLocalExpr(Expr.CompareLocal expr) {
+            scan(expr.fallback);
+            return null;
+        }
+
+        public Void visitPrintStmt(Stmt.Print stmt) {
+            scan(stmt.expression);
+            return null;
+        }
+
+        public Void visitExpressionStmt(Stmt.Expression stmt) {
+            scan(stmt.expression);
+            return null;
+        }
+
+        public Void visitVarStmt(Stmt.Var stmt) {
+            scan(stmt.initializer);
+            write(stmt.slot < 0 ? Resolver.GLOBAL : Resolver.LOCAL, stmt.slot, stmt.name);
+            return null;
+        }
+
+        public Void visitBlockStmt(Stmt.Block stmt) {
+            for(Stmt statement : stmt.statements) {
+                scan(statement);
+            }
+
+            return null;
+        }
+
+        public Void visitIfStmt(Stmt.If stmt) {
+            scan(stmt.condition);
+            scan(stmt.thenBranch);
+            scan(stmt.elseBranch);
+            return null;
+        }
+
+        public Void visitWhileStmt(Stmt.While stmt) {
+            scan(stmt.condition);
+            scan(stmt.body);
+            return null;
+        }
+
+        public Void visitFunStmt(Stmt.Fun stmt) {
+            write(stmt.slot < 0 ? Resolver.GLOBAL : Resolver.LOCAL, stmt.slot, stmt.name);
+            if(!descend) return null;
+
+            for(Stmt statement : stmt.body) {
+                scan(statement);
+            }
+
+            return null;
+        }
+
+        public Void visitClassStmt(Stmt.Class stmt) {
+            write(stmt.slot < 0 ? Resolver.GLOBAL : Resolver.LOCAL, stmt.slot, stmt.name);
+            if(!descend) return null;
+
+            for(Stmt.Fun method : stmt.methods) {
+                for(Stmt statement : method.body) {
+                    scan(statement);
+                }
+            }
+
+            return null;
+        }
+
+        public Void visitReturnStmt(Stmt.Return stmt) {
+            scan(stmt.Value);
+            return null;
+        }
+
+        public Void visitWhileLessStmt(Stmt.WhileLess stmt) {
+            scan(stmt.loop);
+            return null;
+        }
+
+        public Void visitTrapStmt(Stmt.Trap stmt) {
+            scan(stmt.stmt);
+            return null;
+        }
+
+        public Void visitCountStmt(Stmt.Count stmt) {
+            scan(stmt.stmt);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package Jlox;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+// Data-parallel builtins on the common ForkJoinPool:
+//
+//   parallelMap(list, fn)            a new list of fn(element), in order
+//   parallelReduce(list, fn, init)   fn(init, fn(fn(e0, e1), e2) ...) for an associative fn
+//
+// The list is split into ranges and each range runs on a worker Interpreter of its
+// own: its own frames, returns and step allowance, over the same globals and
+// closure code. Workers can read anything but modify only what they created;
+// assigning a global or a variable captured from outside fn, or changing a list
+// or map made outside, is a runtime error. Output from print may interleave.
+class ParallelNatives {
+    // Ranges per pool thread, so that threads that finish early can steal work.
+    private static final int SPLITS_PER_THREAD = 8;
+
+    @LoxNative
+    static Object parallelMap(Interpreter interpreter, Object list, Object fn) {
+        LoxList items = toList(list);
+        LoxCallable function = toFunction(fn, 1, "parallelMap");
+        interpreter.allocate(items.size());
+
+        Object[] results = new Object[items.size()];
+        run(interpreter, function, new MapTask(interpreter, items, function, results, 0, items.size(),
+                grain(items.size())));
+
+        LoxList mapped = new LoxList(interpreter);
+        for(Object result : results) {
+            mapped.add(result);
+        }
+
+        return mapped;
+    }
+
+    @LoxNative
+    static Object parallelReduce(Interpreter interpreter, Object list, Object fn, Object init) {
+        LoxList items = toList(list);
+        LoxCallable function = toFunction(fn, 2, "parallelReduce");
+        if(items.size() == 0) return init;
+
+        Object reduced = run(interpreter, function, new ReduceTask(interpreter, items, function, 0, items.size(),
+                grain(items.size())));
+        return function.call2(interpreter, init, reduced);
+    }
+
+    private static <T> T run(Interpreter interpreter, LoxCallable function, ForkJoinTask<T> task) {
+        if(function instanceof LoxFunction) cacheGlobals(interpreter, ((LoxFunction) function).declaration());
+
+        interpreter.releaseAllowances();
+        return ForkJoinPool.commonPool().invoke(task);
+    }
+
+    private static int grain(int size) {
+        return Math.max(1, size / (ForkJoinPool.getCommonPoolParallelism() * SPLITS_PER_THREAD));
+    }
+
+    // Workers never fill a global reference's cached index, so it is filled here
+    // for fn's own body first. Functions fn calls keep looking globals up by name
+    // in the workers until they have run outside a parallel call.
+    private static void cacheGlobals(Interpreter interpreter, Stmt.Fun declaration) {
+        new Rewriter() {
+            @Override
+            public Expr visitVariableExpr(Expr.Variable expr) {
+                if(expr.kind == Resolver.GLOBAL) interpreter.cacheGlobal(expr);
+                return expr;
+            }
+
+            @Override
+            public Stmt visitWhileLessStmt(Stmt.WhileLess stmt) {
+                rewrite(stmt.loop);
+                rewrite(stmt.limit);
+                return stmt;
+            }
+        }.rewriteAll(declaration.body);
+    }
+
+    private static class MapTask extends RecursiveAction {
+        private final Interpreter parent;
+        private final LoxList items;
+        private final LoxCallable function;
+        private final Object[] results;
+        private final int from;
+        private final int to;
+        private final int grain;
+
+        MapTask(Interpreter parent, LoxList items, LoxCallable function, Object[] results, int from, int to,
+                int grain) {
+            this.parent = parent;
+            this.items = items;
+            this.function = function;
+            this.results = results;
+            this.from = from;
+            this.to = to;
+            this.grain = grain;
+        }
+
+        @Override
+        protected void compute() {
+            if(to - from > grain) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new MapTask(parent, items, function, results, from, middle, grain),
+                        new MapTask(parent, items, function, results, middle, to, grain));
+                return;
+            }
+
+            Interpreter worker = new Interpreter(parent);
+            try {
+                for(int i = from; i < to; i++) {
+                    results[i] = function.call1(worker, items.get(i));
+                }
+            }
+            finally {
+                worker.releaseAllowances();
+            }
+        }
+    }
+
+    private static class ReduceTask extends RecursiveTask<Object> {
+        private final Interpreter parent;
+        private final LoxList items;
+        private final LoxCallable function;
+        private final int from;
+        private final int to;
+        private final int grain;
+
+        ReduceTask(Interpreter parent, LoxList items, LoxCallable function, int from, int to, int grain) {
+            this.parent = parent;
+            this.items = items;
+            this.function = function;
+            this.from = from;
+            this.to = to;
+            this.grain = grain;
+        }
+
+        // Ranges are combined left to right, which is what makes an associative fn
+        // give the same result as a sequential reduce.
+        @Override
+        protected Object compute() {
+            Interpreter worker = new Interpreter(parent);
+            try {
+                if(to - from > grain) {
+                    int middle = (from + to) >>> 1;
+                    ReduceTask first = new ReduceTask(parent, items, function, from, middle, grain);
+                    first.fork();
+                    Object right = new ReduceTask(parent, items, function, middle, to, grain).compute();
+                    return function.call2(worker, first.join(), right);
+                }
+
+                Object reduced = items.get(from);
+                for(int i = from + 1; i < to; i++) {
+                    reduced = function.call2(worker, reduced, items.get(i));
+                }
+
+                return reduced;
+            }
+            finally {
+                worker.releaseAllowances();
+            }
+        }
+    }
+
+    private static LoxList toList(Object value) {
+        if(value instanceof LoxList) return (LoxList) value;
+        throw new NativeFunction.ArgumentError("Argument must be a list");
+    }
+
+    private static LoxCallable toFunction(Object value, int arity, String name) {
+        if(value instanceof LoxCallable && ((LoxCallable) value).arity() == arity) return (LoxCallable) value;
+        throw new NativeFunction.ArgumentError(name + " needs a function of " + arity +
+                (arity == 1 ? " argument" : " arguments"));
+    }
+}
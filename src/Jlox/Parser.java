@@ -3,15 +3,31 @@ package Jlox;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 
 import static Jlox.TokenType.*;
 
 class Parser {
+    private static final int PARALLEL_GRAIN = 4096;
+
+    // Tokens parseParallel parses as one chunk. DifferentialCheck sets it to 1, so
+    // that scripts of any size take the parallel path.
+    int parallelGrain = PARALLEL_GRAIN;
+
     List<Token> tokens;
     private int current = 0;
+    private boolean reportErrors = true;
+    private boolean failed = false;
+    private final Diagnostics diagnostics;
 
     Parser(List<Token> tokens) {
+        this(tokens, new Diagnostics());
+    }
+
+    Parser(List<Token> tokens, Diagnostics diagnostics) {
         this.tokens = tokens;
+        this.diagnostics = diagnostics;
 
 //        System.out.println("Tokens are : ");
 //        for(Token token : tokens) {
@@ -33,11 +49,16 @@ class Parser {
             Token equals = previous();
             Expr value = assignment();
 
-            if(expr instanceof Expr.Variable) {
+            if(expr instanceof Expr.Variable && ((Expr.Variable) expr).name.type == IDENTIFIER) {
                 Token name = ((Expr.Variable) expr).name;
                 return new Expr.Assign(name, value);
             }
 
+            if(expr instanceof Expr.Get) {
+                Expr.Get get = (Expr.Get) expr;
+                return new Expr.Set(get.object, get.name, value);
+            }
+
             error(equals, "Invaid assignment ");
         }
 
@@ -133,9 +154,12 @@ class Parser {
 
         while (true) {
             if (match(LEFT_PAREN)) {
-                System.err.println("Inside finish call1");
                 expr = finishCall(expr);
             }
+            else if(match(DOT)) {
+                Token name = consume(IDENTIFIER, "Expecting property name after .");
+                expr = new Expr.Get(expr, name);
+            }
             else break;
         }
 
@@ -156,6 +180,13 @@ class Parser {
         }
 
         Token paren = consume(RIGHT_PAREN, "Expecting ) in function call");
+
+        // obj.name(args) calls the method without making a bound method first.
+        if(callee instanceof Expr.Get) {
+            Expr.Get get = (Expr.Get) callee;
+            return new Expr.Invoke(get.object, get.name, paren, args);
+        }
+
         return new Expr.Call(callee, paren, args);
     }
 
@@ -177,6 +208,18 @@ class Parser {
             return new Expr.Grouping(expr);
         }
 
+        // this and super are read like variables, which the Resolver puts in
+        // every method's frame.
+        if(match(THIS)) return new Expr.Variable(previous());
+
+        if(match(SUPER)) {
+            Token keyword = previous();
+            consume(DOT, "Expecting . after super.");
+            Token method = consume(IDENTIFIER, "Expecting superclass method name.");
+            Token self = new Token(THIS, "this", null, keyword.line, keyword.offset, keyword.column);
+            return new Expr.Super(keyword, method, new Expr.Variable(keyword), new Expr.Variable(self));
+        }
+
         if(match(IDENTIFIER)) {
             return new Expr.Variable(previous());
         }
@@ -192,7 +235,8 @@ class Parser {
     }
 
     private ParseError error(Token token, String message) {
-        Lox.error(token.line, message);
+        failed = true;
+        if(reportErrors) diagnostics.error(token, message);
         return new ParseError();
     }
 
@@ -235,23 +279,57 @@ class Parser {
 
         while (!isAtEnd()) {
             if(previous().type == EOF) return;
+            if(isDeclarationStart(peek().type)) return;
+
+            advance();
+        }
+
+    }
+
+    static boolean isDeclarationStart(TokenType type) {
+        switch (type) {
+            case CLASS:
+            case FOR:
+            case WHILE:
+            case VAR:
+            case IF:
+            case FUN:
+            case PRINT:
+            case RETURN:
+                return true;
+        }
 
-            switch (peek().type) {
-                case CLASS:
-                case FOR:
-                case WHILE:
-                case VAR:
-                case IF:
-                case FUN:
-                case PRINT:
-                case RETURN:
-                    return;
+        return false;
+    }
 
+    // Token indices at which a top-level statement starts: a declaration keyword
+    // right after a ';' or '}' that leaves both brace and paren depth at zero.
+    static List<Integer> topLevelBoundaries(List<Token> tokens) {
+        List<Integer> boundaries = new ArrayList<>();
+        boundaries.add(0);
+
+        int depth = 0;
+        for(int i = 0; i < tokens.size() - 1; i++) {
+            TokenType type = tokens.get(i).type;
+
+            switch (type) {
+                case LEFT_BRACE:
+                case LEFT_PAREN:
+                    depth++;
+                    break;
+                case RIGHT_BRACE:
+                case RIGHT_PAREN:
+                    depth--;
+                    break;
             }
 
-            advance();
+            if(depth == 0 && (type == SEMICOLON || type == RIGHT_BRACE)
+                    && isDeclarationStart(tokens.get(i + 1).type)) {
+                boundaries.add(i + 1);
+            }
         }
 
+        return boundaries;
     }
 
 //    Expr parse() {
@@ -288,6 +366,7 @@ class Parser {
     }
 
     private Stmt forStatement() {
+        Token keyword = previous();
         consume(LEFT_PAREN, "Expecting ( after for.");
         Stmt initializer;
 
@@ -321,7 +400,7 @@ class Parser {
         }
 
         if(condition == null) condition = new Expr.Literal(true);
-        body = new Stmt.While(condition, body);
+        body = new Stmt.While(keyword, condition, body);
 
         if(initializer != null) {
             body = new Stmt.Block(Arrays.asList(initializer, body));
@@ -331,13 +410,14 @@ class Parser {
     }
 
     private Stmt whileStatement() {
+        Token keyword = previous();
         consume(LEFT_PAREN, "Expecting ( after while.");
         Expr condition = expression();
         consume(RIGHT_PAREN, "Expecting ) after while condition");
 
         Stmt body = statement();
 
-        return new Stmt.While(condition, body);
+        return new Stmt.While(keyword, condition, body);
     }
 
     private Stmt ifStatement() {
@@ -366,10 +446,11 @@ class Parser {
     }
 
     private Stmt printStmt() {
+        Token keyword = previous();
         Expr expr = expression();
 
         consume(SEMICOLON, "Expecting ; after value.");
-        return new Stmt.Print(expr);
+        return new Stmt.Print(keyword, expr);
     }
 
     private Stmt exprStmt() {
@@ -381,6 +462,7 @@ class Parser {
 
     private Stmt declaration() {
         try {
+            if(match(CLASS)) return classDeclaration();
             if(match(VAR)) return varDeclaration();
             if(match(FUN)) return function("function");
             return statement();
@@ -392,7 +474,27 @@ class Parser {
 
     }
 
-    private Stmt function(String kind) {
+    private Stmt classDeclaration() {
+        Token name = consume(IDENTIFIER, "Expecting class name.");
+
+        Expr.Variable superclass = null;
+        if(match(LESS)) {
+            consume(IDENTIFIER, "Expecting superclass name.");
+            superclass = new Expr.Variable(previous());
+        }
+
+        consume(LEFT_BRACE, "Expecting { before class body.");
+
+        List<Stmt.Fun> methods = new ArrayList<>();
+        while (!check(RIGHT_BRACE) && !isAtEnd()) {
+            methods.add(function("method"));
+        }
+
+        consume(RIGHT_BRACE, "Expecting } after class body.");
+        return new Stmt.Class(name, superclass, methods);
+    }
+
+    private Stmt.Fun function(String kind) {
         Token name = consume(IDENTIFIER, "Expecting " + kind + "name.");
         consume(LEFT_PAREN, "Expecting ( after function name");
 
@@ -444,6 +546,61 @@ class Parser {
             return null;
         }
     }
+
+    // Splits the tokens at top-level statement boundaries and parses the chunks
+    // on the fork-join pool. If any chunk fails, the whole list is parsed again
+    // sequentially so errors are reported exactly as parse() reports them.
+    List<Stmt> parseParallel() {
+        if(tokens.size() < parallelGrain * 2) return parse();
+
+        List<Integer> boundaries = topLevelBoundaries(tokens);
+        boundaries.add(tokens.size() - 1);
+
+        List<Stmt> stmts = ForkJoinPool.commonPool().invoke(new ChunkTask(boundaries, 0, boundaries.size() - 1));
+        if(stmts == null) return parse();
+
+        return stmts;
+    }
+
+    private class ChunkTask extends RecursiveTask<List<Stmt>> {
+        private final List<Integer> boundaries;
+        private final int from;
+        private final int to;
+
+        ChunkTask(List<Integer> boundaries, int from, int to) {
+            this.boundaries = boundaries;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected List<Stmt> compute() {
+            int start = boundaries.get(from);
+            int end = boundaries.get(to);
+
+            if(to - from == 1 || end - start <= parallelGrain) {
+                List<Token> chunk = new ArrayList<>(tokens.subList(start, end));
+                chunk.add(tokens.get(tokens.size() - 1));
+
+                Parser parser = new Parser(chunk);
+                parser.reportErrors = false;
+                List<Stmt> stmts = parser.parse();
+
+                return parser.failed ? null : stmts;
+            }
+
+            int middle = (from + to) >>> 1;
+            ChunkTask right = new ChunkTask(boundaries, middle, to);
+            right.fork();
+
+            List<Stmt> left = new ChunkTask(boundaries, from, middle).compute();
+            List<Stmt> rest = right.join();
+            if(left == null || rest == null) return null;
+
+            left.addAll(rest);
+            return left;
+        }
+    }
 }
 
 
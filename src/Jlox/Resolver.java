@@ -1,5 +1,599 @@
 package Jlox;
 
-public class Resolver {
-    
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Stack;
+
+// Lays out one flat frame per function call (and one for the top-level script) and
+// works out which locals are captured by nested functions. Captured locals live in
+// a Cell stored in their slot; a nested function gets those cells as upvalues and
+// never holds on to the frame itself. Names not found in any function are globals.
+// A nested function's use of a name that an enclosing scope only declares later
+// is LATE: an upvalue for a cell that scope makes when it starts, which reads as
+// the global of that name until the declaration has run, as looking names up at
+// run time used to. A captured local declared twice in one scope also gets its
+// cell when the scope starts, so closures over it see the second declaration.
+// A method gets two more locals after its parameters, this and super, which
+// LoxFunction.invoke fills from the bound instance and the class.
+// Each function also records its first effect, if any: a write to state it does
+// not own (a global, a variable captured from outside it, an instance field), a
+// print, a method call or a call of anything but a name, a read of a global other
+// than to call it, or a read of a captured variable that is assigned somewhere.
+// memoize refuses functions that have one, and checks what they call by name when
+// it is called (see MemoizedFunction.check).
+class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    static final int GLOBAL  = 0;
+    static final int LOCAL   = 1;
+    static final int CELL    = 2;
+    static final int UPVALUE = 3;
+    static final int LATE    = 4;
+
+    private static class Local {
+        final int slot;
+        boolean captured = false;
+        boolean param = false;
+        boolean assigned = false;
+        // Nested functions reading it, each an effect if it is assigned.
+        final List<Read> reads = new ArrayList<>();
+        // Some nested function's use was bound to it as LATE.
+        boolean late = false;
+        final List<Expr> uses = new ArrayList<>();
+        final List<Stmt> declarations = new ArrayList<>();
+
+        Local(int slot) {
+            this.slot = slot;
+        }
+    }
+
+    private static class Read {
+        final FunctionScope function;
+        final Token name;
+
+        Read(FunctionScope function, Token name) {
+            this.function = function;
+            this.name = name;
+        }
+    }
+
+    // A LATE candidate: a nested function's use of a name no enclosing scope had
+    // declared yet. It waits in every scope open around it until one declares it.
+    private static class Pending {
+        final Expr use;
+        final FunctionScope function;
+        boolean bound = false;
+
+        Pending(Expr use, FunctionScope function) {
+            this.use = use;
+            this.function = function;
+        }
+    }
+
+    private static class FunctionScope {
+        final FunctionScope enclosing;
+        final Stmt.Fun stmt;
+        final Stack<Map<String, Local>> scopes = new Stack<>();
+        final Stack<Map<String, List<Pending>>> pending = new Stack<>();
+        final List<Local> locals = new ArrayList<>();
+        final List<Integer> upvalues = new ArrayList<>();
+        final Map<String, Integer> upvalueIndex = new HashMap<>();
+        int nextSlot = 0;
+        int slotCount = 0;
+        boolean initializer = false;
+        Token effect = null;
+
+        FunctionScope(FunctionScope enclosing, Stmt.Fun stmt) {
+            this.enclosing = enclosing;
+            this.stmt = stmt;
+        }
+    }
+
+    private FunctionScope function = new FunctionScope(null, null);
+    private Stmt.Class currentClass = null;
+    private final Diagnostics diagnostics;
+
+    Resolver() {
+        this(new Diagnostics());
+    }
+
+    Resolver(Diagnostics diagnostics) {
+        this.diagnostics = diagnostics;
+    }
+
+    // Returns the number of slots the top-level frame needs.
+    int resolve(List<Stmt> stmts) {
+        resolveAll(stmts);
+        finish(function);
+        return function.slotCount;
+    }
+
+    private void resolve(Stmt stmt) {
+        stmt.accept(this);
+    }
+
+    private void resolve(Expr expr) {
+        expr.accept(this);
+    }
+
+    // A statement the Parser could not parse is null; the rest are still resolved,
+    // so that their errors are reported along with the parse errors.
+    private void resolveAll(List<Stmt> stmts) {
+        for(Stmt stmt : stmts) {
+            if(stmt != null) resolve(stmt);
+        }
+    }
+
+    private void beginScope() {
+        function.scopes.push(new HashMap<String, Local>());
+        function.pending.push(new HashMap<String, List<Pending>>());
+    }
+
+    // Slots of a finished block are handed out again to the next one. Returns the
+    // slots that get their cells when the scope starts, or null if none do.
+    private int[] endScope() {
+        Map<String, Local> scope = function.scopes.pop();
+        function.pending.pop();
+        function.nextSlot -= scope.size();
+
+        List<Integer> cells = new ArrayList<>();
+        for(Local local : scope.values()) {
+            int declared = local.declarations.size() + (local.param ? 1 : 0);
+            if(!local.late && !(local.captured && declared > 1)) continue;
+
+            for(Stmt declaration : local.declarations) {
+                if(declaration instanceof Stmt.Var) ((Stmt.Var) declaration).boxed = true;
+                else if(declaration instanceof Stmt.Class) ((Stmt.Class) declaration).boxed = true;
+                else ((Stmt.Fun) declaration).boxed = true;
+            }
+
+            // A captured parameter's cell is made on entry already.
+            if(!local.param) cells.add(local.slot);
+        }
+
+        return cells.isEmpty() ? null : toArray(cells);
+    }
+
+    // Redeclaring a name in the same scope reuses its slot.
+    private Local declare(Token name) {
+        if(function.scopes.isEmpty()) return null;
+
+        Map<String, Local> scope = function.scopes.peek();
+        Local local = scope.get(name.lexeme);
+        if(local == null) {
+            local = new Local(function.nextSlot++);
+            function.slotCount = Math.max(function.slotCount, function.nextSlot);
+            function.locals.add(local);
+            scope.put(name.lexeme, local);
+        }
+
+        List<Pending> waiting = function.pending.peek().remove(name.lexeme);
+        if(waiting != null) {
+            for(Pending pending : waiting) {
+                if(!pending.bound) bindLate(pending, local);
+            }
+        }
+
+        return local;
+    }
+
+    // A use that findUpvalue left as a global, in a function nested in a scope.
+    private void defer(Expr use, Token name) {
+        if(function.enclosing == null) return;
+
+        Pending pending = new Pending(use, function);
+        for(FunctionScope scope = function.enclosing; scope != null; scope = scope.enclosing) {
+            for(Map<String, List<Pending>> waiting : scope.pending) {
+                waiting.computeIfAbsent(name.lexeme, key -> new ArrayList<>()).add(pending);
+            }
+        }
+    }
+
+    // The functions from the use out to the declaring one are all resolved by now,
+    // so their upvalue lists are written out again with the new entries.
+    private void bindLate(Pending pending, Local local) {
+        String name = pending.use instanceof Expr.Variable
+                ? ((Expr.Variable) pending.use).name.lexeme : ((Expr.Assign) pending.use).name.lexeme;
+        int slot = findUpvalue(pending.function, name);
+
+        if(pending.use instanceof Expr.Variable) {
+            ((Expr.Variable) pending.use).kind = LATE;
+            ((Expr.Variable) pending.use).slot = slot;
+        }
+        else {
+            ((Expr.Assign) pending.use).kind = LATE;
+            ((Expr.Assign) pending.use).slot = slot;
+        }
+
+        for(FunctionScope scope = pending.function; scope != function; scope = scope.enclosing) {
+            scope.stmt.upvalues = toArray(scope.upvalues);
+        }
+
+        local.late = true;
+        pending.bound = true;
+    }
+
+    // Once a function is fully resolved we know which of its locals were captured,
+    // so uses of those can be pointed at the cell.
+    private void finish(FunctionScope scope) {
+        for(Local local : scope.locals) {
+            if(!local.captured) continue;
+
+            if(local.assigned || local.declarations.size() > 1) {
+                for(Read read : local.reads) {
+                    effect(read.name, read.function, scope);
+                }
+            }
+
+            for(Expr use : local.uses) {
+                if(use instanceof Expr.Variable) ((Expr.Variable) use).kind = CELL;
+                else ((Expr.Assign) use).kind = CELL;
+            }
+
+            for(Stmt declaration : local.declarations) {
+                if(declaration instanceof Stmt.Var) ((Stmt.Var) declaration).captured = true;
+                else if(declaration instanceof Stmt.Class) ((Stmt.Class) declaration).captured = true;
+                else ((Stmt.Fun) declaration).captured = true;
+            }
+        }
+    }
+
+    private Local findLocal(FunctionScope scope, String name) {
+        for(int i = scope.scopes.size() - 1; i >= 0; i--) {
+            Local local = scope.scopes.get(i).get(name);
+            if(local != null) return local;
+        }
+
+        return null;
+    }
+
+    // Index of name among scope's upvalues, adding it (and any upvalues it needs in
+    // the functions in between) the first time; -1 if the name is a global.
+    private int findUpvalue(FunctionScope scope, String name) {
+        if(scope.enclosing == null) return -1;
+
+        Integer known = scope.upvalueIndex.get(name);
+        if(known != null) return known;
+
+        int source;
+        Local local = findLocal(scope.enclosing, name);
+        if(local != null) {
+            local.captured = true;
+            source = local.slot;
+        }
+        else {
+            int index = findUpvalue(scope.enclosing, name);
+            if(index < 0) return -1;
+            source = -1 - index;
+        }
+
+        scope.upvalues.add(source);
+        scope.upvalueIndex.put(name, scope.upvalues.size() - 1);
+        return scope.upvalues.size() - 1;
+    }
+
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        beginScope();
+        resolveAll(stmt.statements);
+        stmt.cells = endScope();
+        return null;
+    }
+
+    public Void visitVarStmt(Stmt.Var stmt) {
+        if(stmt.initializer != null) {
+            resolve(stmt.initializer);
+        }
+
+        Local local = declare(stmt.name);
+        if(local != null) {
+            local.declarations.add(stmt);
+            stmt.slot = local.slot;
+        }
+
+        return null;
+    }
+
+    public Void visitFunStmt(Stmt.Fun stmt) {
+        Local self = declare(stmt.name);
+        if(self != null) {
+            self.declarations.add(stmt);
+            stmt.slot = self.slot;
+        }
+
+        resolveFunction(stmt, false);
+        return null;
+    }
+
+    private void resolveFunction(Stmt.Fun stmt, boolean method) {
+        FunctionScope scope = new FunctionScope(function, stmt);
+        scope.initializer = method && stmt.name.lexeme.equals("init");
+        function = scope;
+
+        beginScope();
+        List<Local> params = new ArrayList<>();
+        for(Token param : stmt.params) {
+            Local local = declare(param);
+            local.param = true;
+            params.add(local);
+        }
+
+        if(method) {
+            Local receiver = declare(new Token(TokenType.THIS, "this", null, stmt.name.line));
+            params.add(receiver);
+            params.add(declare(new Token(TokenType.SUPER, "super", null, stmt.name.line)));
+            stmt.thisSlot = receiver.slot;
+        }
+
+        resolveAll(stmt.body);
+        stmt.cells = endScope();
+
+        function = scope.enclosing;
+        finish(scope);
+
+        List<Integer> captured = new ArrayList<>();
+        for(Local param : params) {
+            if(param.captured && !captured.contains(param.slot)) captured.add(param.slot);
+        }
+
+        stmt.slotCount = scope.slotCount;
+        stmt.capturedParams = toArray(captured);
+        stmt.upvalues = toArray(scope.upvalues);
+    }
+
+    // Records an effect at token in every function from the given one out to, but
+    // not including, owner, the function whose variable it is (null for globals,
+    // fields and output). Functions already resolved get it on their Stmt too.
+    private void effect(Token token, FunctionScope from, FunctionScope owner) {
+        for(FunctionScope scope = from; scope != owner && scope.enclosing != null; scope = scope.enclosing) {
+            if(scope.effect != null) continue;
+
+            scope.effect = token;
+            scope.stmt.effect = token;
+        }
+    }
+
+    // The function that declares name as a local, seen from the current one.
+    private FunctionScope owner(String name) {
+        FunctionScope owner = function.enclosing;
+        while(owner != null && findLocal(owner, name) == null) {
+            owner = owner.enclosing;
+        }
+
+        return owner;
+    }
+
+    public Void visitClassStmt(Stmt.Class stmt) {
+        Local self = declare(stmt.name);
+        if(self != null) {
+            self.declarations.add(stmt);
+            stmt.slot = self.slot;
+        }
+
+        if(stmt.superclass != null) {
+            if(stmt.superclass.name.lexeme.equals(stmt.name.lexeme)) {
+                diagnostics.error(stmt.superclass.name, "A class cannot inherit from itself.");
+            }
+
+            resolve(stmt.superclass);
+        }
+
+        Stmt.Class enclosing = currentClass;
+        currentClass = stmt;
+        for(Stmt.Fun method : stmt.methods) {
+            resolveFunction(method, true);
+        }
+        currentClass = enclosing;
+
+        return null;
+    }
+
+    private static int[] toArray(List<Integer> list) {
+        int[] array = new int[list.size()];
+        for(int i = 0; i < array.length; i++) {
+            array[i] = list.get(i);
+        }
+
+        return array;
+    }
+
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        resolve(stmt.expression);
+        return null;
+    }
+
+    public Void visitIfStmt(Stmt.If stmt) {
+        resolve(stmt.condition);
+        resolve(stmt.thenBranch);
+        if(stmt.elseBranch != null) resolve(stmt.elseBranch);
+        return null;
+    }
+
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        resolve(stmt.expression);
+        effect(stmt.keyword, function, null);
+        return null;
+    }
+
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        if(function.enclosing == null) {
+            diagnostics.error(stmt.keyword, "Cannot return from top-level code.");
+        }
+
+        if(function.initializer && stmt.Value != null) {
+            diagnostics.error(stmt.keyword, "Cannot return a value from an initializer.");
+        }
+
+        if(stmt.Value != null) resolve(stmt.Value);
+        return null;
+    }
+
+    public Void visitWhileStmt(Stmt.While stmt) {
+        resolve(stmt.condition);
+        resolve(stmt.body);
+        return null;
+    }
+
+    public Void visitWhileLessStmt(Stmt.WhileLess stmt) {
+        resolve(stmt.loop);
+        return null;
+    }
+
+    public Void visitTrapStmt(Stmt.Trap stmt) {
+        resolve(stmt.stmt);
+        return null;
+    }
+
+    public Void visitCountStmt(Stmt.Count stmt) {
+        resolve(stmt.stmt);
+        return null;
+    }
+
+    public Void visitVariableExpr(Expr.Variable expr) {
+        resolveVariable(expr, false);
+        return null;
+    }
+
+    // A LOCAL use may still become CELL in finish(). A global read to call it is
+    // not an effect; memoize checks the function it finds there.
+    private void resolveVariable(Expr.Variable expr, boolean callee) {
+        if(expr.name.type == TokenType.THIS && currentClass == null) {
+            diagnostics.error(expr.name, "Cannot use this outside of a class.");
+        }
+
+        Local local = findLocal(function, expr.name.lexeme);
+        if(local != null) {
+            local.uses.add(expr);
+            expr.kind = LOCAL;
+            expr.slot = local.slot;
+            return;
+        }
+
+        expr.slot = findUpvalue(function, expr.name.lexeme);
+        expr.kind = expr.slot < 0 ? GLOBAL : UPVALUE;
+
+        if(expr.kind == UPVALUE) {
+            findLocal(owner(expr.name.lexeme), expr.name.lexeme).reads.add(new Read(function, expr.name));
+            return;
+        }
+
+        defer(expr, expr.name);
+        if(!callee) effect(expr.name, function, null);
+    }
+
+    public Void visitAssignExpr(Expr.Assign expr) {
+        resolve(expr.value);
+
+        Local local = findLocal(function, expr.name.lexeme);
+        if(local != null) {
+            local.uses.add(expr);
+            local.assigned = true;
+            expr.kind = LOCAL;
+            expr.slot = local.slot;
+            return null;
+        }
+
+        expr.slot = findUpvalue(function, expr.name.lexeme);
+        expr.kind = expr.slot < 0 ? GLOBAL : UPVALUE;
+        if(expr.kind == GLOBAL) defer(expr, expr.name);
+
+        FunctionScope owner = owner(expr.name.lexeme);
+        if(owner != null) findLocal(owner, expr.name.lexeme).assigned = true;
+        effect(expr.name, function, owner);
+        return null;
+    }
+
+    public Void visitGetExpr(Expr.Get expr) {
+        resolve(expr.object);
+        return null;
+    }
+
+    public Void visitSetExpr(Expr.Set expr) {
+        resolve(expr.object);
+        resolve(expr.value);
+        effect(expr.name, function, null);
+        return null;
+    }
+
+    public Void visitInvokeExpr(Expr.Invoke expr) {
+        resolve(expr.object);
+        effect(expr.name, function, null);
+
+        for(Expr argument : expr.arguments) {
+            resolve(argument);
+        }
+
+        return null;
+    }
+
+    public Void visitSuperExpr(Expr.Super expr) {
+        if(currentClass == null) {
+            diagnostics.error(expr.keyword, "Cannot use super outside of a class.");
+            return null;
+        }
+
+        if(currentClass.superclass == null) {
+            diagnostics.error(expr.keyword, "Cannot use super in a class with no superclass.");
+        }
+
+        resolve(expr.superclass);
+        resolve(expr.receiver);
+        return null;
+    }
+
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        resolve(expr.left);
+        resolve(expr.right);
+        return null;
+    }
+
+    public Void visitCallExpr(Expr.Call expr) {
+        if(expr.callee instanceof Expr.Variable) {
+            resolveVariable((Expr.Variable) expr.callee, true);
+        }
+        else {
+            resolve(expr.callee);
+            effect(expr.paren, function, null);
+        }
+
+        for(Expr argument : expr.arguments) {
+            resolve(argument);
+        }
+
+        return null;
+    }
+
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        resolve(expr.expr);
+        return null;
+    }
+
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        return null;
+    }
+
+    public Void visitHoistedExpr(Expr.Hoisted expr) {
+        resolve(expr.expr);
+        return null;
+    }
+
+    public Void visitIncrementLocalExpr(Expr.IncrementLocal expr) {
+        resolve(expr.fallback);
+        return null;
+    }
+
+    public Void visitCompareLocalExpr(Expr.CompareLocal expr) {
+        resolve(expr.fallback);
+        return null;
+    }
+
+    public Void visitLogicalExpr(Expr.Logical expr) {
+        resolve(expr.left);
+        resolve(expr.right);
+        return null;
+    }
+
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        resolve(expr.right);
+        return null;
+    }
 }
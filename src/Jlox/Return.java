@@ -1,7 +1,9 @@
 package Jlox;
 
+// Each Interpreter throws a single instance of this, so returning allocates nothing.
+// It carries no stack trace, and the value is read as soon as it is caught.
 public class Return extends RuntimeException {
-    final Object value;
+    Object value;
 
     Return(Object value) {
         super(null, null, false, false);
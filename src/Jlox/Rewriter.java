@@ -0,0 +1,232 @@
+package Jlox;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Rebuilds a tree bottom-up, sharing every node whose children did not change and
+// copying the resolved fields onto the ones it rebuilds. Statement lists are
+// rewritten in place. Subclasses override the visit methods for what they rewrite.
+// Fused nodes are made by the last pass (see Fuser) and are left as they are.
+abstract class Rewriter implements Expr.Visitor<Expr>, Stmt.Visitor<Stmt> {
+
+    Expr rewrite(Expr expr) {
+        return expr == null ? null : expr.accept(this);
+    }
+
+    Stmt rewrite(Stmt stmt) {
+        return stmt == null ? null : stmt.accept(this);
+    }
+
+    void rewriteAll(List<Stmt> stmts) {
+        for(int i = 0; i < stmts.size(); i++) {
+            Stmt stmt = stmts.get(i);
+            Stmt rewritten = rewrite(stmt);
+            if(rewritten != stmt) stmts.set(i, rewritten);
+        }
+    }
+
+    public Expr visitBinaryExpr(Expr.Binary expr) {
+        Expr left = rewrite(expr.left);
+        Expr right = rewrite(expr.right);
+        if(left == expr.left && right == expr.right) return expr;
+
+        return new Expr.Binary(left, expr.operator, right);
+    }
+
+    public Expr visitUnaryExpr(Expr.Unary expr) {
+        Expr right = rewrite(expr.right);
+        if(right == expr.right) return expr;
+
+        return new Expr.Unary(expr.operator, right);
+    }
+
+    public Expr visitGroupingExpr(Expr.Grouping expr) {
+        Expr inner = rewrite(expr.expr);
+        if(inner == expr.expr) return expr;
+
+        return new Expr.Grouping(inner);
+    }
+
+    public Expr visitLiteralExpr(Expr.Literal expr) {
+        return expr;
+    }
+
+    public Expr visitVariableExpr(Expr.Variable expr) {
+        return expr;
+    }
+
+    public Expr visitAssignExpr(Expr.Assign expr) {
+        Expr value = rewrite(expr.value);
+        if(value == expr.value) return expr;
+
+        Expr.Assign assign = new Expr.Assign(expr.name, value);
+        assign.kind = expr.kind;
+        assign.slot = expr.slot;
+        return assign;
+    }
+
+    public Expr visitLogicalExpr(Expr.Logical expr) {
+        Expr left = rewrite(expr.left);
+        Expr right = rewrite(expr.right);
+        if(left == expr.left && right == expr.right) return expr;
+
+        return new Expr.Logical(left, expr.operator, right);
+    }
+
+    public Expr visitCallExpr(Expr.Call expr) {
+        Expr callee = rewrite(expr.callee);
+        boolean changed = callee != expr.callee;
+
+        List<Expr> arguments = new ArrayList<>();
+        for(Expr argument : expr.arguments) {
+            Expr rewritten = rewrite(argument);
+            changed |= rewritten != argument;
+            arguments.add(rewritten);
+        }
+
+        if(!changed) return expr;
+        return new Expr.Call(callee, expr.paren, arguments);
+    }
+
+    public Expr visitGetExpr(Expr.Get expr) {
+        Expr object = rewrite(expr.object);
+        if(object == expr.object) return expr;
+
+        return new Expr.Get(object, expr.name);
+    }
+
+    public Expr visitSetExpr(Expr.Set expr) {
+        Expr object = rewrite(expr.object);
+        Expr value = rewrite(expr.value);
+        if(object == expr.object && value == expr.value) return expr;
+
+        return new Expr.Set(object, expr.name, value);
+    }
+
+    public Expr visitInvokeExpr(Expr.Invoke expr) {
+        Expr object = rewrite(expr.object);
+        boolean changed = object != expr.object;
+
+        List<Expr> arguments = new ArrayList<>();
+        for(Expr argument : expr.arguments) {
+            Expr rewritten = rewrite(argument);
+            changed |= rewritten != argument;
+            arguments.add(rewritten);
+        }
+
+        if(!changed) return expr;
+        return new Expr.Invoke(object, expr.name, expr.paren, arguments);
+    }
+
+    public Expr visitSuperExpr(Expr.Super expr) {
+        return expr;
+    }
+
+    public Expr visitHoistedExpr(Expr.Hoisted expr) {
+        Expr inner = rewrite(expr.expr);
+        if(inner == expr.expr) return expr;
+
+        return new Expr.Hoisted(inner, expr.slot);
+    }
+
+    public Expr visitIncrementLocalExpr(Expr.IncrementLocal expr) {
+        return expr;
+    }
+
+    public Expr visitCompareLocalExpr(Expr.CompareLocal expr) {
+        return expr;
+    }
+
+    public Stmt visitPrintStmt(Stmt.Print stmt) {
+        Expr expression = rewrite(stmt.expression);
+        if(expression == stmt.expression) return stmt;
+
+        return new Stmt.Print(stmt.keyword, expression);
+    }
+
+    public Stmt visitExpressionStmt(Stmt.Expression stmt) {
+        Expr expression = rewrite(stmt.expression);
+        if(expression == stmt.expression) return stmt;
+
+        return new Stmt.Expression(expression);
+    }
+
+    public Stmt visitVarStmt(Stmt.Var stmt) {
+        Expr initializer = rewrite(stmt.initializer);
+        if(initializer == stmt.initializer) return stmt;
+
+        Stmt.Var var = new Stmt.Var(stmt.name, initializer);
+        var.slot = stmt.slot;
+        var.captured = stmt.captured;
+        var.boxed = stmt.boxed;
+        return var;
+    }
+
+    public Stmt visitBlockStmt(Stmt.Block stmt) {
+        rewriteAll(stmt.statements);
+        return stmt;
+    }
+
+    public Stmt visitIfStmt(Stmt.If stmt) {
+        Expr condition = rewrite(stmt.condition);
+        Stmt thenBranch = rewrite(stmt.thenBranch);
+        Stmt elseBranch = rewrite(stmt.elseBranch);
+        if(condition == stmt.condition && thenBranch == stmt.thenBranch && elseBranch == stmt.elseBranch) {
+            return stmt;
+        }
+
+        return new Stmt.If(condition, thenBranch, elseBranch);
+    }
+
+    public Stmt visitWhileStmt(Stmt.While stmt) {
+        Expr condition = rewrite(stmt.condition);
+        Stmt body = rewrite(stmt.body);
+        if(condition == stmt.condition && body == stmt.body) return stmt;
+
+        Stmt.While loop = new Stmt.While(stmt.keyword, condition, body);
+        loop.hoisted = stmt.hoisted;
+        return loop;
+    }
+
+    public Stmt visitFunStmt(Stmt.Fun stmt) {
+        rewriteAll(stmt.body);
+        return stmt;
+    }
+
+    public Stmt visitClassStmt(Stmt.Class stmt) {
+        for(Stmt.Fun method : stmt.methods) {
+            rewrite(method);
+        }
+
+        return stmt;
+    }
+
+    public Stmt visitReturnStmt(Stmt.Return stmt) {
+        Expr value = rewrite(stmt.Value);
+        if(value == stmt.Value) return stmt;
+
+        return new Stmt.Return(stmt.keyword, value);
+    }
+
+    public Stmt visitWhileLessStmt(Stmt.WhileLess stmt) {
+        return stmt;
+    }
+
+    public Stmt visitTrapStmt(Stmt.Trap stmt) {
+        Stmt inner = rewrite(stmt.stmt);
+        if(inner == stmt.stmt) return stmt;
+
+        Stmt.Trap trap = new Stmt.Trap(inner, stmt.site);
+        trap.breakpoint = stmt.breakpoint;
+        return trap;
+    }
+
+    public Stmt visitCountStmt(Stmt.Count stmt) {
+        Stmt inner = rewrite(stmt.stmt);
+        if(inner == stmt.stmt) return stmt;
+
+        Stmt.Count count = new Stmt.Count(inner, stmt.id);
+        count.counters = stmt.counters;
+        return count;
+    }
+}
@@ -13,12 +13,45 @@ public class Scanner {
     int start = 0;
     int current = 0;
     int line = 1;
+    int end;
+    // Offset of source in the file it came from.
+    int base;
+    // Offset the current line starts at, and the line and column the current token
+    // starts at.
+    int lineStart;
+    int startLine;
+    int column;
+
+    // Set when a comment or string literal runs into the end of the scanned range.
+    boolean truncated = false;
+    boolean reportErrors = true;
+    boolean failed = false;
+    final Diagnostics diagnostics;
 
     HashMap<String, TokenType> keywords;
 
 
     Scanner(String source) {
+        this(source, new Diagnostics());
+    }
+
+    Scanner(String source, Diagnostics diagnostics) {
+        this(source, 0, 1, 1, diagnostics);
+    }
+
+    // Scans source as a piece of a larger file that starts at the given offset, line
+    // and column of it, and numbers the tokens as positions in that file.
+    Scanner(String source, int offset, int line, int column) {
+        this(source, offset, line, column, new Diagnostics());
+    }
+
+    Scanner(String source, int offset, int line, int column, Diagnostics diagnostics) {
         this.source = source;
+        this.end = source.length();
+        this.base = offset;
+        this.line = line;
+        this.lineStart = 1 - column;
+        this.diagnostics = diagnostics;
         tokens = new ArrayList<>();
         keywords = new HashMap<>();
         initKeywords();
@@ -44,16 +77,18 @@ public class Scanner {
     }
 
     private boolean isAtEnd() {
-        return current >= source.length();
+        return current >= end;
     }
 
     List<Token> scanTokens() {
         while (!isAtEnd()) {
             start = current;
+            startLine = line;
+            column = start - lineStart + 1;
             scanToken();
         }
 
-        tokens.add(new Token(EOF, "", null, line));
+        tokens.add(new Token(EOF, "", null, line, base + end, end - lineStart + 1));
         return tokens;
     }
 
@@ -78,6 +113,7 @@ public class Scanner {
             case '/' :
                 if(match('/')) {
                     while (peek() != '\n' && !isAtEnd()) advance();
+                    if(isAtEnd()) truncated = true;
                 }
                 else {
                     addToken(SLASH);
@@ -89,6 +125,7 @@ public class Scanner {
                 break;
             case '\n':
                 line++;
+                lineStart = current;
                 break;
 
             case '"' : string(); break;
@@ -100,7 +137,7 @@ public class Scanner {
                 else if(isAlpha(c)) {
                     identifier();
                 }
-                else Lox.error(line, "Unknown character"); break;
+                else error("Unknown character"); break;
         }
 
     }
@@ -145,7 +182,7 @@ public class Scanner {
     }
 
     private char peekNext() {
-        if(current + 1 >= source.length()) return '\0';
+        if(current + 1 >= end) return '\0';
         return source.charAt(current + 1);
     }
 
@@ -155,12 +192,16 @@ public class Scanner {
 
     private void string() {
         while (peek() != '"' && !isAtEnd()) {
-            if(peek() == '\n') line++;
+            if(peek() == '\n') {
+                line++;
+                lineStart = current + 1;
+            }
             advance();
         }
 
         if(isAtEnd()) {
-            Lox.error(line,"Unterminated string");
+            truncated = true;
+            error("Unterminated string");
             return;
         }
 
@@ -197,7 +238,16 @@ public class Scanner {
 
     private void addToken(TokenType type, Object literal) {
         String text = source.substring(start, current);
-        tokens.add(new Token(type, text, literal, line));
+        tokens.add(new Token(type, text, literal, line, base + start, column));
+    }
+
+    private void error(String message) {
+        failed = true;
+        if(!reportErrors) return;
+
+        String text = source.substring(start, current);
+        int newline = text.indexOf('\n');
+        diagnostics.error(startLine, column, newline < 0 ? text : text.substring(0, newline), message);
     }
 
 
@@ -0,0 +1,50 @@
+package Jlox;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// A hidden class: the field layout shared by every instance of a class that got
+// its fields in the same order. Each class starts its instances on a shape with no
+// fields; adding a field moves an instance to the shape reached by that name from
+// its current one, so instances built the same way end up on the same shape and
+// a node that has seen it once (see Interpreter.getProperty) knows the index.
+//
+// Shapes never change once made. Transitions are shared by every thread that
+// builds instances, hence the concurrent map.
+class Shape implements Serializable {
+    private static final long serialVersionUID = Snapshot.VERSION;
+
+    final LoxClass klass;
+    private final Map<String, Integer> indices;
+    private final ConcurrentHashMap<String, Shape> transitions = new ConcurrentHashMap<>();
+
+    Shape(LoxClass klass) {
+        this(klass, new HashMap<>());
+    }
+
+    private Shape(LoxClass klass, Map<String, Integer> indices) {
+        this.klass = klass;
+        this.indices = indices;
+    }
+
+    int size() {
+        return indices.size();
+    }
+
+    // -1 when there is no such field.
+    int indexOf(String name) {
+        Integer index = indices.get(name);
+        return index == null ? -1 : index;
+    }
+
+    // The shape with name added, at index size().
+    Shape with(String name) {
+        return transitions.computeIfAbsent(name, field -> {
+            Map<String, Integer> added = new HashMap<>(indices);
+            added.put(field, indices.size());
+            return new Shape(klass, added);
+        });
+    }
+}
@@ -0,0 +1,114 @@
+package Jlox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputFilter;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Set;
+
+// Binary image of an interpreter's globals: every user function, its Stmt tree and
+// the environments it closes over. Natives are left out and defined again on load.
+class Snapshot {
+    private static final int MAGIC = 0x4A4C4F58;
+    // Also the serialVersionUID of every class an image holds, so bump it whenever
+    // one of them changes its serialized fields.
+    static final int VERSION = 2;
+
+    // What an image may hold besides jlox's own classes and arrays of primitives:
+    // the JDK types those serialize through, as listed for the native image in
+    // serialization-config.json. Everything else is rejected before it is created,
+    // so a crafted image cannot instantiate other classes on the class path.
+    private static final Set<String> JDK_CLASSES = Set.of(
+            "java.lang.Boolean", "java.lang.Double", "java.lang.Enum", "java.lang.Integer", "java.lang.Number",
+            "java.lang.Object", "java.lang.String", "java.util.ArrayList", "java.util.Arrays$ArrayList",
+            "java.util.HashMap", "java.util.Map$Entry", "java.util.concurrent.ConcurrentHashMap",
+            "java.util.concurrent.ConcurrentHashMap$Segment", "java.util.concurrent.locks.ReentrantLock",
+            "java.util.concurrent.locks.ReentrantLock$Sync", "java.util.concurrent.locks.ReentrantLock$NonfairSync",
+            "java.util.concurrent.locks.AbstractQueuedSynchronizer",
+            "java.util.concurrent.locks.AbstractOwnableSynchronizer");
+    // Saving a tree this deep would have overflowed the stack long before.
+    private static final long MAX_DEPTH = 10_000;
+    private static final long MAX_ARRAY_LENGTH = 1 << 26;
+
+    static void save(Environment globals, Path path) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(globals);
+        }
+
+        try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(path))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            bytes.writeTo(out);
+        }
+    }
+
+    static Environment load(Path path) throws IOException {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        if(buffer.remaining() < 8 || buffer.getInt() != MAGIC) {
+            throw new IOException(path + " is not a jlox snapshot image.");
+        }
+
+        int version = buffer.getInt();
+        if(version != VERSION) {
+            throw new IOException(path + " has snapshot version " + version + ", expected " + VERSION + ".");
+        }
+
+        try (ObjectInputStream in = new ObjectInputStream(new BufferInputStream(buffer))) {
+            in.setObjectInputFilter(Snapshot::filter);
+            return (Environment) in.readObject();
+        }
+        catch (ClassNotFoundException | ClassCastException e) {
+            throw new IOException(path + " does not match this version of jlox.", e);
+        }
+    }
+
+    private static ObjectInputFilter.Status filter(ObjectInputFilter.FilterInfo info) {
+        if(info.depth() > MAX_DEPTH || info.arrayLength() > MAX_ARRAY_LENGTH) return ObjectInputFilter.Status.REJECTED;
+
+        Class<?> type = info.serialClass();
+        if(type == null) return ObjectInputFilter.Status.ALLOWED;
+
+        while (type.isArray()) type = type.getComponentType();
+        if(type.isPrimitive() || type.getPackageName().equals("Jlox") || JDK_CLASSES.contains(type.getName())) {
+            return ObjectInputFilter.Status.ALLOWED;
+        }
+
+        return ObjectInputFilter.Status.REJECTED;
+    }
+
+    private static class BufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        BufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) {
+            if(!buffer.hasRemaining()) return -1;
+
+            length = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, length);
+            return length;
+        }
+    }
+}
@@ -1,7 +1,24 @@
 package Jlox;
+import java.io.Serializable;
 import java.util.List;
 
-abstract class Stmt {
+abstract sealed class Stmt implements Serializable {
+
+    // Snapshot images hold these trees, so Snapshot.VERSION says which ones load.
+    private static final long serialVersionUID = Snapshot.VERSION;
+
+    static final int PRINT = 0;
+    static final int EXPRESSION = 1;
+    static final int VAR = 2;
+    static final int BLOCK = 3;
+    static final int IF = 4;
+    static final int WHILE = 5;
+    static final int FUN = 6;
+    static final int RETURN = 7;
+    static final int WHILE_LESS = 8;
+    static final int CLASS = 9;
+    static final int TRAP = 10;
+    static final int COUNT = 11;
 
     interface Visitor<R> {
         R visitPrintStmt(Print printStmt);
@@ -12,15 +29,30 @@ abstract class Stmt {
         R visitWhileStmt(While whileStmt);
         R visitFunStmt(Fun funStmt);
         R visitReturnStmt(Return returnStmt);
+        R visitWhileLessStmt(WhileLess whilelessStmt);
+        R visitClassStmt(Class classStmt);
+        R visitTrapStmt(Trap trapStmt);
+        R visitCountStmt(Count countStmt);
+    }
+
+    final int tag;
+
+    Stmt(int tag) {
+        this.tag = tag;
     }
 
     abstract <R> R accept(Visitor<R> visitor);
 
-    static class Print extends Stmt {
-        Print(Expr expression) {
+    static final class Print extends Stmt {
+        private static final long serialVersionUID = Snapshot.VERSION;
+
+        Print(Token keyword, Expr expression) {
+            super(PRINT);
+            this.keyword = keyword;
             this.expression = expression;
         }
 
+        final Token keyword;
         final Expr expression;
 
         <R> R accept(Visitor<R> visitor) {
@@ -28,8 +60,11 @@ abstract class Stmt {
         }
     }
 
-    static class Expression extends Stmt {
+    static final class Expression extends Stmt {
+        private static final long serialVersionUID = Snapshot.VERSION;
+
         Expression(Expr expression) {
+            super(EXPRESSION);
             this.expression = expression;
         }
 
@@ -40,8 +75,11 @@ abstract class Stmt {
         }
     }
 
-    static class Var extends Stmt {
+    static final class Var extends Stmt {
+        private static final long serialVersionUID = Snapshot.VERSION;
+
         Var(Token name, Expr initializer) {
+            super(VAR);
             this.name = name;
             this.initializer = initializer;
         }
@@ -49,25 +87,39 @@ abstract class Stmt {
         final Token name;
         final Expr initializer;
 
+        // Filled in after parsing.
+        int slot = -1;
+        boolean captured;
+        boolean boxed;
+
         <R> R accept(Visitor<R> visitor) {
             return visitor.visitVarStmt(this);
         }
     }
 
-    static class Block extends Stmt {
+    static final class Block extends Stmt {
+        private static final long serialVersionUID = Snapshot.VERSION;
+
         Block(List<Stmt> statements) {
+            super(BLOCK);
             this.statements = statements;
         }
 
         final List<Stmt> statements;
 
+        // Filled in after parsing.
+        int[] cells;
+
         <R> R accept(Visitor<R> visitor) {
             return visitor.visitBlockStmt(this);
         }
     }
 
-    static class If extends Stmt {
+    static final class If extends Stmt {
+        private static final long serialVersionUID = Snapshot.VERSION;
+
         If(Expr condition, Stmt thenBranch, Stmt elseBranch) {
+            super(IF);
             this.condition = condition;
             this.thenBranch = thenBranch;
             this.elseBranch = elseBranch;
@@ -82,22 +134,33 @@ abstract class Stmt {
         }
     }
 
-    static class While extends Stmt {
-        While(Expr condition, Stmt body) {
+    static final class While extends Stmt {
+        private static final long serialVersionUID = Snapshot.VERSION;
+
+        While(Token keyword, Expr condition, Stmt body) {
+            super(WHILE);
+            this.keyword = keyword;
             this.condition = condition;
             this.body = body;
         }
 
+        final Token keyword;
         final Expr condition;
         final Stmt body;
 
+        // Filled in after parsing.
+        int[] hoisted;
+
         <R> R accept(Visitor<R> visitor) {
             return visitor.visitWhileStmt(this);
         }
     }
 
-    static class Fun extends Stmt {
+    static final class Fun extends Stmt {
+        private static final long serialVersionUID = Snapshot.VERSION;
+
         Fun(Token name, List<Token> params, List<Stmt> body) {
+            super(FUN);
             this.name = name;
             this.params = params;
             this.body = body;
@@ -107,13 +170,29 @@ abstract class Stmt {
         final List<Token> params;
         final List<Stmt> body;
 
+        // Filled in after parsing.
+        int slot = -1;
+        boolean captured;
+        boolean boxed;
+        int slotCount;
+        int[] capturedParams;
+        int[] cells;
+        int[] upvalues;
+        int thisSlot = -1;
+        Token effect;
+        transient int calls;
+        transient CompiledFunction compiled;
+
         <R> R accept(Visitor<R> visitor) {
             return visitor.visitFunStmt(this);
         }
     }
 
-    static class Return extends Stmt {
+    static final class Return extends Stmt {
+        private static final long serialVersionUID = Snapshot.VERSION;
+
         Return(Token keyword, Expr Value) {
+            super(RETURN);
             this.keyword = keyword;
             this.Value = Value;
         }
@@ -125,4 +204,87 @@ abstract class Stmt {
             return visitor.visitReturnStmt(this);
         }
     }
+
+    static final class WhileLess extends Stmt {
+        private static final long serialVersionUID = Snapshot.VERSION;
+
+        WhileLess(While loop, int slot, Expr limit) {
+            super(WHILE_LESS);
+            this.loop = loop;
+            this.slot = slot;
+            this.limit = limit;
+        }
+
+        final While loop;
+        final int slot;
+        final Expr limit;
+
+        <R> R accept(Visitor<R> visitor) {
+            return visitor.visitWhileLessStmt(this);
+        }
+    }
+
+    static final class Class extends Stmt {
+        private static final long serialVersionUID = Snapshot.VERSION;
+
+        Class(Token name, Expr.Variable superclass, List<Fun> methods) {
+            super(CLASS);
+            this.name = name;
+            this.superclass = superclass;
+            this.methods = methods;
+        }
+
+        final Token name;
+        final Expr.Variable superclass;
+        final List<Fun> methods;
+
+        // Filled in after parsing.
+        int slot = -1;
+        boolean captured;
+        boolean boxed;
+
+        <R> R accept(Visitor<R> visitor) {
+            return visitor.visitClassStmt(this);
+        }
+    }
+
+    static final class Trap extends Stmt {
+        private static final long serialVersionUID = Snapshot.VERSION;
+
+        Trap(Stmt stmt, int site) {
+            super(TRAP);
+            this.stmt = stmt;
+            this.site = site;
+        }
+
+        final Stmt stmt;
+        final int site;
+
+        // Filled in after parsing.
+        boolean breakpoint;
+
+        <R> R accept(Visitor<R> visitor) {
+            return visitor.visitTrapStmt(this);
+        }
+    }
+
+    static final class Count extends Stmt {
+        private static final long serialVersionUID = Snapshot.VERSION;
+
+        Count(Stmt stmt, int id) {
+            super(COUNT);
+            this.stmt = stmt;
+            this.id = id;
+        }
+
+        final Stmt stmt;
+        final int id;
+
+        // Filled in after parsing.
+        long[] counters;
+
+        <R> R accept(Visitor<R> visitor) {
+            return visitor.visitCountStmt(this);
+        }
+    }
 }
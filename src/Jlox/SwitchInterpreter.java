@@ -0,0 +1,69 @@
+package Jlox;
+
+// The same interpreter, dispatching on each node's tag with a switch instead of
+// going through accept. A call to accept is a virtual call on the node followed by
+// an interface call on the visitor, both megamorphic at the one place every
+// evaluation goes through; here it is a tableswitch and a direct call. Nodes it
+// does not know are still visited. bench/Jlox/DispatchBenchmark compares the two.
+class SwitchInterpreter extends Interpreter {
+
+    @Override
+    Object evaluate(Expr expr) {
+        switch (expr.tag) {
+            case Expr.BINARY:
+                return visitBinaryExpr((Expr.Binary) expr);
+            case Expr.UNARY:
+                return visitUnaryExpr((Expr.Unary) expr);
+            case Expr.GROUPING:
+                return visitGroupingExpr((Expr.Grouping) expr);
+            case Expr.LITERAL:
+                return visitLiteralExpr((Expr.Literal) expr);
+            case Expr.VARIABLE:
+                return visitVariableExpr((Expr.Variable) expr);
+            case Expr.ASSIGN:
+                return visitAssignExpr((Expr.Assign) expr);
+            case Expr.LOGICAL:
+                return visitLogicalExpr((Expr.Logical) expr);
+            case Expr.CALL:
+                return visitCallExpr((Expr.Call) expr);
+            case Expr.HOISTED:
+                return visitHoistedExpr((Expr.Hoisted) expr);
+            case Expr.INCREMENT_LOCAL:
+                return visitIncrementLocalExpr((Expr.IncrementLocal) expr);
+            case Expr.COMPARE_LOCAL:
+                return visitCompareLocalExpr((Expr.CompareLocal) expr);
+            case Expr.GET:
+                return visitGetExpr((Expr.Get) expr);
+            case Expr.SET:
+                return visitSetExpr((Expr.Set) expr);
+            case Expr.INVOKE:
+                return visitInvokeExpr((Expr.Invoke) expr);
+        }
+
+        return expr.accept(this);
+    }
+
+    @Override
+    Void execute(Stmt stmt) {
+        switch (stmt.tag) {
+            case Stmt.PRINT:
+                return visitPrintStmt((Stmt.Print) stmt);
+            case Stmt.EXPRESSION:
+                return visitExpressionStmt((Stmt.Expression) stmt);
+            case Stmt.VAR:
+                return visitVarStmt((Stmt.Var) stmt);
+            case Stmt.BLOCK:
+                return visitBlockStmt((Stmt.Block) stmt);
+            case Stmt.IF:
+                return visitIfStmt((Stmt.If) stmt);
+            case Stmt.WHILE:
+                return visitWhileStmt((Stmt.While) stmt);
+            case Stmt.RETURN:
+                return visitReturnStmt((Stmt.Return) stmt);
+            case Stmt.WHILE_LESS:
+                return visitWhileLessStmt((Stmt.WhileLess) stmt);
+        }
+
+        return stmt.accept(this);
+    }
+}
@@ -1,5 +1,6 @@
 package Jlox;
 
+import java.io.Serializable;
 
 enum TokenType {
 
@@ -22,17 +23,28 @@ enum TokenType {
 
 }
 
-public class Token {
+public class Token implements Serializable {
+    private static final long serialVersionUID = Snapshot.VERSION;
+
     TokenType type;
     String lexeme;
     Object literal;
     int line;
+    int offset;
+    // 1-based, 0 if not known.
+    int column;
 
     Token(TokenType type, String lexeme, Object literal, int line) {
+        this(type, lexeme, literal, line, -1, 0);
+    }
+
+    Token(TokenType type, String lexeme, Object literal, int line, int offset, int column) {
         this.type = type;
         this.lexeme = lexeme;
         this.literal = literal;
         this.line = line;
+        this.offset = offset;
+        this.column = column;
     }
 
     @Override
@@ -7,57 +7,85 @@ import java.util.List;
 
 public class GenerateAst {
 
+    // With --sealed the base classes are sealed and every node class is final.
     public static void main(String[] args) throws IOException{
-        if(args.length != 1) {
-            System.err.println("Usage : generate_ast <ouput dir>");
+        boolean sealed = args.length == 2 && args[0].equals("--sealed");
+        if(args.length != 1 && !sealed) {
+            System.err.println("Usage : generate_ast [--sealed] <ouput dir>");
             System.exit(1);
         }
 
-        String outputDir = args[0];
+        String outputDir = args[args.length - 1];
 
-        defineAst(outputDir, "Expr", Arrays.asList(
+        defineAst(outputDir, "Expr", sealed, Arrays.asList(
             "Binary   : Expr left, Token operator, Expr right",
             "Unary    : Token operator, Expr right",
             "Grouping : Expr expr",
             "Literal  : Object value",
-            "Variable : Token name",
-            "Assign   : Token name, Expr value",
+            "Variable : Token name | int kind, int slot = -1, transient Environment globals",
+            "Assign   : Token name, Expr value | int kind, int slot = -1, transient Environment globals",
             "Logical  : Expr left, Token operator, Expr right",
-            "Call     : Expr callee, Token paren, List<Expr> arguments"
+            "Call     : Expr callee, Token paren, List<Expr> arguments",
+            "Hoisted  : Expr expr, int slot",
+            "IncrementLocal : int slot, double delta, Expr fallback",
+            "CompareLocal   : Token operator, int slot, double constant, Expr fallback",
+            "Get      : Expr object, Token name | transient Shape shape, transient int index, transient LoxFunction method",
+            "Set      : Expr object, Token name, Expr value | transient Shape shape, transient int index, transient Shape transition",
+            "Super    : Token keyword, Token method, Variable superclass, Variable receiver",
+            "Invoke   : Expr object, Token name, Token paren, List<Expr> arguments | transient Shape[] shapes, transient LoxFunction[] methods, transient int cached"
         ));
 
-        defineAst(outputDir, "Stmt", Arrays.asList(
-                "Print      : Expr expression",
+        defineAst(outputDir, "Stmt", sealed, Arrays.asList(
+                "Print      : Token keyword, Expr expression",
                 "Expression : Expr expression",
-                "Var        : Token name, Expr initializer",
-                "Block      : List<Stmt> statements",
+                "Var        : Token name, Expr initializer | int slot = -1, boolean captured, boolean boxed",
+                "Block      : List<Stmt> statements | int[] cells",
                 "If         : Expr condition, Stmt thenBranch, Stmt elseBranch",
-                "While      : Expr condition, Stmt body",
-                "Fun        : Token name, List<Token> params, List<Stmt> body",
-                "Return     : Token keyword, Expr Value"
+                "While      : Token keyword, Expr condition, Stmt body | int[] hoisted",
+                "Fun        : Token name, List<Token> params, List<Stmt> body | int slot = -1, boolean captured, boolean boxed, int slotCount, int[] capturedParams, int[] cells, int[] upvalues, int thisSlot = -1, Token effect, transient int calls, transient CompiledFunction compiled",
+                "Return     : Token keyword, Expr Value",
+                "WhileLess  : While loop, int slot, Expr limit",
+                "Class      : Token name, Expr.Variable superclass, List<Fun> methods | int slot = -1, boolean captured, boolean boxed",
+                "Trap       : Stmt stmt, int site | boolean breakpoint",
+                "Count      : Stmt stmt, int id | long[] counters"
         ));
 
     }
 
-    private static void defineAst(String outputDir, String baseName, List<String> types) throws IOException {
+    private static void defineAst(String outputDir, String baseName, boolean sealed, List<String> types)
+            throws IOException {
         String path = outputDir + "/" + baseName + ".java";
         PrintWriter printWriter = new PrintWriter(path, "UTF-8");
 
         printWriter.println("package Jlox;");
+        printWriter.println("import java.io.Serializable;");
         printWriter.println("import java.util.List;");
         printWriter.println();
-        printWriter.println("abstract class "+ baseName + " {");
+        printWriter.println("abstract " + (sealed ? "sealed " : "") + "class "+ baseName + " implements Serializable {");
+        printWriter.println();
+        printWriter.println("    // Snapshot images hold these trees, so Snapshot.VERSION says which ones load.");
+        printWriter.println("    private static final long serialVersionUID = Snapshot.VERSION;");
+        printWriter.println();
+
+        defineTags(printWriter, types);
         printWriter.println();
 
         defineVisitor(printWriter, baseName, types);
 
+        printWriter.println();
+        printWriter.println("    final int tag;");
+        printWriter.println();
+        printWriter.println("    " + baseName + "(int tag) {");
+        printWriter.println("        this.tag = tag;");
+        printWriter.println("    }");
+
         printWriter.println();
         printWriter.println("    abstract <R> R accept(Visitor<R> visitor);");
 
         for(String type : types) {
             String className = type.split(":")[0].trim();
             String fields = type.split(":")[1].trim();
-            defineType(printWriter, className, fields, baseName);
+            defineType(printWriter, className, fields, baseName, sealed);
         }
 
         printWriter.println("}");
@@ -65,6 +93,18 @@ public class GenerateAst {
         printWriter.close();
     }
 
+    // One constant per node type, for code that switches on tag instead of visiting.
+    private static void defineTags(PrintWriter printWriter, List<String> types) {
+        for(int i = 0; i < types.size(); i++) {
+            String typeName = types.get(i).split(":")[0].trim();
+            printWriter.println("    static final int " + tagName(typeName) + " = " + i + ";");
+        }
+    }
+
+    private static String tagName(String typeName) {
+        return typeName.replaceAll("([a-z])([A-Z])", "$1_$2").toUpperCase();
+    }
+
     private static void defineVisitor(PrintWriter printWriter, String basename, List<String> types) {
         printWriter.println("    interface Visitor<R> {");
 
@@ -77,10 +117,22 @@ public class GenerateAst {
         printWriter.println("    }");
     }
 
-    private static void defineType(PrintWriter printWriter, String className, String fields, String baseName) {
+    // Fields after a '|' are not constructor parameters; they are mutable and
+    // filled in by the passes that run after the parser.
+    private static void defineType(PrintWriter printWriter, String className, String fields, String baseName,
+                                   boolean sealed) {
+        String resolved = null;
+        if(fields.contains("|")) {
+            resolved = fields.split("\\|")[1].trim();
+            fields = fields.split("\\|")[0].trim();
+        }
+
+        printWriter.println();
+        printWriter.println("    static " + (sealed ? "final " : "") + "class " + className + " extends " + baseName + " {");
+        printWriter.println("        private static final long serialVersionUID = Snapshot.VERSION;");
         printWriter.println();
-        printWriter.println("    static class " + className + " extends " + baseName + " {");
         printWriter.println("        " + className + "(" + fields + ") {");
+        printWriter.println("            super(" + tagName(className) + ");");
 
         String[] fieldArray = fields.split(",");
 
@@ -98,6 +150,15 @@ public class GenerateAst {
             printWriter.println("        final " + field + ";");
         }
 
+        if(resolved != null) {
+            printWriter.println();
+            printWriter.println("        // Filled in after parsing.");
+
+            for(String field : resolved.split(",")) {
+                printWriter.println("        " + field.trim() + ";");
+            }
+        }
+
         printWriter.println();
         printWriter.println("        <R> R accept(Visitor<R> visitor) {");
         printWriter.println("            return visitor.visit" + className + baseName + "(this);");